@@ -0,0 +1,135 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import diskExceptions.FullDiskException;
+import diskUtilities.BitmapAllocator;
+import diskUtilities.BlockAllocator;
+import diskUtilities.ChunkedBlockAllocator;
+import diskUtilities.DiskStorage;
+import diskUtilities.Extent;
+import diskUtilities.RAFDiskStorage;
+
+/**
+ * Measures how fast single blocks are handed out when several threads
+ * allocate at once, by a bitmap allocator behind one lock and by a
+ * ChunkedBlockAllocator over the same bitmap. Each trial starts from a
+ * new bitmap, and the threads take ALLOCATIONS blocks in total. The
+ * median of TRIALS trials, run after WARMUP trials that are not
+ * counted, is shown for each number of threads.
+ *
+ * The threads contend for the lock only if they run at once, so the
+ * number of processors is shown first. On a single processor the
+ * threads take turns, and the results show what each allocation costs
+ * rather than how the allocators behave under contention.
+ * @author josej
+ *
+ */
+public class AllocatorBenchmark {
+	private static final int CAPACITY = 1 << 22;			//blocks of the disk
+	private static final int BLOCK_SIZE = 4096;				//bytes per block
+	private static final int ALLOCATIONS = 1 << 20;			//blocks taken per trial
+	private static final int WARMUP = 5;					//trials before measuring
+	private static final int TRIALS = 5;					//trials per measure
+	private static final int[] THREADS = { 1, 4, 16, 64 };
+
+	public static void main(String[] args) throws Exception {
+		File file = File.createTempFile("allocator", ".disk");
+		file.deleteOnExit();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		DiskStorage disk = new RAFDiskStorage(raf);
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		System.out.println(processors + (processors == 1 ? " processor" : " processors") + " available.");
+		if(processors == 1)
+			System.out.println("The threads take turns, so the results show no contention.");
+		System.out.println(String.format("%-12s %8s %14s %12s", "allocator", "threads", "blocks/s", "ns/block"));
+		for(int threads : THREADS)
+			for(boolean chunked : new boolean[] { false, true }){
+				for(int t = 0; t < WARMUP; t++)
+					measure(disk, threads, chunked);
+				long[] times = new long[TRIALS];
+				for(int t = 0; t < TRIALS; t++)
+					times[t] = measure(disk, threads, chunked);
+				Arrays.sort(times);
+				long median = times[TRIALS / 2];
+				System.out.println(String.format("%-12s %8d %14.0f %12.1f",
+						chunked ? "chunked" : "synchronized", threads,
+						ALLOCATIONS / (median / 1e9), (double) median / ALLOCATIONS));
+			}
+		disk.close();
+	}
+
+	/**
+	 * Runs one trial.
+	 * @return the nanoseconds taken by the threads to allocate
+	 */
+	private static long measure(DiskStorage disk, int threads, boolean chunked)
+			throws IOException, InterruptedException {
+		final Object lock = new Object();
+		final BlockAllocator bitmap = BitmapAllocator.create(disk, CAPACITY, BLOCK_SIZE, 1);
+		final BlockAllocator allocator = chunked ? new ChunkedBlockAllocator(bitmap, lock) :
+			new BlockAllocator() {
+			public int allocate() throws FullDiskException {
+				synchronized(lock){
+					return bitmap.allocate();
+				}
+			}
+			public Extent allocateExtent(int desiredBlocks) throws FullDiskException {
+				synchronized(lock){
+					return bitmap.allocateExtent(desiredBlocks);
+				}
+			}
+			public void free(int bn) {
+				synchronized(lock){
+					bitmap.free(bn);
+				}
+			}
+			public int getFirstFreeBlock() {
+				synchronized(lock){
+					return bitmap.getFirstFreeBlock();
+				}
+			}
+			public void flush() throws IOException {
+				synchronized(lock){
+					bitmap.flush();
+				}
+			}
+			public String getFormatName() {
+				return bitmap.getFormatName();
+			}
+		};
+
+		final int perThread = ALLOCATIONS / threads;
+		final CountDownLatch ready = new CountDownLatch(threads);
+		final CountDownLatch go = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for(int i = 0; i < threads; i++){
+			workers[i] = new Thread(){
+				public void run(){
+					ready.countDown();
+					try {
+						go.await();
+						for(int n = 0; n < perThread; n++)
+							allocator.allocate();
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					} catch (FullDiskException e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			workers[i].start();
+		}
+		ready.await();
+		long start = System.nanoTime();
+		go.countDown();
+		for(Thread worker : workers)
+			worker.join();
+		return System.nanoTime() - start;
+	}
+}
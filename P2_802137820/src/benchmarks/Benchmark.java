@@ -0,0 +1,82 @@
+package benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An operation whose average time is measured by a BenchmarkRunner.
+ * The runner calls setUp() once, then run() several times, each time
+ * with the number of operations to execute in a row, and tearDown()
+ * at the end. Whatever must not be timed, as creating the disk the
+ * operation works on, goes in setUp().
+ * @author josej
+ *
+ */
+public abstract class Benchmark {
+	private String name;								//name of the measured operation
+	private LinkedHashMap<String, String> params;		//values the operation depends on
+
+	/**
+	 * @param name the name of the measured operation
+	 */
+	protected Benchmark(String name){
+		this.name = name;
+		params = new LinkedHashMap<String, String>();
+	}
+
+	/**
+	 * Records a value the operation depends on, as the block size, so
+	 * that the results of different values can be told apart.
+	 * @param key the name of the value
+	 * @param value the value
+	 * @return this benchmark
+	 */
+	public Benchmark param(String key, Object value){
+		params.put(key, String.valueOf(value));
+		return this;
+	}
+
+	/**
+	 * Returns the name of the measured operation.
+	 * @return the name
+	 */
+	public String getName(){
+		return name;
+	}
+
+	/**
+	 * Returns the values the operation depends on, in the order they
+	 * were recorded.
+	 * @return the values by name
+	 */
+	public Map<String, String> getParams(){
+		return params;
+	}
+
+	/**
+	 * Prepares what the operation needs, before it is timed.
+	 */
+	protected void setUp() throws Exception {
+	}
+
+	/**
+	 * Executes the operation a number of times in a row.
+	 * @param operations the number of times
+	 * @return any value computed from the results of the operations, so
+	 * that the compiler can't leave them out
+	 */
+	protected abstract long run(int operations) throws Exception;
+
+	/**
+	 * Called after each call to run(), outside of the time measured,
+	 * to undo what run() left behind, if needed.
+	 */
+	protected void afterRun() throws Exception {
+	}
+
+	/**
+	 * Releases what setUp() prepared.
+	 */
+	protected void tearDown() throws Exception {
+	}
+}
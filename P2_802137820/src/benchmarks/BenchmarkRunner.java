@@ -0,0 +1,221 @@
+package benchmarks;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures the average time of the operation of each Benchmark given,
+ * and writes the results as JSON, so that the times of different
+ * versions of the system can be compared.
+ *
+ * The number of operations of an iteration is found first, doubling it
+ * until an iteration lasts about ITERATION_NANOS, which also lets the
+ * JIT compile the code. WARMUP iterations that are not counted follow,
+ * and then ITERATIONS measured ones, each giving one sample of the
+ * average time of an operation.
+ * @author josej
+ *
+ */
+public class BenchmarkRunner {
+	/** Time each iteration should last. **/
+	public static final long ITERATION_NANOS = 200000000L;
+	/** Iterations executed before measuring. **/
+	public static final int WARMUP = 3;
+	/** Iterations measured. **/
+	public static final int ITERATIONS = 5;
+
+	private PrintStream log;						//receives a line per result, may be null
+	private ArrayList<Result> results;				//the results so far
+	private long blackhole;							//combines the values returned by the benchmarks
+
+	/**
+	 * @param log the stream to show each result on as it is measured,
+	 * or null to show nothing
+	 */
+	public BenchmarkRunner(PrintStream log){
+		this.log = log;
+		results = new ArrayList<Result>();
+	}
+
+	/**
+	 * Measures a benchmark and keeps its result.
+	 * @param b the benchmark
+	 * @return the result
+	 * @throws Exception whatever the benchmark throws.
+	 */
+	public Result measure(Benchmark b) throws Exception {
+		b.setUp();
+		try {
+			int operations = 1;
+			long elapsed = time(b, operations);
+			while(elapsed < ITERATION_NANOS / 4 && operations < Integer.MAX_VALUE / 2){
+				operations *= 2;
+				elapsed = time(b, operations);
+			}
+			operations = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+					(double) operations * ITERATION_NANOS / Math.max(1, elapsed)));
+
+			for(int i = 0; i < WARMUP; i++)
+				time(b, operations);
+			double[] samples = new double[ITERATIONS];
+			for(int i = 0; i < ITERATIONS; i++)
+				samples[i] = (double) time(b, operations) / operations;
+
+			Result r = new Result(b, operations, samples);
+			results.add(r);
+			if(log != null)
+				log.println(String.format("%-36s %-40s %14.1f +- %10.1f ns/op",
+						b.getName(), b.getParams(), r.getMean(), r.getStdev()));
+			return r;
+		} finally {
+			b.tearDown();
+		}
+	}
+
+	/**
+	 * Returns the results measured so far.
+	 * @return the results, in the order they were measured
+	 */
+	public ArrayList<Result> getResults(){
+		return results;
+	}
+
+	/**
+	 * Writes the results measured so far as a JSON object with the
+	 * date, the Java version, the operating system and an array with
+	 * a member per result. The times are in nanoseconds per operation.
+	 * @param out the stream to write to
+	 */
+	public void writeJson(PrintStream out){
+		out.println("{");
+		out.println("  \"date\": " + quote(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(new Date())) + ",");
+		out.println("  \"java\": " + quote(System.getProperty("java.version")) + ",");
+		out.println("  \"os\": " + quote(System.getProperty("os.name") + " " + System.getProperty("os.arch")) + ",");
+		out.println("  \"processors\": " + Runtime.getRuntime().availableProcessors() + ",");
+		out.println("  \"results\": [");
+		for(int i = 0; i < results.size(); i++){
+			Result r = results.get(i);
+			StringBuilder params = new StringBuilder();
+			for(Map.Entry<String, String> e : r.getParams().entrySet())
+				params.append(params.length() == 0 ? "" : ", ")
+				.append(quote(e.getKey())).append(": ").append(quote(e.getValue()));
+			StringBuilder samples = new StringBuilder();
+			for(double s : r.getSamples())
+				samples.append(samples.length() == 0 ? "" : ", ").append(number(s));
+			out.println("    {");
+			out.println("      \"benchmark\": " + quote(r.getName()) + ",");
+			out.println("      \"params\": {" + params + "},");
+			out.println("      \"unit\": \"ns/op\",");
+			out.println("      \"operations\": " + r.getOperations() + ",");
+			out.println("      \"score\": " + number(r.getMean()) + ",");
+			out.println("      \"stdev\": " + number(r.getStdev()) + ",");
+			out.println("      \"min\": " + number(r.getMin()) + ",");
+			out.println("      \"samples\": [" + samples + "]");
+			out.println("    }" + (i < results.size() - 1 ? "," : ""));
+		}
+		out.println("  ]");
+		out.println("}");
+		out.flush();
+	}
+
+	/**
+	 * Executes one iteration of a benchmark.
+	 * @return the nanoseconds it took, not counting afterRun()
+	 */
+	private long time(Benchmark b, int operations) throws Exception {
+		long start = System.nanoTime();
+		blackhole += b.run(operations);
+		long elapsed = System.nanoTime() - start;
+		b.afterRun();
+		return elapsed;
+	}
+
+	/**
+	 * Returns the value combined from what the benchmarks returned; it
+	 * has no meaning other than keeping the compiler from leaving out
+	 * their work.
+	 * @return the value
+	 */
+	public long getBlackhole(){
+		return blackhole;
+	}
+
+	private static String number(double value){
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	private static String quote(String s){
+		StringBuilder sb = new StringBuilder("\"");
+		for(int i = 0; i < s.length(); i++){
+			char c = s.charAt(i);
+			if(c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if(c < ' ')
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * The average time of an operation of one benchmark.
+	 */
+	public static class Result {
+		private String name;						//name of the operation
+		private Map<String, String> params;			//values the operation depends on
+		private int operations;						//operations per iteration
+		private double[] samples;					//ns per operation of each iteration
+
+		private Result(Benchmark b, int operations, double[] samples){
+			name = b.getName();
+			params = b.getParams();
+			this.operations = operations;
+			this.samples = samples;
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		public Map<String, String> getParams(){
+			return params;
+		}
+
+		public int getOperations(){
+			return operations;
+		}
+
+		public double[] getSamples(){
+			return samples;
+		}
+
+		public double getMean(){
+			double sum = 0;
+			for(double s : samples)
+				sum += s;
+			return sum / samples.length;
+		}
+
+		public double getStdev(){
+			if(samples.length < 2)
+				return 0;
+			double mean = getMean();
+			double sum = 0;
+			for(double s : samples)
+				sum += (s - mean) * (s - mean);
+			return Math.sqrt(sum / (samples.length - 1));
+		}
+
+		public double getMin(){
+			double min = Double.MAX_VALUE;
+			for(double s : samples)
+				min = Math.min(min, s);
+			return min;
+		}
+	}
+}
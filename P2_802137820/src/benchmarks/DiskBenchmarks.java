@@ -0,0 +1,250 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Random;
+
+import diskUtilities.DiskUnit;
+import diskUtilities.DiskUtils;
+import diskUtilities.VirtualDiskBlock;
+
+/**
+ * Measures the operations of the disk layer that the rest of the system
+ * relies on: reading and writing a block for block sizes from 32 to
+ * 4096 bytes, creating a disk for several capacities, taking and
+ * returning a free i-node, and copying an int to and from a block. The
+ * results are shown as they are measured and written as JSON to a file
+ * (see BenchmarkRunner.writeJson()), so that the results of two
+ * versions can be compared.
+ *
+ * The disks are created in the same place as the disks of the system,
+ * with names starting with "bench-", and deleted at the end.
+ * Usage: DiskBenchmarks [file [filter]]; the file defaults to
+ * benchmarks.json, and a filter measures only the benchmarks whose
+ * name contains it.
+ * @author josej
+ *
+ */
+public class DiskBenchmarks {
+	private static final int[] BLOCK_SIZES = { 32, 64, 128, 256, 512, 1024, 2048, 4096 };
+	private static final int[] CREATE_CAPACITIES = { 1 << 10, 1 << 13, 1 << 16 };
+	private static final int CREATE_BLOCK_SIZE = 512;	//bytes per block of the disks created
+	private static final int RW_CAPACITY = 1 << 14;		//blocks of the disks read and written
+	private static final int PATTERN = 1 << 12;			//blocks in the order of access, a power of 2
+
+	public static void main(String[] args) throws Exception {
+		String output = args.length >= 1 ? args[0] : "benchmarks.json";
+		String filter = args.length >= 2 ? args[1] : "";
+
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for(int blockSize : BLOCK_SIZES)
+			for(boolean mapped : new boolean[] { false, true }){
+				benchmarks.add(new ReadBlock(blockSize, mapped));
+				benchmarks.add(new WriteBlock(blockSize, mapped));
+			}
+		for(int capacity : CREATE_CAPACITIES)
+			for(int format : new int[] { DiskUnit.FREE_BLOCK_TREE, DiskUnit.FREE_BLOCK_BITMAP })
+				for(boolean sparse : new boolean[] { false, true })
+					benchmarks.add(new CreateDisk(capacity, format, sparse));
+		for(int format : new int[] { DiskUnit.INODE_CHAINED, DiskUnit.INODE_EXTENTS })
+			benchmarks.add(new FreeINode(format));
+		benchmarks.add(new CopyInt(true));
+		benchmarks.add(new CopyInt(false));
+
+		BenchmarkRunner runner = new BenchmarkRunner(System.out);
+		for(Benchmark b : benchmarks)
+			if(b.getName().contains(filter))
+				runner.measure(b);
+
+		PrintStream out = new PrintStream(new FileOutputStream(output));
+		runner.writeJson(out);
+		out.close();
+		System.out.println("Results written to " + output + ".");
+	}
+
+	/**
+	 * Deletes the file of a disk, if it exists.
+	 */
+	private static void deleteDisk(String name){
+		new File("src\\DiskUnits\\" + name).delete();
+	}
+
+	/**
+	 * Returns the blocks to access, in an order that jumps around the
+	 * second half of a disk, where nothing the disk keeps about itself
+	 * is stored.
+	 */
+	private static int[] accessPattern(int capacity){
+		Random random = new Random(42);
+		int[] blocks = new int[PATTERN];
+		for(int i = 0; i < PATTERN; i++)
+			blocks[i] = capacity / 2 + random.nextInt(capacity / 2);
+		return blocks;
+	}
+
+	/**
+	 * A disk of RW_CAPACITY blocks mounted without a cache, so that each
+	 * block read or written reaches its file.
+	 */
+	private static abstract class BlockBenchmark extends Benchmark {
+		private int blockSize;						//bytes per block of the disk
+		private boolean mapped;						//true to map the file of the disk
+		protected DiskUnit disk;					//the mounted disk
+		protected VirtualDiskBlock block;			//the block read or written
+		protected int[] blocks;						//the order of the blocks accessed
+
+		BlockBenchmark(String name, int blockSize, boolean mapped){
+			super(name);
+			this.blockSize = blockSize;
+			this.mapped = mapped;
+			param("blockSize", blockSize).param("storage", mapped ? "mapped" : "raf");
+		}
+
+		protected void setUp() throws Exception {
+			deleteDisk("bench-rw");
+			DiskUnit.createDiskUnit("bench-rw", RW_CAPACITY, blockSize, DiskUnit.FREE_BLOCK_BITMAP);
+			disk = DiskUnit.mount("bench-rw", mapped, 0);
+			block = new VirtualDiskBlock(blockSize);
+			blocks = accessPattern(RW_CAPACITY);
+		}
+
+		protected void tearDown() {
+			disk.shutdown();
+			deleteDisk("bench-rw");
+		}
+	}
+
+	private static class ReadBlock extends BlockBenchmark {
+		ReadBlock(int blockSize, boolean mapped){
+			super("DiskUnit.read", blockSize, mapped);
+		}
+
+		protected long run(int operations) {
+			long sum = 0;
+			for(int i = 0; i < operations; i++){
+				disk.read(blocks[i & (PATTERN - 1)], block);
+				sum += block.getElement(0);
+			}
+			return sum;
+		}
+	}
+
+	private static class WriteBlock extends BlockBenchmark {
+		WriteBlock(int blockSize, boolean mapped){
+			super("DiskUnit.write", blockSize, mapped);
+		}
+
+		protected long run(int operations) {
+			for(int i = 0; i < operations; i++){
+				block.setElement(0, (byte) i);
+				disk.write(blocks[i & (PATTERN - 1)], block);
+			}
+			return operations;
+		}
+	}
+
+	/**
+	 * Creates a new disk per operation; unless it is sparse, most of the
+	 * time goes to registering its free blocks and i-nodes.
+	 * The disks are deleted after each iteration.
+	 */
+	private static class CreateDisk extends Benchmark {
+		private int capacity;						//blocks of the disks created
+		private int format;							//format of their free blocks
+		private boolean sparse;						//true to create them sparse
+		private int created;						//disks created and not deleted yet
+
+		CreateDisk(int capacity, int format, boolean sparse){
+			super("DiskUnit.createDiskUnit");
+			this.capacity = capacity;
+			this.format = format;
+			this.sparse = sparse;
+			param("capacity", capacity).param("blockSize", CREATE_BLOCK_SIZE)
+			.param("freeSpace", format == DiskUnit.FREE_BLOCK_TREE ? "tree" : "bitmap")
+			.param("sparse", sparse);
+		}
+
+		protected long run(int operations) throws Exception {
+			for(int i = 0; i < operations; i++)
+				DiskUnit.createDiskUnit("bench-create-" + created++, capacity, CREATE_BLOCK_SIZE, format,
+						DiskUnit.INODE_CHAINED, DiskUnit.DIRECTORY_HASHED, sparse);
+			return created;
+		}
+
+		protected void afterRun() {
+			while(created > 0)
+				deleteDisk("bench-create-" + --created);
+		}
+	}
+
+	/**
+	 * Takes a free i-node and returns it, as creating and deleting a
+	 * file do, so that the disk never runs out of them.
+	 */
+	private static class FreeINode extends Benchmark {
+		private int format;							//format of the i-nodes
+		private DiskUnit disk;						//the mounted disk
+
+		FreeINode(int format){
+			super("DiskUnit.getFreeINode");
+			this.format = format;
+			param("iNodes", format == DiskUnit.INODE_CHAINED ? "chained" : "extents");
+		}
+
+		protected void setUp() throws Exception {
+			deleteDisk("bench-inodes");
+			DiskUnit.createDiskUnit("bench-inodes", RW_CAPACITY, CREATE_BLOCK_SIZE,
+					DiskUnit.FREE_BLOCK_BITMAP, format);
+			disk = DiskUnit.mount("bench-inodes");
+		}
+
+		protected long run(int operations) throws Exception {
+			long sum = 0;
+			for(int i = 0; i < operations; i++){
+				int iNode = disk.getFreeINode();
+				disk.registerFreeINode(iNode);
+				sum += iNode;
+			}
+			return sum;
+		}
+
+		protected void tearDown() {
+			disk.shutdown();
+			deleteDisk("bench-inodes");
+		}
+	}
+
+	/**
+	 * Copies an int to, or from, each position of a block in turn.
+	 */
+	private static class CopyInt extends Benchmark {
+		private boolean toBlock;					//true to copy to the block, false from it
+		private VirtualDiskBlock block;				//the block copied to or from
+		private int positions;						//number of ints the block holds
+
+		CopyInt(boolean toBlock){
+			super(toBlock ? "DiskUtils.copyIntToBlock" : "DiskUtils.getIntFromBlock");
+			this.toBlock = toBlock;
+			param("blockSize", CREATE_BLOCK_SIZE);
+		}
+
+		protected void setUp() {
+			block = new VirtualDiskBlock(CREATE_BLOCK_SIZE);
+			positions = CREATE_BLOCK_SIZE / DiskUtils.INTSIZE;
+		}
+
+		protected long run(int operations) {
+			long sum = 0;
+			for(int i = 0; i < operations; i++){
+				int index = (i % positions) * DiskUtils.INTSIZE;
+				if(toBlock)
+					DiskUtils.copyIntToBlock(block, index, i);
+				else
+					sum += DiskUtils.getIntFromBlock(block, index);
+			}
+			return sum + DiskUtils.getIntFromBlock(block, 0);
+		}
+	}
+}
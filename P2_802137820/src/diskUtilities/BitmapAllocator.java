@@ -0,0 +1,324 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import diskExceptions.FullDiskException;
+
+/**
+ * Keeps the free blocks of the disk as a packed bitmap stored in
+ * consecutive blocks of the reserved area, one bit per block of the
+ * disk (1 if the block is taken, 0 if it is free). The whole bitmap
+ * is mirrored in memory as an array of longs, so a free block is found
+ * 64 blocks at a time. The search resumes where the last one stopped
+ * (next-fit), which keeps allocating n blocks at O(n/64) word visits.
+ * Changed words are written back per bitmap block on flush().
+ * 
+ * The runs of free blocks are also indexed by address and by size,
+ * so a run of adjacent blocks can be handed out at once.
+ * @author josej
+ *
+ */
+public class BitmapAllocator implements BlockAllocator {
+	private DiskStorage disk;					//disk holding the bitmap
+	private int capacity;						//number of blocks of the disk
+	private int blockSize;						//size of each block of the disk
+	private int firstBitmapBlock;				//first block of the bitmap region
+	private long[] words;						//in-memory mirror of the bitmap
+	private boolean[] dirty;					//bitmap blocks changed since the last flush
+	private int hint;							//word where the next search starts
+	private int freeBlocks;						//number of free blocks
+	private FreeExtentIndex extents;			//runs of free blocks
+
+	/**
+	 * Loads the bitmap of an existing disk.
+	 * @param disk the disk holding the bitmap
+	 * @param capacity the number of blocks of the disk
+	 * @param blockSize the size of each block of the disk
+	 * @param firstBitmapBlock the first block of the bitmap region
+	 * @param firstFreeBlock the block where the search for free blocks resumes
+	 * @throws IOException whenever the bitmap can't be read
+	 */
+	public BitmapAllocator(DiskStorage disk, int capacity, int blockSize, 
+			int firstBitmapBlock, int firstFreeBlock) throws IOException{
+		this(disk, capacity, blockSize, firstBitmapBlock);
+		byte[] region = new byte[bitmapBlocks(capacity, blockSize) * blockSize];
+		disk.read((long) firstBitmapBlock * blockSize, region, 0, region.length);
+		ByteBuffer.wrap(region).asLongBuffer().get(words);
+		freeBlocks = 0;
+		for(long word: words)
+			freeBlocks += Long.bitCount(~word);
+		hint = Math.max(0, Math.min(firstFreeBlock, capacity - 1)) >>> 6;
+		indexExtents();
+	}
+
+	private BitmapAllocator(DiskStorage disk, int capacity, int blockSize, int firstBitmapBlock){
+		this.disk = disk;
+		this.capacity = capacity;
+		this.blockSize = blockSize;
+		this.firstBitmapBlock = firstBitmapBlock;
+		words = new long[(capacity + 63) >>> 6];
+		dirty = new boolean[bitmapBlocks(capacity, blockSize)];
+	}
+
+	/**
+	 * Creates the bitmap of a new disk, where every block from 0 up to
+	 * the end of the bitmap region is taken and the rest are free.
+	 * The bitmap is written to the disk before returning.
+	 * @param disk the disk that will hold the bitmap
+	 * @param capacity the number of blocks of the disk
+	 * @param blockSize the size of each block of the disk
+	 * @param firstBitmapBlock the first block of the bitmap region
+	 * @return the allocator for the new disk
+	 * @throws IOException whenever the bitmap can't be written
+	 */
+	public static BitmapAllocator create(DiskStorage disk, int capacity, int blockSize, 
+			int firstBitmapBlock) throws IOException{
+		return create(disk, capacity, blockSize, firstBitmapBlock, false);
+	}
+
+	/**
+	 * Creates the bitmap of a new disk, as create(disk, capacity,
+	 * blockSize, firstBitmapBlock) does. If the bitmap region of the
+	 * disk is known to read as zeroes, as in a sparse file, only the
+	 * blocks of the bitmap that have taken blocks are written.
+	 * @param disk the disk that will hold the bitmap
+	 * @param capacity the number of blocks of the disk
+	 * @param blockSize the size of each block of the disk
+	 * @param firstBitmapBlock the first block of the bitmap region
+	 * @param zeroed true if the bitmap region reads as zeroes
+	 * @return the allocator for the new disk
+	 * @throws IOException whenever the bitmap can't be written
+	 */
+	public static BitmapAllocator create(DiskStorage disk, int capacity, int blockSize, 
+			int firstBitmapBlock, boolean zeroed) throws IOException{
+		BitmapAllocator bitmap = new BitmapAllocator(disk, capacity, blockSize, firstBitmapBlock);
+		int firstDataBlock = firstBitmapBlock + bitmapBlocks(capacity, blockSize);
+
+		// the blocks past the capacity in the last word are never free
+		if((capacity & 63) != 0)
+			bitmap.words[bitmap.words.length - 1] = -1L << (capacity & 63);
+		for(int bn = 0; bn < firstDataBlock; bn++)
+			bitmap.words[bn >>> 6] |= 1L << (bn & 63);
+
+		for(long word: bitmap.words)
+			bitmap.freeBlocks += Long.bitCount(~word);
+		bitmap.hint = firstDataBlock >>> 6;
+		bitmap.indexExtents();
+		for(int w = 0; w < bitmap.words.length; w++)
+			if(!zeroed || bitmap.words[w] != 0L)
+				bitmap.markDirty(w);
+		bitmap.flush();
+		return bitmap;
+	}
+
+	/**
+	 * Rebuilds the bitmap of an existing disk from the runs of its free
+	 * blocks, as kept by a Checkpoint, instead of reading it. The bitmap
+	 * on the disk must match the runs, since only what changes from now
+	 * on is written back.
+	 * @param disk the disk holding the bitmap
+	 * @param capacity the number of blocks of the disk
+	 * @param blockSize the size of each block of the disk
+	 * @param firstBitmapBlock the first block of the bitmap region
+	 * @param firstFreeBlock the block where the search for free blocks resumes
+	 * @param freeRuns the first block and length of each run of free
+	 * blocks, in increasing order of block
+	 * @return the allocator for the disk
+	 */
+	public static BitmapAllocator load(DiskStorage disk, int capacity, int blockSize, 
+			int firstBitmapBlock, int firstFreeBlock, int[] freeRuns){
+		BitmapAllocator bitmap = new BitmapAllocator(disk, capacity, blockSize, firstBitmapBlock);
+		Arrays.fill(bitmap.words, -1L);
+		bitmap.extents = new FreeExtentIndex();
+		for(int r = 0; r < freeRuns.length; r += 2){
+			int end = freeRuns[r] + freeRuns[r + 1];
+			for(int bn = freeRuns[r]; bn < end; ){
+				if((bn & 63) == 0 && end - bn >= 64){
+					bitmap.words[bn >>> 6] = 0L;
+					bn += 64;
+				}
+				else{
+					bitmap.words[bn >>> 6] &= ~(1L << (bn & 63));
+					bn++;
+				}
+			}
+			bitmap.freeBlocks += freeRuns[r + 1];
+			bitmap.extents.add(freeRuns[r], freeRuns[r + 1]);
+		}
+		bitmap.hint = Math.max(0, Math.min(firstFreeBlock, capacity - 1)) >>> 6;
+		return bitmap;
+	}
+
+	/**
+	 * Returns the runs of free blocks of the disk.
+	 * @return the first block and length of each run, in increasing
+	 * order of block
+	 */
+	public int[] getFreeRuns(){
+		int[] runs = new int[2 * extents.size()];
+		int r = 0;
+		for(Extent e : extents.inOrder()){
+			runs[r++] = e.getStart();
+			runs[r++] = e.getLength();
+		}
+		return runs;
+	}
+
+	/**
+	 * Returns the number of bytes of the bitmap of the disk.
+	 * @return the number of bytes
+	 */
+	public int getBitmapBytes(){
+		return dirty.length * blockSize;
+	}
+
+	/**
+	 * Returns the number of blocks needed to hold the bitmap of a disk.
+	 * The bitmap is stored as whole 8-byte words.
+	 * @param capacity the number of blocks of the disk
+	 * @param blockSize the size of each block of the disk
+	 * @return the number of bitmap blocks
+	 */
+	public static int bitmapBlocks(int capacity, int blockSize){
+		long bytes = (long) ((capacity + 63) >>> 6) * 8;
+		return (int) ((bytes + blockSize - 1) / blockSize);
+	}
+
+	public int allocate() throws FullDiskException {
+		if(freeBlocks == 0)
+			throw new FullDiskException("Disk is full");
+		for(int i = 0; i < words.length; i++){
+			int w = hint + i < words.length ? hint + i : hint + i - words.length;
+			if(words[w] != -1L){
+				int bit = Long.numberOfTrailingZeros(~words[w]);
+				words[w] |= 1L << bit;
+				markDirty(w);
+				hint = w;
+				freeBlocks--;
+				extents.remove((w << 6) + bit, 1);
+				return (w << 6) + bit;
+			}
+		}
+		throw new FullDiskException("Disk is full");
+	}
+
+	public Extent allocateExtent(int desiredBlocks) throws FullDiskException {
+		if(desiredBlocks < 1)
+			throw new IllegalArgumentException("Invalid number of blocks: " + desiredBlocks);
+		Extent e = extents.take(desiredBlocks);
+		if(e == null)
+			throw new FullDiskException("Disk is full");
+		for(int bn = e.getStart(); bn < e.getEnd(); bn++){
+			words[bn >>> 6] |= 1L << (bn & 63);
+			markDirty(bn >>> 6);
+		}
+		freeBlocks -= e.getLength();
+		hint = (e.getEnd() - 1) >>> 6;
+		return e;
+	}
+
+	public void free(int bn) {
+		if(bn <= 0 || bn >= capacity)
+			throw new IllegalArgumentException("Invalid block number: " + bn);
+		long mask = 1L << (bn & 63);
+		if((words[bn >>> 6] & mask) != 0){
+			words[bn >>> 6] &= ~mask;
+			markDirty(bn >>> 6);
+			freeBlocks++;
+			extents.add(bn, 1);
+		}
+	}
+
+	/**
+	 * Returns true if block bn is free.
+	 * @param bn the number of the block
+	 * @return true if free, false if taken
+	 */
+	public boolean isFree(int bn) {
+		return (words[bn >>> 6] & (1L << (bn & 63))) == 0;
+	}
+
+	/**
+	 * Returns the number of runs of adjacent free blocks.
+	 * @return the number of runs
+	 */
+	public int getFreeExtents() {
+		return extents.size();
+	}
+
+	/**
+	 * Returns the number of free blocks left in the disk.
+	 * @return the number of free blocks
+	 */
+	public int getFreeBlocks() {
+		return freeBlocks;
+	}
+
+	/**
+	 * Returns the first block covered by the word where the
+	 * next search for a free block starts.
+	 */
+	public int getFirstFreeBlock() {
+		return freeBlocks == 0 ? 0 : hint << 6;
+	}
+
+	public void flush() throws IOException {
+		int wordsPerBlock = blockSize / 8;
+		ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+		for(int i = 0; i < dirty.length; i++){
+			if(dirty[i]){
+				int first = i * wordsPerBlock;
+				buffer.clear();
+				Arrays.fill(buffer.array(), (byte) 0);
+				buffer.asLongBuffer().put(words, first, Math.min(wordsPerBlock, words.length - first));
+				disk.write((long) (firstBitmapBlock + i) * blockSize, buffer.array(), 0, blockSize);
+				dirty[i] = false;
+			}
+		}
+	}
+
+	public String getFormatName() {
+		return "bitmap";
+	}
+
+	/**
+	 * Builds the index of free runs from the bitmap, skipping
+	 * whole words that are completely taken or completely free.
+	 */
+	private void indexExtents(){
+		extents = new FreeExtentIndex();
+		int runStart = -1;
+		for(int w = 0; w < words.length; w++){
+			long word = words[w];
+			if(word == -1L){
+				if(runStart >= 0)
+					extents.add(runStart, (w << 6) - runStart);
+				runStart = -1;
+			}
+			else if(word == 0L){
+				if(runStart < 0)
+					runStart = w << 6;
+			}
+			else
+				for(int bit = 0; bit < 64; bit++){
+					int bn = (w << 6) + bit;
+					if((word & (1L << bit)) == 0){
+						if(runStart < 0)
+							runStart = bn;
+					}
+					else if(runStart >= 0){
+						extents.add(runStart, bn - runStart);
+						runStart = -1;
+					}
+				}
+		}
+		if(runStart >= 0)
+			extents.add(runStart, Math.min(words.length << 6, capacity) - runStart);
+	}
+
+	private void markDirty(int word){
+		dirty[word / (blockSize / 8)] = true;
+	}
+}
@@ -0,0 +1,57 @@
+package diskUtilities;
+
+import java.io.IOException;
+
+import diskExceptions.FullDiskException;
+
+/**
+ * Specifies the type of object that keeps track of the free data
+ * blocks of a disk unit. Each implementation corresponds to one of
+ * the free-space formats that can be recorded in the disk header.
+ * @author josej
+ *
+ */
+public interface BlockAllocator {
+
+	/**
+	 * Takes a free block out of the collection of free blocks.
+	 * @return the number of the block, which is now taken.
+	 * @throws FullDiskException whenever there are no free blocks left.
+	 */
+	int allocate() throws FullDiskException;
+
+	/**
+	 * Takes a run of adjacent free blocks out of the collection of free
+	 * blocks. The run may be shorter than desired if the free blocks
+	 * are not adjacent; callers ask again for the rest.
+	 * @param desiredBlocks the number of blocks wanted, at least 1.
+	 * @return the run of blocks, which are now taken.
+	 * @throws FullDiskException whenever there are no free blocks left.
+	 */
+	Extent allocateExtent(int desiredBlocks) throws FullDiskException;
+
+	/**
+	 * Returns block bn to the collection of free blocks.
+	 * @param bn the number of the block that is no longer used.
+	 */
+	void free(int bn);
+
+	/**
+	 * Returns the block where the search for the next free block starts.
+	 * This is the value kept in bytes 8 to 11 of the disk header.
+	 * @return the first free block, 0 if there is none.
+	 */
+	int getFirstFreeBlock();
+
+	/**
+	 * Writes every change that is still only in memory to the disk.
+	 * @throws IOException whenever the disk can't be written.
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Returns the name of the free-space format, as shown by dparams.
+	 * @return the name of the format
+	 */
+	String getFormatName();
+}
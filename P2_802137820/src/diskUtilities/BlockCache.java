@@ -0,0 +1,399 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Bounded cache of disk blocks. The content of every cached block is
+ * kept in a single preallocated slab of slots * blockSize bytes, so
+ * caching a block never creates objects. Blocks are found through an
+ * open-addressing table from block number to slot, and the slot to
+ * reuse is chosen with the CLOCK algorithm: a hand sweeps the slots,
+ * giving a second chance to those that were used since it last
+ * passed, and takes the first one that wasn't.
+ *
+ * A cached block is either clean, a copy of the block on the disk, or
+ * dirty, newer than the block on the disk. Dirty blocks are kept in a
+ * set sorted by block number and are written back by flush(), in
+ * ascending order and with one transfer per run of adjacent blocks.
+ * This happens when the owner asks, when the number of dirty blocks
+ * reaches a limit, and before a dirty block is dropped to make room.
+ * Keeping clean copies equal to the disk is up to the DiskUnit that
+ * owns the cache. The methods of a cache are synchronized, so threads
+ * that read or write different blocks of the disk can share it.
+ * @author josej
+ *
+ */
+public class BlockCache {
+	private static final int EMPTY = -1;			//mark of an unused slot or table entry
+	private static final int 
+	FLUSH_SIZE = 65536;								//most bytes written by one transfer of flush()
+
+	private DiskStorage disk;						//where dirty blocks are written back
+	private int blockSize;							//size of each block of the disk
+	private int slots;								//number of blocks that fit in the cache
+	private byte[] slab;							//content of the cached blocks, slot after slot
+	private int[] blockOf;							//block held by each slot, or EMPTY
+	private boolean[] referenced;					//slots used since the hand last passed them
+	private int[] table;							//slot of each cached block, by hash of its number
+	private int mask;								//table.length - 1
+	private int hand;								//next slot the clock looks at
+	private int used;								//number of slots holding a block
+	private BitSet dirty;							//numbers of the dirty blocks
+	private int dirtyBlocks;						//number of dirty blocks
+	private int dirtyLimit;							//number of dirty blocks that triggers a flush
+	private byte[] staging;							//runs of dirty blocks, put together to be written
+
+	private long hits;								//lookups that found their block
+	private long misses;							//lookups that didn't
+	private long evictions;							//blocks dropped to make room for others
+	private long flushes;							//times the dirty blocks were written back
+	private long flushedRuns;						//transfers done by those flushes
+	private long flushedBlocks;						//blocks written by those flushes
+
+	/**
+	 * @param disk the disk whose blocks are cached
+	 * @param slots the number of blocks the cache can hold, at least 1
+	 * @param blockSize the size of each block of the disk
+	 */
+	public BlockCache(DiskStorage disk, int slots, int blockSize){
+		this.disk = disk;
+		this.slots = slots;
+		this.blockSize = blockSize;
+		slab = new byte[slots * blockSize];
+		blockOf = new int[slots];
+		referenced = new boolean[slots];
+		// at most half full, so probe sequences stay short
+		int tableSize = Integer.highestOneBit(Math.max(1, slots)) << 2;
+		table = new int[tableSize];
+		mask = tableSize - 1;
+		dirty = new BitSet();
+		dirtyLimit = slots;
+		staging = new byte[Math.max(1, FLUSH_SIZE / blockSize) * blockSize];
+		clear();
+	}
+
+	/**
+	 * Copies len bytes of block bn, starting at offset, into dst if
+	 * the block is in the cache.
+	 * @param bn the number of the block
+	 * @param offset the first byte of the block to copy
+	 * @param dst the array receiving the bytes
+	 * @param dstOff the first position of dst to fill
+	 * @param len the number of bytes to copy
+	 * @return true if the block was in the cache, false otherwise.
+	 */
+	public synchronized boolean read(int bn, int offset, byte[] dst, int dstOff, int len){
+		int slot = find(bn);
+		if(slot == EMPTY){
+			misses++;
+			return false;
+		}
+		hits++;
+		referenced[slot] = true;
+		System.arraycopy(slab, slot * blockSize + offset, dst, dstOff, len);
+		return true;
+	}
+
+	/**
+	 * Places a copy of the whole block bn, taken from src, in the cache.
+	 * The copy is clean: src must hold what the disk holds.
+	 * If the cache is full, the block picked by the clock makes room for it.
+	 * @param bn the number of the block
+	 * @param src the array holding the block
+	 * @param srcOff the position of the block in src
+	 * @throws IOException whenever the dirty blocks had to be written
+	 * back to make room and that failed.
+	 */
+	public synchronized void put(int bn, byte[] src, int srcOff) throws IOException{
+		int slot = find(bn);
+		if(slot == EMPTY){
+			slot = victim();
+			if(blockOf[slot] != EMPTY){
+				// all dirty blocks go together, rather than one at a time
+				if(dirty.get(blockOf[slot]))
+					flush();
+				remove(blockOf[slot]);
+				evictions++;
+			}
+			else
+				used++;
+			blockOf[slot] = bn;
+			insert(bn, slot);
+		}
+		else
+			clean(bn);
+		referenced[slot] = true;
+		System.arraycopy(src, srcOff, slab, slot * blockSize, blockSize);
+	}
+
+	/**
+	 * Places the whole block bn, taken from src, in the cache as a dirty
+	 * block, to be written to the disk later on.
+	 * @param bn the number of the block
+	 * @param src the array holding the new content of the block
+	 * @param srcOff the position of the block in src
+	 * @throws IOException whenever the dirty blocks had to be written
+	 * back and that failed.
+	 */
+	public synchronized void putDirty(int bn, byte[] src, int srcOff) throws IOException{
+		put(bn, src, srcOff);
+		markDirty(bn);
+	}
+
+	/**
+	 * Marks block bn, which was changed with update(), as dirty.
+	 * @param bn the number of the block
+	 * @return true if the block is in the cache, false otherwise.
+	 * @throws IOException whenever the dirty blocks had to be written
+	 * back and that failed.
+	 */
+	public synchronized boolean markDirty(int bn) throws IOException{
+		if(find(bn) == EMPTY)
+			return false;
+		if(!dirty.get(bn)){
+			dirty.set(bn);
+			dirtyBlocks++;
+			if(dirtyBlocks >= dirtyLimit)
+				flush();
+		}
+		return true;
+	}
+
+	/**
+	 * Writes every dirty block back to the disk, in ascending order of
+	 * block number. Adjacent dirty blocks are put together and written 
+	 * with one transfer. Afterwards every cached block is clean.
+	 * @throws IOException whenever a write fails.
+	 */
+	public synchronized void flush() throws IOException{
+		if(dirtyBlocks == 0)
+			return;
+		flushes++;
+		int perTransfer = staging.length / blockSize;
+		int bn = dirty.nextSetBit(0);
+		while(bn != -1){
+			int first = bn;
+			int count = 0;
+			while(bn != -1 && bn == first + count && count < perTransfer){
+				System.arraycopy(slab, find(bn) * blockSize, staging, count * blockSize, blockSize);
+				count++;
+				bn = dirty.nextSetBit(bn + 1);
+			}
+			disk.write((long) first * blockSize, staging, 0, count * blockSize);
+			flushedRuns++;
+			flushedBlocks += count;
+		}
+		dirty.clear();
+		dirtyBlocks = 0;
+	}
+
+	/**
+	 * Overwrites len bytes of block bn, starting at offset, if the
+	 * block is in the cache. Nothing is done otherwise.
+	 * @param bn the number of the block
+	 * @param offset the first byte of the block to overwrite
+	 * @param src the array holding the new bytes
+	 * @param srcOff the first position of src to copy
+	 * @param len the number of bytes to copy
+	 */
+	public synchronized void update(int bn, int offset, byte[] src, int srcOff, int len){
+		int slot = find(bn);
+		if(slot != EMPTY)
+			System.arraycopy(src, srcOff, slab, slot * blockSize + offset, len);
+	}
+
+	/**
+	 * Drops block bn from the cache, if it is there. If the block is
+	 * dirty, its changes are lost.
+	 * @param bn the number of the block
+	 */
+	public synchronized void invalidate(int bn){
+		int slot = find(bn);
+		if(slot != EMPTY){
+			clean(bn);
+			remove(bn);
+			blockOf[slot] = EMPTY;
+			referenced[slot] = false;
+			used--;
+		}
+	}
+
+	/** 
+	 * Drops every block from the cache, and the changes of the dirty
+	 * ones with them. The counters are kept. 
+	 */
+	public synchronized void clear(){
+		dirty.clear();
+		dirtyBlocks = 0;
+		Arrays.fill(blockOf, EMPTY);
+		Arrays.fill(referenced, false);
+		Arrays.fill(table, EMPTY);
+		hand = 0;
+		used = 0;
+	}
+
+	/**
+	 * Returns the number of blocks that fit in the cache.
+	 * @return the capacity of the cache in blocks
+	 */
+	public int getSlots(){
+		return slots;
+	}
+
+	/**
+	 * Returns the number of blocks currently in the cache.
+	 * @return the number of used slots
+	 */
+	public synchronized int getUsedSlots(){
+		return used;
+	}
+
+	/**
+	 * Sets the number of dirty blocks that makes the cache write them
+	 * all back to the disk.
+	 * @param blocks the limit, between 1 and the number of slots
+	 */
+	public synchronized void setDirtyLimit(int blocks){
+		dirtyLimit = Math.max(1, Math.min(blocks, slots));
+		if(dirtyBlocks >= dirtyLimit)
+			try {
+				flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+	}
+
+	/**
+	 * Returns the number of dirty blocks that makes the cache write 
+	 * them all back to the disk.
+	 * @return the limit
+	 */
+	public synchronized int getDirtyLimit(){
+		return dirtyLimit;
+	}
+
+	/**
+	 * Returns the number of blocks in the cache that are newer than
+	 * the blocks on the disk.
+	 * @return the number of dirty blocks
+	 */
+	public synchronized int getDirtyBlocks(){
+		return dirtyBlocks;
+	}
+
+	/**
+	 * Returns the number of times the dirty blocks were written back.
+	 * @return the number of flushes
+	 */
+	public synchronized long getFlushes(){
+		return flushes;
+	}
+
+	/**
+	 * Returns the number of transfers done to write back dirty blocks.
+	 * @return the number of runs written
+	 */
+	public synchronized long getFlushedRuns(){
+		return flushedRuns;
+	}
+
+	/**
+	 * Returns the number of dirty blocks that were written back.
+	 * @return the number of blocks written
+	 */
+	public synchronized long getFlushedBlocks(){
+		return flushedBlocks;
+	}
+
+	/**
+	 * Returns the number of lookups that found their block.
+	 * @return the number of hits
+	 */
+	public synchronized long getHits(){
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that didn't find their block.
+	 * @return the number of misses
+	 */
+	public synchronized long getMisses(){
+		return misses;
+	}
+
+	/**
+	 * Returns the number of blocks dropped to make room for others.
+	 * @return the number of evictions
+	 */
+	public synchronized long getEvictions(){
+		return evictions;
+	}
+
+	/**
+	 * Moves the hand of the clock until it points to a slot that is
+	 * empty or wasn't used since the hand last passed it, which is taken.
+	 * @return the slot to reuse
+	 */
+	private int victim(){
+		while(blockOf[hand] != EMPTY && referenced[hand]){
+			referenced[hand] = false;
+			hand = (hand + 1) % slots;
+		}
+		int slot = hand;
+		hand = (hand + 1) % slots;
+		return slot;
+	}
+
+	private void clean(int bn){
+		if(dirty.get(bn)){
+			dirty.clear(bn);
+			dirtyBlocks--;
+		}
+	}
+
+	private static int hash(int bn){
+		return bn * 0x9E3779B9 >>> 16 ^ bn;
+	}
+
+	/**
+	 * Returns the slot holding block bn.
+	 * @param bn the number of the block
+	 * @return the slot, or EMPTY if the block is not cached.
+	 */
+	private int find(int bn){
+		for(int i = hash(bn) & mask; table[i] != EMPTY; i = (i + 1) & mask)
+			if(blockOf[table[i]] == bn)
+				return table[i];
+		return EMPTY;
+	}
+
+	private void insert(int bn, int slot){
+		int i = hash(bn) & mask;
+		while(table[i] != EMPTY)
+			i = (i + 1) & mask;
+		table[i] = slot;
+	}
+
+	/**
+	 * Removes block bn from the table, moving back the entries that
+	 * follow it so that no probe sequence is broken.
+	 * @param bn the number of the block, which must be cached
+	 */
+	private void remove(int bn){
+		int i = hash(bn) & mask;
+		while(blockOf[table[i]] != bn)
+			i = (i + 1) & mask;
+		table[i] = EMPTY;
+		for(int j = (i + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask){
+			int home = hash(blockOf[table[j]]) & mask;
+			// the entry at j can fill the hole at i unless its home lies in (i, j]
+			if(((j - home) & mask) >= ((j - i) & mask)){
+				table[i] = table[j];
+				table[j] = EMPTY;
+				i = j;
+			}
+		}
+	}
+}
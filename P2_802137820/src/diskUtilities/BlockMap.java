@@ -0,0 +1,76 @@
+package diskUtilities;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps the blocks of a file (0, 1, 2, ...) to blocks of the disk. The
+ * map is kept as the runs of adjacent blocks of the file, so finding
+ * the disk block for any position of the file is a binary search over
+ * the runs.
+ * @author josej
+ *
+ */
+public class BlockMap {
+	private int[] starts;						//first disk block of each run
+	private int[] fileBlocks;					//first file block of each run
+	private int[] lengths;						//number of blocks of each run
+	private int blocks;							//number of blocks of the file
+
+	/**
+	 * @param extents the runs of the file, in file order
+	 */
+	public BlockMap(List<Extent> extents){
+		int n = extents.size();
+		starts = new int[n];
+		fileBlocks = new int[n];
+		lengths = new int[n];
+		for(int i = 0; i < n; i++){
+			starts[i] = extents.get(i).getStart();
+			lengths[i] = extents.get(i).getLength();
+			fileBlocks[i] = blocks;
+			blocks += lengths[i];
+		}
+	}
+
+	/**
+	 * Returns the disk block that holds the given block of the file.
+	 * @param fileBlock the number of the block in the file, 
+	 * 0 <= fileBlock < getBlockCount()
+	 * @return the number of the block in the disk
+	 */
+	public int getBlock(int fileBlock){
+		if(fileBlock < 0 || fileBlock >= blocks)
+			throw new IndexOutOfBoundsException("Invalid file block: " + fileBlock);
+		int i = Arrays.binarySearch(fileBlocks, fileBlock);
+		if(i < 0)
+			i = -i - 2;
+		return starts[i] + fileBlock - fileBlocks[i];
+	}
+
+	/**
+	 * Returns the number of blocks of the disk, starting with 
+	 * the one that holds fileBlock, that are adjacent in both 
+	 * the disk and the file.
+	 * @param fileBlock the number of the block in the file
+	 * @return the length of the rest of the run
+	 */
+	public int getRunLength(int fileBlock){
+		int i = Arrays.binarySearch(fileBlocks, fileBlock);
+		if(i < 0)
+			i = -i - 2;
+		return lengths[i] - (fileBlock - fileBlocks[i]);
+	}
+
+	public int getBlockCount(){
+		return blocks;
+	}
+
+	public int getExtentCount(){
+		return starts.length;
+	}
+
+	public Extent getExtent(int i){
+		return new Extent(starts[i], lengths[i]);
+	}
+}
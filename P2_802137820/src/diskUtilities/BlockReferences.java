@@ -0,0 +1,163 @@
+package diskUtilities;
+
+import java.io.IOException;
+
+/**
+ * Keeps, for every block of the disk, how many references to it there
+ * are besides the first one, so that files copied with cp can share
+ * their blocks (see FileManager.copyFile()). The counts are stored one
+ * byte per block in consecutive blocks of the reserved area, right
+ * after the i-node blocks, and mirrored in memory; changed table blocks
+ * are written back on flush(). A new table is all zeroes, as is the
+ * count of a block that has a single owner, so only shared blocks
+ * ever change it.
+ *
+ * What a reference is depends on the i-node format. A block in runs is
+ * referenced by each file whose runs include it. A chained block is
+ * referenced by each i-node or block that points to it, so the blocks
+ * that follow a shared block in a chain are shared as well, through it.
+ * @author josej
+ *
+ */
+public class BlockReferences {
+	/** Most references to a block besides the first one. **/
+	public static final int MAX_SHARES = 255;
+
+	private DiskStorage disk;					//disk holding the table
+	private int blockSize;						//size of each block of the disk
+	private int firstTableBlock;				//first block of the table
+	private byte[] counts;						//extra references to each block, unsigned
+	private boolean[] dirty;					//table blocks changed since the last flush
+	private int sharedBlocks;					//number of blocks with extra references
+
+	/**
+	 * Loads the table of an existing disk.
+	 * @param disk the disk holding the table
+	 * @param capacity the number of blocks of the disk
+	 * @param blockSize the size of each block of the disk
+	 * @param firstTableBlock the first block of the table
+	 * @throws IOException whenever the table can't be read
+	 */
+	public BlockReferences(DiskStorage disk, int capacity, int blockSize, int firstTableBlock)
+			throws IOException{
+		this.disk = disk;
+		this.blockSize = blockSize;
+		this.firstTableBlock = firstTableBlock;
+		counts = new byte[tableBlocks(capacity, blockSize) * blockSize];
+		dirty = new boolean[tableBlocks(capacity, blockSize)];
+		disk.read((long) firstTableBlock * blockSize, counts, 0, counts.length);
+		for(int bn = 0; bn < capacity; bn++)
+			if(counts[bn] != 0)
+				sharedBlocks++;
+	}
+
+	/**
+	 * Returns the number of blocks needed to hold the table of a disk.
+	 * @param capacity the number of blocks of the disk
+	 * @param blockSize the size of each block of the disk
+	 * @return the number of table blocks
+	 */
+	public static int tableBlocks(int capacity, int blockSize){
+		return (capacity + blockSize - 1) / blockSize;
+	}
+
+	/**
+	 * Adds a reference to block bn.
+	 * @param bn the number of the block
+	 * @return true if the reference was added, false if the block
+	 * already has MAX_SHARES extra references.
+	 */
+	public boolean share(int bn){
+		int count = counts[bn] & 0xFF;
+		if(count == MAX_SHARES)
+			return false;
+		if(count == 0)
+			sharedBlocks++;
+		set(bn, count + 1);
+		return true;
+	}
+
+	/**
+	 * Adds a reference to each block of a run, or to none of them. The
+	 * counts are changed one block at a time, but the table blocks that
+	 * hold them are only marked once each, so a run costs one write of
+	 * the table for every blockSize blocks it has.
+	 * @param start the first block of the run
+	 * @param length the number of blocks of the run
+	 * @return true if the references were added, false if some block
+	 * already has MAX_SHARES extra references.
+	 */
+	public boolean share(int start, int length){
+		int end = start + length;
+		for(int bn = start; bn < end; bn++)
+			if((counts[bn] & 0xFF) == MAX_SHARES)
+				return false;
+		for(int bn = start; bn < end; bn++){
+			if(counts[bn] == 0)
+				sharedBlocks++;
+			counts[bn]++;
+		}
+		for(int i = start / blockSize; length > 0 && i <= (end - 1) / blockSize; i++)
+			dirty[i] = true;
+		return true;
+	}
+
+	/**
+	 * Drops a reference to block bn, if it has more than one.
+	 * @param bn the number of the block
+	 * @return true if the block is still referenced, false if the
+	 * reference dropped was the only one, so the block is now free.
+	 */
+	public boolean release(int bn){
+		int count = counts[bn] & 0xFF;
+		if(count == 0)
+			return false;
+		if(count == 1)
+			sharedBlocks--;
+		set(bn, count - 1);
+		return true;
+	}
+
+	/**
+	 * Tells whether block bn has more than one reference.
+	 * @param bn the number of the block
+	 * @return true if it is shared, false otherwise.
+	 */
+	public boolean isShared(int bn){
+		return counts[bn] != 0;
+	}
+
+	/**
+	 * Returns the number of more references that block bn can take.
+	 * @param bn the number of the block
+	 * @return MAX_SHARES minus its extra references
+	 */
+	public int getSharesLeft(int bn){
+		return MAX_SHARES - (counts[bn] & 0xFF);
+	}
+
+	/**
+	 * Returns the number of blocks with more than one reference.
+	 * @return the number of shared blocks
+	 */
+	public int getSharedBlocks(){
+		return sharedBlocks;
+	}
+
+	/**
+	 * Writes the table blocks changed since the last flush to the disk.
+	 * @throws IOException whenever a write fails.
+	 */
+	public void flush() throws IOException{
+		for(int i = 0; i < dirty.length; i++)
+			if(dirty[i]){
+				disk.write((long) (firstTableBlock + i) * blockSize, counts, i * blockSize, blockSize);
+				dirty[i] = false;
+			}
+	}
+
+	private void set(int bn, int count){
+		counts[bn] = (byte) count;
+		dirty[bn / blockSize] = true;
+	}
+}
@@ -0,0 +1,293 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The state of a disk that a mount would otherwise rebuild by reading
+ * the disk: its list of free i-nodes and, in the bitmap format, the
+ * runs of its free blocks. A checkpoint is written when the disk is
+ * shut down, to free blocks taken for it, each one ending with the
+ * number of the next one as the blocks of a chained file do, and block
+ * 0 of the disk points to the first of them.
+ *
+ * The record holds MAGIC, the generation of the disk, the number of
+ * free i-nodes and of free blocks (-1 if not kept), the number of runs
+ * of i-nodes and of blocks (-1 if not kept), the runs themselves, and a
+ * CRC32 of all of it. The free i-nodes are kept as runs of consecutive
+ * i-node numbers in the order of the list, so that the list rebuilt
+ * from them matches the chain of free i-nodes on the disk.
+ * @author josej
+ *
+ */
+public class Checkpoint {
+	private static final int
+	MAGIC = 0x434B5054;									//"CKPT"
+	private static final int
+	HEADER_INTS = 6;									//ints before the runs
+
+	private int generation;								//generation of the disk when written
+	private int[] iNodeRuns;							//first i-node number and length of each run
+	private int freeINodes;								//number of free i-nodes in the runs
+	private int[] blockRuns;							//first block and length of each run, null if not kept
+	private int freeBlocks;								//number of free blocks in the runs, -1 if not kept
+	private int[] blocks;								//blocks holding the record, once read
+
+	/**
+	 * @param generation the generation of the disk
+	 * @param iNodes the numbers of the free i-nodes, the first one of
+	 * the list first
+	 * @param blockRuns the first block and length of each run of free
+	 * blocks, in increasing order of block; null to keep no runs
+	 */
+	public Checkpoint(int generation, int[] iNodes, int[] blockRuns){
+		this.generation = generation;
+		this.blockRuns = blockRuns;
+		freeINodes = iNodes.length;
+		int runs = 0;
+		for(int i = 0; i < iNodes.length; i++)
+			if(i == 0 || iNodes[i] != iNodes[i - 1] + 1)
+				runs++;
+		iNodeRuns = new int[2 * runs];
+		for(int i = 0, r = -2; i < iNodes.length; i++){
+			if(i == 0 || iNodes[i] != iNodes[i - 1] + 1){
+				r += 2;
+				iNodeRuns[r] = iNodes[i];
+			}
+			iNodeRuns[r + 1]++;
+		}
+		freeBlocks = -1;
+		if(blockRuns != null){
+			freeBlocks = 0;
+			for(int r = 1; r < blockRuns.length; r += 2)
+				freeBlocks += blockRuns[r];
+		}
+	}
+
+	private Checkpoint(){
+	}
+
+	/**
+	 * Returns the generation of the disk when the checkpoint was written.
+	 * @return the generation
+	 */
+	public int getGeneration(){
+		return generation;
+	}
+
+	/**
+	 * Returns the numbers of the free i-nodes.
+	 * @return the numbers, the first one of the list first
+	 */
+	public int[] getFreeINodes(){
+		int[] iNodes = new int[freeINodes];
+		for(int r = 0, i = 0; r < iNodeRuns.length; r += 2)
+			for(int n = 0; n < iNodeRuns[r + 1]; n++)
+				iNodes[i++] = iNodeRuns[r] + n;
+		return iNodes;
+	}
+
+	/**
+	 * Returns the runs of free blocks.
+	 * @return the first block and length of each run, in increasing
+	 * order of block, or null if they are not kept.
+	 */
+	public int[] getBlockRuns(){
+		return blockRuns;
+	}
+
+	/**
+	 * Returns the blocks that hold the checkpoint on the disk.
+	 * @return the blocks, or null if it has not been read from a disk
+	 */
+	public int[] getBlocks(){
+		return blocks;
+	}
+
+	/**
+	 * Returns the number of blocks needed to hold the checkpoint.
+	 * @param blockSize the size of each block of the disk
+	 * @return the number of blocks
+	 */
+	public int blocksNeeded(int blockSize){
+		int payload = blockSize - DiskUtils.INTSIZE;
+		return (size() + payload - 1) / payload;
+	}
+
+	/**
+	 * Writes the checkpoint on the given blocks of a disk, which must be
+	 * at least blocksNeeded(); the blocks past the record are chained
+	 * too, so that they are given back with the rest.
+	 * @param disk the disk
+	 * @param blockSize the size of each block of the disk
+	 * @param blocks the blocks to write, the first one to be pointed to
+	 * by block 0
+	 * @throws IOException whenever the disk can't be written.
+	 */
+	public void write(DiskStorage disk, int blockSize, int[] blocks) throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(size());
+		record.putInt(MAGIC).putInt(generation).putInt(freeINodes).putInt(freeBlocks)
+		.putInt(iNodeRuns.length / 2).putInt(blockRuns == null ? -1 : blockRuns.length / 2);
+		for(int v : iNodeRuns)
+			record.putInt(v);
+		if(blockRuns != null)
+			for(int v : blockRuns)
+				record.putInt(v);
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 0, record.position());
+		record.putInt((int) crc.getValue());
+
+		int payload = blockSize - DiskUtils.INTSIZE;
+		byte[] block = new byte[blockSize];
+		for(int i = 0; i < blocks.length; i++){
+			int length = Math.max(0, Math.min(payload, record.capacity() - i * payload));
+			Arrays.fill(block, (byte) 0);
+			System.arraycopy(record.array(), i * payload, block, 0, length);
+			DiskUtils.copyIntToBytesArray(block, payload, i + 1 < blocks.length ? blocks[i + 1] : 0);
+			disk.write((long) blocks[i] * blockSize, block, 0, blockSize);
+		}
+	}
+
+	/**
+	 * Reads the checkpoint that starts at the given block of a disk and
+	 * checks that it is whole and belongs to the given generation.
+	 * @param disk the disk
+	 * @param capacity the number of blocks of the disk
+	 * @param blockSize the size of each block of the disk
+	 * @param firstBlock the first block of the checkpoint
+	 * @param generation the generation of the disk
+	 * @param numberOfINodes the number of i-nodes of the disk
+	 * @return the checkpoint, or null if it is not valid.
+	 * @throws IOException whenever the disk can't be read.
+	 */
+	public static Checkpoint read(DiskStorage disk, int capacity, int blockSize, int firstBlock,
+			int generation, int numberOfINodes) throws IOException {
+		int payload = blockSize - DiskUtils.INTSIZE;
+		byte[] block = new byte[blockSize];
+		ByteBuffer record = null;
+		int[] blocks = new int[16];
+		int count = 0;
+		for(int bn = firstBlock; bn != 0 || record == null || record.hasRemaining(); count++){
+			if(bn <= 0 || bn >= capacity || count == capacity)
+				return null;
+			disk.read((long) bn * blockSize, block, 0, blockSize);
+			if(count == blocks.length)
+				blocks = Arrays.copyOf(blocks, 2 * count);
+			blocks[count] = bn;
+			if(record == null){
+				// the first block tells the size of the record
+				ByteBuffer header = ByteBuffer.wrap(block);
+				int iNodeRuns = header.getInt(4 * DiskUtils.INTSIZE);
+				int blockRuns = header.getInt(5 * DiskUtils.INTSIZE);
+				if(header.getInt(0) != MAGIC || header.getInt(DiskUtils.INTSIZE) != generation ||
+						iNodeRuns < 0 || iNodeRuns > numberOfINodes || blockRuns < -1 || blockRuns > capacity)
+					return null;
+				record = ByteBuffer.allocate(size(iNodeRuns, blockRuns));
+			}
+			record.put(block, 0, Math.min(payload, record.remaining()));
+			bn = DiskUtils.getIntFromBytesArray(block, payload);
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 0, record.capacity() - DiskUtils.INTSIZE);
+		record.flip();
+		if(record.getInt(record.capacity() - DiskUtils.INTSIZE) != (int) crc.getValue())
+			return null;
+
+		Checkpoint c = new Checkpoint();
+		c.blocks = Arrays.copyOf(blocks, count);
+		record.getInt();
+		c.generation = record.getInt();
+		c.freeINodes = record.getInt();
+		c.freeBlocks = record.getInt();
+		c.iNodeRuns = new int[2 * record.getInt()];
+		int blockRuns = record.getInt();
+		int iNodes = 0;
+		for(int r = 0; r < c.iNodeRuns.length; r += 2){
+			c.iNodeRuns[r] = record.getInt();
+			c.iNodeRuns[r + 1] = record.getInt();
+			if(c.iNodeRuns[r] < 1 || c.iNodeRuns[r + 1] < 1 ||
+					(long) c.iNodeRuns[r] + c.iNodeRuns[r + 1] > numberOfINodes)
+				return null;
+			iNodes += c.iNodeRuns[r + 1];
+		}
+		if(iNodes != c.freeINodes)
+			return null;
+		if(blockRuns >= 0){
+			c.blockRuns = new int[2 * blockRuns];
+			int blocksFree = 0;
+			for(int r = 0, end = 1; r < c.blockRuns.length; r += 2){
+				c.blockRuns[r] = record.getInt();
+				c.blockRuns[r + 1] = record.getInt();
+				if(c.blockRuns[r] < end || c.blockRuns[r + 1] < 1 ||
+						(long) c.blockRuns[r] + c.blockRuns[r + 1] > capacity)
+					return null;
+				end = c.blockRuns[r] + c.blockRuns[r + 1];
+				blocksFree += c.blockRuns[r + 1];
+			}
+			if(blocksFree != c.freeBlocks)
+				return null;
+		}
+		return c;
+	}
+
+	/**
+	 * Returns the checksum of the blocks of a checkpoint, which block 0
+	 * keeps with their number so that the blocks can be found again even
+	 * when the record they hold is not valid.
+	 * @param blocks the blocks, in the order they are chained
+	 * @return the CRC32 of their numbers
+	 */
+	public static int blocksChecksum(int[] blocks){
+		ByteBuffer numbers = ByteBuffer.allocate(blocks.length * DiskUtils.INTSIZE);
+		for(int bn : blocks)
+			numbers.putInt(bn);
+		CRC32 crc = new CRC32();
+		crc.update(numbers.array(), 0, numbers.capacity());
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Follows the chain of blocks that starts at the given block of a
+	 * disk, without reading the record they hold, and checks it against
+	 * the number and checksum of the blocks that were written.
+	 * @param disk the disk
+	 * @param capacity the number of blocks of the disk
+	 * @param blockSize the size of each block of the disk
+	 * @param firstBlock the first block of the checkpoint
+	 * @param count the number of blocks that were written
+	 * @param checksum the checksum of the blocks that were written
+	 * @return the blocks, or null if they are not the ones written.
+	 * @throws IOException whenever the disk can't be read.
+	 */
+	public static int[] readBlocks(DiskStorage disk, int capacity, int blockSize, int firstBlock,
+			int count, int checksum) throws IOException {
+		if(count <= 0 || count >= capacity)
+			return null;
+		int payload = blockSize - DiskUtils.INTSIZE;
+		byte[] next = new byte[DiskUtils.INTSIZE];
+		int[] blocks = new int[count];
+		int bn = firstBlock;
+		for(int i = 0; i < count; i++){
+			if(bn <= 0 || bn >= capacity)
+				return null;
+			blocks[i] = bn;
+			disk.read((long) bn * blockSize + payload, next, 0, DiskUtils.INTSIZE);
+			bn = DiskUtils.getIntFromBytesArray(next, 0);
+		}
+		return bn == 0 && blocksChecksum(blocks) == checksum ? blocks : null;
+	}
+
+	/**
+	 * Returns the number of bytes of the record.
+	 */
+	private int size(){
+		return size(iNodeRuns.length / 2, blockRuns == null ? -1 : blockRuns.length / 2);
+	}
+
+	private static int size(int iNodeRuns, int blockRuns){
+		return DiskUtils.INTSIZE * (HEADER_INTS + 2 * iNodeRuns + 2 * Math.max(0, blockRuns) + 1);
+	}
+}
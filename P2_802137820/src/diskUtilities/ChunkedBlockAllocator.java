@@ -0,0 +1,237 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import diskExceptions.FullDiskException;
+
+/**
+ * Hands out single free blocks to several threads at once without
+ * making them wait for one another. The free blocks are kept by another
+ * allocator, the base, whose lock is taken only to fill chunks of
+ * CHUNK_BLOCKS blocks. A thread allocates from a chunk of its own,
+ * taking each block with a compare-and-set, and when the chunk runs out
+ * it pops another one from a pool of filled chunks, also with a
+ * compare-and-set. The pool is refilled POOL_CHUNKS chunks at a time
+ * by the thread that finds it empty.
+ *
+ * The blocks of a chunk are taken in the base, so a chunk that is not
+ * used up holds blocks that are free. They go back to the base when
+ * the allocator is flushed (on sync and unmount), when the base runs
+ * out of blocks, and when the pool is refilled, for chunks handed out
+ * more than IDLE_NANOS ago. Runs of blocks and freed blocks go to and
+ * from the base directly.
+ * @author josej
+ *
+ */
+public class ChunkedBlockAllocator implements BlockAllocator {
+	/** Number of blocks taken from the base for each chunk. **/
+	public static final int CHUNK_BLOCKS = 64;
+	/** Number of chunks filled each time the pool is empty. **/
+	public static final int POOL_CHUNKS = 4;
+	/** Time after which the blocks left in a chunk go back to the base. **/
+	public static final long IDLE_NANOS = 1000000000L;
+
+	private BlockAllocator base;							//keeps the free blocks
+	private Object lock;									//held while using the base
+	private ThreadLocal<Chunk> current;						//chunk each thread allocates from
+	private AtomicReference<Chunk> pool;					//filled chunks not handed out yet
+	private ConcurrentLinkedQueue<Chunk> chunks;			//chunks that may have blocks left
+
+	/**
+	 * @param base the allocator that keeps the free blocks
+	 * @param lock the object to hold while using base; whoever else
+	 * uses base must hold it as well
+	 */
+	public ChunkedBlockAllocator(BlockAllocator base, Object lock){
+		this.base = base;
+		this.lock = lock;
+		current = new ThreadLocal<Chunk>();
+		pool = new AtomicReference<Chunk>();
+		chunks = new ConcurrentLinkedQueue<Chunk>();
+	}
+
+	/**
+	 * Returns the allocator that keeps the free blocks.
+	 * @return the base allocator
+	 */
+	public BlockAllocator getBase(){
+		return base;
+	}
+
+	public int allocate() throws FullDiskException {
+		Chunk chunk = current.get();
+		int bn = chunk == null ? -1 : chunk.take();
+		while(bn == -1){
+			if(chunk != null)
+				chunks.remove(chunk);
+			chunk = pop();
+			if(chunk == null)
+				chunk = refill();
+			current.set(chunk);
+			bn = chunk.take();
+		}
+		return bn;
+	}
+
+	public Extent allocateExtent(int desiredBlocks) throws FullDiskException {
+		synchronized(lock){
+			try {
+				return base.allocateExtent(desiredBlocks);
+			} catch (FullDiskException e) {
+				if(reclaim(0) == 0)
+					throw e;
+				return base.allocateExtent(desiredBlocks);
+			}
+		}
+	}
+
+	public void free(int bn) {
+		synchronized(lock){
+			base.free(bn);
+		}
+	}
+
+	public int getFirstFreeBlock() {
+		synchronized(lock){
+			return base.getFirstFreeBlock();
+		}
+	}
+
+	/**
+	 * The blocks left in every chunk go back to the base first, so
+	 * that the base holds every free block.
+	 */
+	public void flush() throws IOException {
+		synchronized(lock){
+			reclaim(0);
+			base.flush();
+		}
+	}
+
+	public String getFormatName() {
+		return base.getFormatName();
+	}
+
+	/**
+	 * Pops a chunk from the pool.
+	 * @return the chunk, or null if the pool is empty.
+	 */
+	private Chunk pop(){
+		Chunk top = pool.get();
+		while(top != null && !pool.compareAndSet(top, top.nextInPool))
+			top = pool.get();
+		return top;
+	}
+
+	/**
+	 * Fills POOL_CHUNKS chunks from the base, or as many as it can,
+	 * and pushes all but one to the pool.
+	 * @return the chunk not pushed
+	 * @throws FullDiskException whenever there are no free blocks left.
+	 */
+	private Chunk refill() throws FullDiskException {
+		synchronized(lock){
+			// another thread may have refilled the pool meanwhile
+			Chunk chunk = pop();
+			if(chunk != null)
+				return chunk;
+			reclaim(System.nanoTime() - IDLE_NANOS);
+			chunk = fill();
+			if(chunk == null && reclaim(0) > 0)
+				chunk = fill();
+			if(chunk == null)
+				throw new FullDiskException("Disk is full");
+			for(int i = 1; i < POOL_CHUNKS; i++){
+				Chunk extra = fill();
+				if(extra == null)
+					break;
+				Chunk top;
+				do {
+					top = pool.get();
+					extra.nextInPool = top;
+				} while(!pool.compareAndSet(top, extra));
+			}
+			return chunk;
+		}
+	}
+
+	/**
+	 * Takes up to CHUNK_BLOCKS blocks from the base, as few runs as it can.
+	 * @return the chunk, or null if the base has no free blocks.
+	 */
+	private Chunk fill(){
+		int[] blocks = new int[CHUNK_BLOCKS];
+		int count = 0;
+		try {
+			while(count < CHUNK_BLOCKS){
+				Extent e = base.allocateExtent(CHUNK_BLOCKS - count);
+				for(int bn = e.getStart(); bn < e.getEnd(); bn++)
+					blocks[count++] = bn;
+			}
+		} catch (FullDiskException e) {
+			if(count == 0)
+				return null;
+		}
+		Chunk chunk = new Chunk(blocks, count);
+		chunks.add(chunk);
+		return chunk;
+	}
+
+	/**
+	 * Returns to the base the blocks left in the chunks filled before
+	 * the given time. The lock must be held.
+	 * @param before the value of System.nanoTime() before which the
+	 * chunks were filled; 0 for every chunk
+	 * @return the number of blocks returned
+	 */
+	private int reclaim(long before){
+		int returned = 0;
+		for(Iterator<Chunk> it = chunks.iterator(); it.hasNext(); ){
+			Chunk chunk = it.next();
+			if(before == 0 || chunk.filled - before < 0){
+				it.remove();
+				for(int i = chunk.next.getAndSet(chunk.count); i < chunk.count; i++){
+					base.free(chunk.blocks[i]);
+					returned++;
+				}
+			}
+		}
+		return returned;
+	}
+
+	/**
+	 * Blocks taken from the base, handed out one at a time.
+	 */
+	private static class Chunk {
+		private int[] blocks;							//the blocks of the chunk
+		private int count;								//number of blocks in blocks
+		private AtomicInteger next;						//position of the next block to hand out
+		private long filled;							//System.nanoTime() when it was filled
+		private Chunk nextInPool;						//chunk under this one in the pool
+
+		Chunk(int[] blocks, int count){
+			this.blocks = blocks;
+			this.count = count;
+			next = new AtomicInteger();
+			filled = System.nanoTime();
+		}
+
+		/**
+		 * Takes the next block of the chunk.
+		 * @return the block, or -1 if there are none left.
+		 */
+		int take(){
+			for(;;){
+				int n = next.get();
+				if(n >= count)
+					return -1;
+				if(next.compareAndSet(n, n + 1))
+					return blocks[n];
+			}
+		}
+	}
+}
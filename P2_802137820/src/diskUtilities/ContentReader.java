@@ -0,0 +1,222 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Reads any part of the content of one file, without reading the rest.
+ * The blocks are read through a ReadAhead as they are asked for, so
+ * reading the file in order costs the same as readContent() while
+ * holding one block at a time instead of the whole content.
+ *
+ * For files in runs, the map of the blocks is made when the reader is
+ * opened (see FileManager.openContent()) from the i-node and its
+ * overflow blocks. Chained files are not walked ahead: the chain is
+ * followed from the block read last, and a block behind it is reached
+ * from the nearest mark before it (see mark()), so opening the file
+ * reads none of its blocks and the memory used grows with the marks
+ * made, not with the file. A chain that ends before the size of the
+ * file says makes the file end there.
+ *
+ * As with ReadAhead, the file should not be changed while it is read.
+ * A reader whose reads are apart, letting the file be changed between
+ * them, must check isCurrent() before each read: once the file has
+ * been replaced or removed, its old blocks may belong to another file.
+ * @author josej
+ *
+ */
+public class ContentReader {
+	private FileManager files;						//manager of the files of the disk
+	private int iNodeIndex;							//i-node of the file
+	private int version;							//version of the file when opened
+	private BlockMap map;							//blocks of a file in runs, null if chained
+	private int size;								//number of bytes of the file
+	private int blocks;								//number of blocks of the file
+	private int dataPerBlock;						//bytes of file data per block
+	private int capacity;							//number of blocks of the disk
+	private ReadAhead reader;						//fetches the blocks of the file
+	private byte[] block;							//the block of the file read last
+	private int current;							//number of that block in the file, -1 if none
+	private int diskBlock;							//disk block holding it
+	private int next;								//disk block after it in a chain
+	private int[] markFileBlocks;					//blocks of a chained file marked, in order
+	private int[] markDiskBlocks;					//disk block of each of them
+	private int marks;								//number of marks
+
+	/**
+	 * @param files the manager of the files of the disk holding the file
+	 * @param iNodeIndex the i-node of the file
+	 * @param node the i-node itself
+	 */
+	ContentReader(FileManager files, int iNodeIndex, INode node){
+		this.files = files;
+		this.iNodeIndex = iNodeIndex;
+		version = files.getVersion(iNodeIndex);
+		dataPerBlock = files.getDataPerBlock();
+		capacity = files.getDiskUnit().getCapacity();
+		blocks = (int) (((long) node.getSize() + dataPerBlock - 1) / dataPerBlock);
+		if(node instanceof ExtentINode){
+			map = files.getBlockMap(node);
+			blocks = Math.min(blocks, map.getBlockCount());
+		}
+		else{
+			markFileBlocks = new int[4];
+			markDiskBlocks = new int[4];
+			markDiskBlocks[0] = node.getFirstBlock();
+			marks = 1;
+		}
+		size = (int) Math.min(node.getSize(), (long) blocks * dataPerBlock);
+		reader = new ReadAhead(files.getDiskUnit());
+		block = new byte[files.getDiskUnit().getBlockSize()];
+		current = -1;
+	}
+
+	/**
+	 * Tells whether the file still has the blocks it had when the
+	 * reader was opened (see FileManager.getVersion()).
+	 * @return true if it does, false if it has been replaced or removed.
+	 */
+	public boolean isCurrent(){
+		return files.getVersion(iNodeIndex) == version;
+	}
+
+	/**
+	 * Returns the number of bytes of the file. For a chained file whose
+	 * chain turns out to be shorter than its size, this shrinks once the
+	 * end of the chain is reached.
+	 * @return the size of the file
+	 */
+	public int getSize(){
+		return size;
+	}
+
+	/**
+	 * Remembers where the block holding the given position is, so that
+	 * reading from there again, after reading further on, doesn't follow
+	 * the chain from an earlier mark. A reader that goes back to places
+	 * it has been, such as the start of each page shown, marks them.
+	 * Files in runs need no marks, so for them this does nothing.
+	 * @param position a position of the file, before its end
+	 */
+	public void mark(int position){
+		if(map != null || position < 0 || position >= size)
+			return;
+		int fb = position / dataPerBlock;
+		int i = Arrays.binarySearch(markFileBlocks, 0, marks, fb);
+		if(i >= 0 || !seek(fb))
+			return;
+		i = -i - 1;
+		if(marks == markFileBlocks.length){
+			markFileBlocks = Arrays.copyOf(markFileBlocks, 2 * marks);
+			markDiskBlocks = Arrays.copyOf(markDiskBlocks, 2 * marks);
+		}
+		System.arraycopy(markFileBlocks, i, markFileBlocks, i + 1, marks - i);
+		System.arraycopy(markDiskBlocks, i, markDiskBlocks, i + 1, marks - i);
+		markFileBlocks[i] = fb;
+		markDiskBlocks[i] = diskBlock;
+		marks++;
+	}
+
+	/**
+	 * Copies up to len bytes of the file, starting at the given
+	 * position, into dst.
+	 * @param position the first byte of the file to copy
+	 * @param dst the array receiving the bytes
+	 * @param offset the first position of dst to fill
+	 * @param len the most bytes to copy
+	 * @return the number of bytes copied, or -1 if position is at or
+	 * past the end of the file.
+	 */
+	public int read(int position, byte[] dst, int offset, int len){
+		if(position >= size)
+			return -1;
+		int copied = 0;
+		while(copied < len && position < size){
+			if(!seek(position / dataPerBlock))
+				break;
+			int inBlock = position % dataPerBlock;
+			int n = Math.min(Math.min(dataPerBlock - inBlock, size - position), len - copied);
+			System.arraycopy(block, inBlock, dst, offset + copied, n);
+			copied += n;
+			position += n;
+		}
+		return copied == 0 && position >= size ? -1 : copied;
+	}
+
+	/**
+	 * Returns a channel that reads the file from its start, one block
+	 * at a time, so that the file can be given to what reads from a
+	 * channel (see FileManager.copyFile()) without being held whole.
+	 * @return the channel
+	 */
+	public ReadableByteChannel openChannel(){
+		return new ReadableByteChannel(){
+			private int position;							//next byte of the file to read
+			private byte[] chunk = new byte[dataPerBlock];	//bytes copied at a time
+			private boolean open = true;
+
+			public int read(ByteBuffer dst) throws IOException{
+				if(!open)
+					throw new ClosedChannelException();
+				int n = ContentReader.this.read(position, chunk, 0, Math.min(chunk.length, dst.remaining()));
+				if(n > 0){
+					dst.put(chunk, 0, n);
+					position += n;
+				}
+				return n;
+			}
+
+			public boolean isOpen(){
+				return open;
+			}
+
+			public void close(){
+				open = false;
+			}
+		};
+	}
+
+	/**
+	 * Makes block fb of the file the one read last. A chain is followed
+	 * from that block when fb comes after it, and otherwise from the
+	 * last mark before fb.
+	 * @return false if the chain ends before fb, which then ends the file.
+	 */
+	private boolean seek(int fb){
+		if(fb == current)
+			return true;
+		if(map != null){
+			diskBlock = map.getBlock(fb);
+			reader.read(fb, diskBlock, map.getRunLength(fb), block, 0);
+			current = fb;
+			return true;
+		}
+
+		int i = Arrays.binarySearch(markFileBlocks, 0, marks, fb);
+		if(i < 0)
+			i = -i - 2;
+		int from = markFileBlocks[i];
+		int bn = markDiskBlocks[i];
+		if(current != -1 && current < fb && current >= from){
+			from = current + 1;
+			bn = next;
+		}
+		for(int b = from; b <= fb; b++){
+			if(bn <= 0 || bn >= capacity){
+				// the chain is shorter than the file
+				size = Math.min(size, b * dataPerBlock);
+				blocks = b;
+				return false;
+			}
+			reader.read(b, bn, blocks - b, block, 0);
+			current = b;
+			diskBlock = bn;
+			next = DiskUtils.getIntFromBytesArray(block, dataPerBlock);
+			bn = next;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,141 @@
+package diskUtilities;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of the lookups done while resolving paths: for a
+ * directory and a name, the i-node that name has in that directory.
+ * Once a path has been resolved, resolving it again takes one lookup
+ * in memory per component, and the directories along the way are not
+ * read from the disk even if they were dropped from memory since.
+ * When the cache is full, the entry used longest ago makes room for
+ * the new one.
+ *
+ * Only names that exist are cached. The owner must invalidate an
+ * entry whenever its name is removed from its directory or renamed.
+ * The methods are synchronized, so paths can be resolved by several
+ * threads at once.
+ * @author josej
+ *
+ */
+public class DentryCache {
+	/** Number of entries kept by default. **/
+	public static final int DEFAULT_ENTRIES = 4096;
+
+	private int capacity;							//most entries kept
+	private LinkedHashMap<Key, Integer> entries;	//i-node of each cached name, least recently used first
+	private long hits;								//lookups that found their name
+	private long misses;							//lookups that didn't
+
+	/**
+	 * @param capacity the number of entries the cache can hold, at least 1
+	 */
+	public DentryCache(int capacity){
+		this.capacity = Math.max(1, capacity);
+		entries = new LinkedHashMap<Key, Integer>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest){
+				return size() > DentryCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the i-node of a name in a directory, if it is cached.
+	 * @param parent the i-node of the directory
+	 * @param name the name
+	 * @return the i-node of the name, or -1 if it is not cached.
+	 */
+	public synchronized int get(int parent, String name){
+		Integer iNode = entries.get(new Key(parent, name));
+		if(iNode == null){
+			misses++;
+			return -1;
+		}
+		hits++;
+		return iNode;
+	}
+
+	/**
+	 * Caches the i-node of a name in a directory.
+	 * @param parent the i-node of the directory
+	 * @param name the name
+	 * @param iNode the i-node the name has in the directory
+	 */
+	public synchronized void put(int parent, String name, int iNode){
+		entries.put(new Key(parent, name), iNode);
+	}
+
+	/**
+	 * Drops the entry of a name in a directory, if it is cached.
+	 * @param parent the i-node of the directory
+	 * @param name the name
+	 */
+	public synchronized void invalidate(int parent, String name){
+		entries.remove(new Key(parent, name));
+	}
+
+	/**
+	 * Drops every entry. The counters are kept.
+	 */
+	public synchronized void clear(){
+		entries.clear();
+	}
+
+	/**
+	 * Returns the number of entries the cache can hold.
+	 * @return the capacity of the cache
+	 */
+	public int getCapacity(){
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of entries currently cached.
+	 * @return the number of entries
+	 */
+	public synchronized int size(){
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of lookups that found their name.
+	 * @return the number of hits
+	 */
+	public synchronized long getHits(){
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that didn't find their name.
+	 * @return the number of misses
+	 */
+	public synchronized long getMisses(){
+		return misses;
+	}
+
+	/**
+	 * A name in a directory.
+	 */
+	private static class Key {
+		private int parent;							//i-node of the directory
+		private String name;						//name in the directory
+
+		Key(int parent, String name){
+			this.parent = parent;
+			this.name = name;
+		}
+
+		public boolean equals(Object o){
+			if(!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return parent == k.parent && name.equals(k.name);
+		}
+
+		public int hashCode(){
+			return 31 * parent + name.hashCode();
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package diskUtilities;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import diskExceptions.FullDiskException;
+
+/**
+ * A directory of a mounted disk: a set of entries, each one a name of
+ * up to FileManager.NAME_LENGTH characters and the i-node of the file
+ * or directory with that name. How the entries are laid out on the
+ * disk depends on the directory format of the disk (see LinearDirectory
+ * and HashedDirectory).
+ *
+ * Whatever the format, the entries are also kept in memory as a map
+ * from name to i-node, which is read from the disk the first time the
+ * directory is used after the disk is mounted. Lookups by name are then
+ * constant-time no matter how many entries the directory has.
+ * @author josej
+ *
+ */
+public abstract class Directory {
+	protected DiskUnit disk;						//disk holding the directory
+	protected int iNodeIndex;						//i-node of the directory
+	private HashMap<String, Integer> entries;		//i-node of each name, null until read
+
+	/**
+	 * @param disk the disk holding the directory
+	 * @param iNodeIndex the i-node of the directory
+	 */
+	protected Directory(DiskUnit disk, int iNodeIndex){
+		this.disk = disk;
+		this.iNodeIndex = iNodeIndex;
+	}
+
+	/**
+	 * Returns the i-node of the directory.
+	 * @return the position of the i-node
+	 */
+	public int getINode(){
+		return iNodeIndex;
+	}
+
+	/**
+	 * Searches for an entry of the directory.
+	 * @param name the name of the entry
+	 * @return the i-node of the entry, or -1 if there is no such entry.
+	 */
+	public int find(String name){
+		Integer iNode = getMap().get(name);
+		return iNode == null ? -1 : iNode;
+	}
+
+	/**
+	 * Adds an entry to the directory. There must be no entry with
+	 * the same name.
+	 * @param name the name of the new entry
+	 * @param iNode the i-node of the new entry
+	 * @throws FullDiskException whenever the directory needs another
+	 * block and there is none.
+	 */
+	public void add(String name, int iNode) throws FullDiskException{
+		HashMap<String, Integer> map = getMap();
+		writeEntry(name, iNode);
+		map.put(name, iNode);
+	}
+
+	/**
+	 * Removes an entry from the directory, if there is one with the
+	 * given name.
+	 * @param name the name of the entry
+	 */
+	public void remove(String name){
+		if(getMap().remove(name) != null)
+			eraseEntry(name);
+	}
+
+	/**
+	 * Returns the entries of the directory, in no particular order.
+	 * @return a read-only map from name to i-node
+	 */
+	public Map<String, Integer> getEntries(){
+		return Collections.unmodifiableMap(getMap());
+	}
+
+	/**
+	 * Returns the number of entries of the directory.
+	 * @return the number of entries
+	 */
+	public int size(){
+		return getMap().size();
+	}
+
+	private synchronized HashMap<String, Integer> getMap(){
+		if(entries == null){
+			entries = new HashMap<String, Integer>();
+			readEntries(entries);
+		}
+		return entries;
+	}
+
+	/**
+	 * Reads every entry of the directory from the disk.
+	 * @param entries the map that receives the entries
+	 */
+	protected abstract void readEntries(Map<String, Integer> entries);
+
+	/**
+	 * Writes a new entry of the directory on the disk.
+	 * @param name the name of the entry
+	 * @param iNode the i-node of the entry
+	 * @throws FullDiskException whenever the directory needs another
+	 * block and there is none.
+	 */
+	protected abstract void writeEntry(String name, int iNode) throws FullDiskException;
+
+	/**
+	 * Erases an entry of the directory from the disk.
+	 * @param name the name of the entry, which is in the directory
+	 */
+	protected abstract void eraseEntry(String name);
+
+	/**
+	 * Returns every block used by the directory to the collection of
+	 * free blocks. The directory must have no entries, and is not to 
+	 * be used afterwards; its i-node is left to the caller.
+	 */
+	public abstract void release();
+
+	/**
+	 * Writes name and iNode as a directory entry in b[offset...].
+	 */
+	static void copyEntry(byte[] b, int offset, String name, int iNode){
+		for(int i = 0; i < FileManager.NAME_LENGTH; i++)
+			DiskUtils.copyCharToBytesArray(b, offset + i, i < name.length() ? name.charAt(i) : 0);
+		DiskUtils.copyIntToBytesArray(b, offset + FileManager.NAME_LENGTH, iNode);
+	}
+
+	/**
+	 * Returns the name stored in the entry that begins at b[offset].
+	 */
+	static String getEntryName(byte[] b, int offset){
+		StringBuilder name = new StringBuilder();
+		for(int i = 0; i < FileManager.NAME_LENGTH && b[offset + i] != 0; i++)
+			name.append(DiskUtils.getCharFromBytesArray(b, offset + i));
+		return name.toString();
+	}
+}
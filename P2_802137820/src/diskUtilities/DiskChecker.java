@@ -0,0 +1,879 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Checks that the structures of a disk that is not mounted agree with
+ * one another, reading the disk without changing it:
+ * <ul>
+ * <li>the header in block 0 matches the length of the file and the
+ * areas that follow from its capacity and block size;</li>
+ * <li>the chain of free i-nodes stays in the i-node area and ends;</li>
+ * <li>every i-node in use is valid, its size fits in the data area and
+ * its blocks are in it: the chain of a chained file ends right after
+ * the blocks its size needs, the runs of a file in runs hold exactly
+ * those blocks, and the size of a hashed directory matches its
+ * entries;</li>
+ * <li>every directory entry names an i-node, and every i-node in use
+ * but the root is in exactly one directory that can be reached from
+ * the root, while no free i-node is in any;</li>
+ * <li>every block of the data area is either free or used, not both,
+ * and the references found to it match the table of references;</li>
+ * <li>the checkpoint left by the last shutdown, if any, matches the
+ * free i-nodes and blocks.</li>
+ * </ul>
+ * The i-node area is read into memory first. Then the i-nodes in use
+ * are split in parts of at least TASK_INODES, which the threads of a
+ * fork-join pool scan at once, following the blocks of each file and
+ * directory, while another thread gathers the free blocks; and last,
+ * the blocks are split in parts of at least TASK_BLOCKS to compare what
+ * was found for each one. The parts count what they find in arrays
+ * indexed by block or i-node, changed atomically, so their results are
+ * merged without locks.
+ *
+ * Up to MAX_PROBLEMS problems are kept, in order of kind and then of
+ * block or i-node, and at most one per kind for each block or i-node;
+ * the rest are only counted.
+ * @author josej
+ *
+ */
+public class DiskChecker {
+	/** Most problems kept; the rest are only counted. **/
+	public static final int MAX_PROBLEMS = 100;
+	private static final int
+	TASK_INODES = 1024;								//i-nodes below which a part is not split
+	private static final int
+	TASK_BLOCKS = 1 << 16;							//blocks below which a part is not split
+	private static final int
+	TASK_AREA_BLOCKS = 256;							//i-node blocks read by each part
+
+	// kinds of problems, in the order they are kept
+	private static final int HEADER = 0;
+	private static final int FREE_INODES = 1;
+	private static final int INODES = 2;
+	private static final int LINKS = 3;
+	private static final int FREE_BLOCKS = 4;
+	private static final int BLOCKS = 5;
+	private static final int CHECKPOINT = 6;
+
+	// what a Part does with its range
+	private static final int READ_AREA = 0;			//blocks of the i-node area
+	private static final int SCAN_INODES = 1;		//i-nodes
+	private static final int SCAN_FREE_BLOCKS = 2;	//the whole free-space structure, not split
+	private static final int COMPARE_BLOCKS = 3;	//blocks
+
+	// what is known about the i-nodes reached from the root
+	private static final byte UNKNOWN = 0;
+	private static final byte ON_PATH = 1;
+	private static final byte REACHABLE = 2;
+	private static final byte UNREACHABLE = 3;
+
+	private DiskStorage disk;						//the disk checked
+	private int parallelism;						//threads scanning at once
+
+	// the disk, as given by its header
+	private int capacity;							//number of blocks
+	private int blockSize;							//size of each block
+	private int freeSpaceFormat;					//FREE_BLOCK_TREE or FREE_BLOCK_BITMAP
+	private int iNodeFormat;						//INODE_CHAINED or INODE_EXTENTS
+	private int directoryFormat;					//DIRECTORY_LINEAR or DIRECTORY_HASHED
+	private int iNodeSize;							//bytes per i-node
+	private int iNodesPerBlock;						//i-nodes held by each block of the i-node area
+	private int numberOfINodes;						//i-nodes the i-node area holds
+	private int dataPerBlock;						//bytes of file data per block
+	private int firstBitmapBlock;					//first block of the bitmap, if any
+	private int firstDataBlock;						//first block after the reserved area
+	private int firstFreeBlock;						//root of the free block tree
+	private int firstFreeBlockIndex;				//last used integer in the root
+	private int firstFreeINodeIndex;				//position of the first free i-node
+	private int blockHighWaterMark;					//first block never handed out
+	private int iNodeHighWaterMark;					//first i-node never handed out
+	private int firstCheckpointBlock;				//first block of the checkpoint, 0 if none
+	private int generation;							//generation of the disk
+	private int checkpointBlocks;					//number of blocks of the checkpoint
+	private int checkpointChecksum;					//checksum of the blocks of the checkpoint
+
+	// what has been found
+	private byte[] area;							//the i-node area
+	private byte[] shares;							//the table of references, null if not kept
+	private boolean[] freeINode;					//true for each free i-node
+	private int[] freeChain;						//free i-nodes in the order of their chain
+	private long[] freeBlock;						//a bit set for each free block
+	private AtomicIntegerArray references;			//references found to each block
+	private AtomicLongArray walked;					//a bit set for each chained block whose pointer is counted
+	private AtomicIntegerArray links;				//entries found for each i-node
+	private int[] parent;							//a directory with an entry for each i-node
+	private TreeMap<Long, String> problems;			//the problems kept, by kind and number
+	private int problemCount;						//problems found
+	private AtomicLong bytesRead;					//bytes read from the disk
+	private AtomicInteger files;					//i-nodes of files in use
+	private AtomicInteger directories;				//i-nodes of directories in use
+	private AtomicInteger usedBlocks;				//blocks in use
+	private AtomicInteger freeBlocks;				//free blocks
+	private int freeINodes;							//free i-nodes
+
+	/**
+	 * @param disk the disk to check, which must not be mounted
+	 */
+	public DiskChecker(DiskStorage disk){
+		this.disk = disk;
+		parallelism = Runtime.getRuntime().availableProcessors();
+		problems = new TreeMap<Long, String>();
+		bytesRead = new AtomicLong();
+		files = new AtomicInteger();
+		directories = new AtomicInteger();
+		usedBlocks = new AtomicInteger();
+		freeBlocks = new AtomicInteger();
+	}
+
+	/**
+	 * Sets the number of threads that scan at once; by default, one
+	 * per processor.
+	 * @param parallelism the number of threads, at least 1
+	 * @return this checker
+	 * @throws IllegalArgumentException whenever parallelism is less than 1.
+	 */
+	public DiskChecker setParallelism(int parallelism){
+		if(parallelism < 1)
+			throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Checks the disk. A checker checks the disk once.
+	 * @return true if no problems were found
+	 * @throws IOException whenever the disk can't be read.
+	 */
+	public boolean check() throws IOException {
+		if(!readHeader())
+			return false;
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new Part(READ_AREA, 0, area.length / blockSize));
+			walkFreeINodes();
+			pool.invoke(new RecursiveAction(){
+				private static final long serialVersionUID = 1L;
+				protected void compute() {
+					invokeAll(new Part(SCAN_INODES, 0, numberOfINodes), new Part(SCAN_FREE_BLOCKS, 0, 1));
+				}
+			});
+			checkLinks();
+			checkCheckpoint();
+			pool.invoke(new Part(COMPARE_BLOCKS, firstDataBlock, capacity));
+		} catch (RuntimeException e) {
+			// the parts carry the IOException of a failed read, maybe
+			// wrapped again by the pool
+			for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause())
+				if(cause instanceof IOException)
+					throw (IOException) cause;
+			throw e;
+		} finally {
+			pool.shutdown();
+		}
+		return problemCount == 0;
+	}
+
+	/**
+	 * Returns the problems kept, in order of kind and of block or i-node.
+	 * @return at most MAX_PROBLEMS descriptions
+	 */
+	public synchronized ArrayList<String> getProblems(){
+		return new ArrayList<String>(problems.values());
+	}
+
+	/**
+	 * Returns the number of problems found, kept or not.
+	 * @return the number of problems
+	 */
+	public synchronized int getProblemCount(){
+		return problemCount;
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	public int getNumOfINodes(){
+		return numberOfINodes;
+	}
+
+	public int getFiles(){
+		return files.get();
+	}
+
+	public int getDirectories(){
+		return directories.get();
+	}
+
+	public int getUsedBlocks(){
+		return usedBlocks.get();
+	}
+
+	public int getFreeBlocks(){
+		return freeBlocks.get();
+	}
+
+	public int getFreeINodes(){
+		return freeINodes;
+	}
+
+	/**
+	 * Returns the number of bytes read from the disk so far.
+	 * @return the number of bytes
+	 */
+	public long getBytesRead(){
+		return bytesRead.get();
+	}
+
+	public int getParallelism(){
+		return parallelism;
+	}
+
+	/**
+	 * Reads the header and works out where each area of the disk is.
+	 * @return false if the header is too broken to go on
+	 */
+	private boolean readHeader() throws IOException {
+		long length = disk.length();
+		if(length < 8 * DiskUtils.INTSIZE){
+			report(HEADER, 0, "The disk has " + length + " bytes, too few for a header.");
+			return false;
+		}
+		capacity = read(0);									// bytes 0 to 3
+		blockSize = read(4);								// bytes 4 to 7
+		firstFreeBlock = read(8);							// bytes 8 to 11
+		firstFreeBlockIndex = read(12);						// bytes 12 to 15
+		firstFreeINodeIndex = read(16);						// bytes 16 to 19
+		int headerINodes = read(20);						// bytes 20 to 23
+		int formats = read(24);								// bytes 24 to 27
+		firstBitmapBlock = read(28);						// bytes 28 to 31
+		freeSpaceFormat = formats & 0xFF;
+		iNodeFormat = formats >>> 8 & 0xFF;
+		directoryFormat = formats >>> 16 & 0xFF;
+		int features = formats >>> 24;
+		if(!Utils.powerOf2(capacity) || !Utils.powerOf2(blockSize) || blockSize < 32){
+			report(HEADER, 0, "Invalid capacity " + capacity + " or block size " + blockSize + ".");
+			return false;
+		}
+		if(length != (long) capacity * blockSize){
+			report(HEADER, 1, "The disk has " + length + " bytes, but " + capacity +
+					" blocks of " + blockSize + " bytes.");
+			if(length < (long) capacity * blockSize)
+				return false;
+		}
+		if(freeSpaceFormat > DiskUnit.FREE_BLOCK_BITMAP || iNodeFormat > DiskUnit.INODE_EXTENTS ||
+				directoryFormat > DiskUnit.DIRECTORY_HASHED || blockSize < DiskUnit.iNodeSize(iNodeFormat)){
+			report(HEADER, 2, "Invalid formats: " + Integer.toHexString(formats) + ".");
+			return false;
+		}
+
+		iNodeSize = DiskUnit.iNodeSize(iNodeFormat);
+		iNodesPerBlock = blockSize / iNodeSize;
+		int iNodeBlocks = (int) Math.floor(capacity * 0.01);
+		numberOfINodes = iNodesPerBlock * iNodeBlocks;
+		if(headerINodes != numberOfINodes)
+			report(HEADER, 3, "The header counts " + headerINodes + " i-nodes, but the i-node area holds " +
+					numberOfINodes + ".");
+		dataPerBlock = iNodeFormat == DiskUnit.INODE_CHAINED ? blockSize - DiskUtils.INTSIZE : blockSize;
+
+		// the table of references and the bitmap follow the i-node area
+		firstDataBlock = iNodeBlocks + 1;
+		if((features & DiskUnit.FEATURE_BLOCK_REFERENCES) != 0){
+			shares = new byte[BlockReferences.tableBlocks(capacity, blockSize) * blockSize];
+			disk.read((long) firstDataBlock * blockSize, shares, 0, shares.length);
+			bytesRead.addAndGet(shares.length);
+			firstDataBlock += BlockReferences.tableBlocks(capacity, blockSize);
+		}
+		if(freeSpaceFormat == DiskUnit.FREE_BLOCK_BITMAP){
+			if(firstBitmapBlock != firstDataBlock)
+				report(HEADER, 4, "The bitmap starts at block " + firstDataBlock + ", not at block " +
+						firstBitmapBlock + " as the header says.");
+			firstBitmapBlock = firstDataBlock;
+			firstDataBlock += BitmapAllocator.bitmapBlocks(capacity, blockSize);
+		}
+		if(firstFreeBlockIndex < 0 || firstFreeBlockIndex >= blockSize / DiskUtils.INTSIZE){
+			report(HEADER, 5, "Invalid index " + firstFreeBlockIndex + " in the root of the free block tree.");
+			firstFreeBlockIndex = 0;
+		}
+
+		boolean sparse = (features & DiskUnit.FEATURE_HIGH_WATER_MARKS) != 0;
+		blockHighWaterMark = sparse && freeSpaceFormat == DiskUnit.FREE_BLOCK_TREE ? read(32) : capacity;
+		iNodeHighWaterMark = sparse ? read(36) : numberOfINodes;
+		if(blockHighWaterMark < firstDataBlock || blockHighWaterMark > capacity){
+			report(HEADER, 6, "Invalid high-water mark of the blocks: " + blockHighWaterMark + ".");
+			blockHighWaterMark = capacity;
+		}
+		if(iNodeHighWaterMark < 1 || iNodeHighWaterMark > numberOfINodes){
+			report(HEADER, 7, "Invalid high-water mark of the i-nodes: " + iNodeHighWaterMark + ".");
+			iNodeHighWaterMark = numberOfINodes;
+		}
+		if(blockSize >= DiskUnit.MIN_CHECKPOINT_BLOCK_SIZE){
+			firstCheckpointBlock = read(40);				// bytes 40 to 43
+			generation = read(44);							// bytes 44 to 47
+			checkpointBlocks = read(48);					// bytes 48 to 51
+			checkpointChecksum = read(52);					// bytes 52 to 55
+		}
+
+		area = new byte[iNodeBlocks * blockSize];
+		freeINode = new boolean[numberOfINodes];
+		freeBlock = new long[(capacity + 63) >>> 6];
+		references = new AtomicIntegerArray(capacity);
+		walked = new AtomicLongArray((capacity + 63) >>> 6);
+		links = new AtomicIntegerArray(numberOfINodes);
+		parent = new int[numberOfINodes];
+		return true;
+	}
+
+	/**
+	 * Follows the chain of free i-nodes through the i-node area; the
+	 * i-nodes above the high-water mark are free as well.
+	 */
+	private void walkFreeINodes(){
+		int[] chain = new int[numberOfINodes];
+		for(int i = iNodeHighWaterMark; i < numberOfINodes; i++)
+			freeINode[i] = true;
+		freeINodes = numberOfINodes - iNodeHighWaterMark;
+		int count = 0;
+		for(int position = firstFreeINodeIndex; position != 0; ){
+			int i = iNodeNumber(position);
+			if(i <= 0){
+				report(FREE_INODES, 0, "The chain of free i-nodes reaches byte " + position +
+						(i == 0 ? ", the root directory." : ", where there is no i-node."));
+				break;
+			}
+			if(freeINode[i]){
+				report(FREE_INODES, i, "The chain of free i-nodes reaches i-node " + i +
+						(i >= iNodeHighWaterMark ? ", above the high-water mark." : " twice."));
+				break;
+			}
+			freeINode[i] = true;
+			chain[count++] = i;
+			position = DiskUtils.getIntFromBytesArray(area, iNodeOffset(i));
+		}
+		freeINodes += count;
+		freeChain = Arrays.copyOf(chain, count);
+	}
+
+	/**
+	 * Checks an i-node in use and the blocks it reaches.
+	 */
+	private void scanINode(int i) throws IOException {
+		int offset = iNodeOffset(i);
+		int first = DiskUtils.getIntFromBytesArray(area, offset);
+		int size = DiskUtils.getIntFromBytesArray(area, offset + 4);
+		byte type = area[offset + 8];
+		if(type != INode.FILE && type != INode.DIRECTORY){
+			report(INODES, i, "I-node " + i + " has an invalid type: " + type + ".");
+			return;
+		}
+		if(i == 0 && type != INode.DIRECTORY)
+			report(INODES, 0, "The root i-node is not a directory.");
+		if(size < 0){
+			report(INODES, i, "I-node " + i + " has an invalid size: " + size + ".");
+			return;
+		}
+		if(type == INode.FILE)
+			files.incrementAndGet();
+		else
+			directories.incrementAndGet();
+
+		if(type == INode.DIRECTORY && directoryFormat == DiskUnit.DIRECTORY_HASHED)
+			scanHashedDirectory(i, first, size);
+		else if((size + (long) dataPerBlock - 1) / dataPerBlock > capacity - firstDataBlock)
+			report(INODES, i, "I-node " + i + " has a size of " + size + " bytes, more than the data area holds.");
+		else{
+			Entries entries = type == INode.DIRECTORY ? new Entries(i) : null;
+			if(iNodeFormat == DiskUnit.INODE_EXTENTS)
+				scanRuns(i, offset, size, entries);
+			else
+				scanChain(i, first, size, entries);
+		}
+	}
+
+	/**
+	 * Follows the blocks of a chained file or linear directory. Each
+	 * block is referenced by the i-node or block that points to it, and
+	 * the pointer of a block reached by several files, which share it,
+	 * is only counted once.
+	 * @param entries scans the content of a directory, null for a file
+	 */
+	private void scanChain(int i, int first, int size, Entries entries) throws IOException {
+		int blocks = (int) ((size + (long) dataPerBlock - 1) / dataPerBlock);
+		if(blocks == 0){
+			if(first != 0)
+				report(INODES, i, "I-node " + i + " is empty but points to block " + first + ".");
+			return;
+		}
+		byte[] block = entries == null ? null : new byte[blockSize];
+		int bn = first;
+		for(int b = 0; b < blocks; b++){
+			if(bn == 0){
+				report(INODES, i, "The chain of i-node " + i + " ends after " + b + " of its " + blocks + " blocks.");
+				return;
+			}
+			if(!isDataBlock(bn)){
+				report(INODES, i, "The chain of i-node " + i + " reaches block " + bn + ", out of the data area.");
+				return;
+			}
+			if(b == 0)
+				references.incrementAndGet(bn);
+			int next;
+			if(entries != null){
+				readBlock(bn, block);
+				entries.add(block, Math.min(dataPerBlock, size - b * dataPerBlock));
+				next = DiskUtils.getIntFromBytesArray(block, dataPerBlock);
+			}
+			else{
+				next = disk.readInt((long) bn * blockSize + dataPerBlock);
+				bytesRead.addAndGet(DiskUtils.INTSIZE);
+			}
+			if(b + 1 == blocks){
+				if(next != 0)
+					report(INODES, i, "The chain of i-node " + i + " goes on after its " + blocks +
+							" blocks, to block " + next + ".");
+			}
+			else if(markWalked(bn) && isDataBlock(next))
+				references.incrementAndGet(next);
+			bn = next;
+		}
+	}
+
+	/**
+	 * Checks the runs of a file or linear directory in runs, which must
+	 * hold the blocks its size needs. Each block is referenced once by
+	 * each file whose runs include it, and each overflow block once.
+	 * @param entries scans the content of a directory, null for a file
+	 */
+	private void scanRuns(int i, int offset, int size, Entries entries) throws IOException {
+		int count = DiskUtils.getIntFromBytesArray(area, offset + 12);
+		int blocks = (int) ((size + (long) blockSize - 1) / blockSize);
+		if(count < 0 || count > capacity){
+			report(INODES, i, "I-node " + i + " has an invalid number of runs: " + count + ".");
+			return;
+		}
+		int perBlock = (blockSize - DiskUtils.INTSIZE) / 8;
+		byte[] overflow = new byte[blockSize];
+		byte[] block = entries == null ? null : new byte[blockSize];
+		int inOverflow = perBlock;
+		int next = DiskUtils.getIntFromBytesArray(area, offset + 16);
+		int found = 0;
+		for(int r = 0; r < count; r++){
+			int start, length;
+			if(r < ExtentINode.INLINE_EXTENTS){
+				start = DiskUtils.getIntFromBytesArray(area, offset + 20 + 8 * r);
+				length = DiskUtils.getIntFromBytesArray(area, offset + 24 + 8 * r);
+			}
+			else{
+				if(inOverflow == perBlock){
+					if(!isDataBlock(next)){
+						report(INODES, i, "The runs of i-node " + i + " go on in block " + next +
+								", out of the data area.");
+						return;
+					}
+					references.incrementAndGet(next);
+					readBlock(next, overflow);
+					next = DiskUtils.getIntFromBytesArray(overflow, blockSize - DiskUtils.INTSIZE);
+					inOverflow = 0;
+				}
+				start = DiskUtils.getIntFromBytesArray(overflow, 8 * inOverflow);
+				length = DiskUtils.getIntFromBytesArray(overflow, 8 * inOverflow + 4);
+				inOverflow++;
+			}
+			if(length < 1 || start < firstDataBlock || (long) start + length > capacity){
+				report(INODES, i, "I-node " + i + " has a run of " + length + " blocks from block " + start +
+						", out of the data area.");
+				return;
+			}
+			for(int bn = start; bn < start + length; bn++)
+				references.incrementAndGet(bn);
+			if(entries != null)
+				for(int b = 0; b < length && (long) (found + b) * blockSize < size; b++){
+					int bytes = (int) Math.min(blockSize, size - (long) (found + b) * blockSize);
+					disk.read((long) (start + b) * blockSize, block, 0, bytes);
+					bytesRead.addAndGet(bytes);
+					entries.add(block, bytes);
+				}
+			found += length;
+		}
+		if(found != blocks)
+			report(INODES, i, "The runs of i-node " + i + " hold " + found + " blocks, but its size needs " +
+					blocks + ".");
+	}
+
+	/**
+	 * Follows the bucket table of a hashed directory and the chain of
+	 * blocks of each bucket.
+	 */
+	private void scanHashedDirectory(int i, int table, int size) throws IOException {
+		if(!isDataBlock(table)){
+			report(INODES, i, "Directory " + i + " has its bucket table in block " + table +
+					", out of the data area.");
+			return;
+		}
+		references.incrementAndGet(table);
+		byte[] buckets = new byte[blockSize];
+		byte[] block = new byte[blockSize];
+		readBlock(table, buckets);
+		int perBlock = (blockSize - DiskUtils.INTSIZE) / FileManager.ENTRY_SIZE;
+		long entries = 0;
+		int bucketBlocks = 0;
+		for(int b = 0; b < blockSize / DiskUtils.INTSIZE; b++)
+			for(int bn = DiskUtils.getIntFromBytesArray(buckets, b * DiskUtils.INTSIZE); bn != 0;
+					bn = DiskUtils.getIntFromBytesArray(block, blockSize - DiskUtils.INTSIZE)){
+				if(!isDataBlock(bn)){
+					report(INODES, i, "Bucket " + b + " of directory " + i + " reaches block " + bn +
+							", out of the data area.");
+					break;
+				}
+				// a bucket that loops would otherwise never end
+				if(++bucketBlocks > capacity){
+					report(INODES, i, "A bucket of directory " + i + " never ends.");
+					return;
+				}
+				references.incrementAndGet(bn);
+				readBlock(bn, block);
+				entries += scanEntries(i, block, perBlock * FileManager.ENTRY_SIZE);
+			}
+		if(entries * FileManager.ENTRY_SIZE != size)
+			report(INODES, i, "Directory " + i + " has " + entries + " entries, but its size is " + size + ".");
+	}
+
+	/**
+	 * Counts the entries found for the i-nodes named by the entries of a
+	 * directory that begin in bytes[0...length - 1].
+	 * @return the number of entries in use
+	 */
+	private int scanEntries(int i, byte[] bytes, int length){
+		int entries = 0;
+		for(int e = 0; e + FileManager.ENTRY_SIZE <= length; e += FileManager.ENTRY_SIZE){
+			int position = DiskUtils.getIntFromBytesArray(bytes, e + FileManager.NAME_LENGTH);
+			if(position == 0)
+				continue;
+			entries++;
+			String name = Directory.getEntryName(bytes, e);
+			int child = iNodeNumber(position);
+			if(child <= 0)
+				report(INODES, i, "Directory " + i + " has an entry \"" + name + "\" for byte " + position +
+						(child == 0 ? ", the root directory." : ", where there is no i-node."));
+			else if(name.isEmpty())
+				report(INODES, i, "Directory " + i + " has an entry with no name.");
+			else{
+				links.incrementAndGet(child);
+				parent[child] = i;
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Scans the entries of a linear directory as its blocks are read,
+	 * so that the directory is never held whole, however large its size
+	 * says it is. An entry that begins in one block and ends in the next
+	 * is kept until it is whole.
+	 */
+	private class Entries {
+		private int i;								//the directory
+		private byte[] pending;						//bytes read but not yet scanned
+		private int length;							//number of them
+
+		Entries(int i){
+			this.i = i;
+			pending = new byte[blockSize + FileManager.ENTRY_SIZE];
+		}
+
+		/**
+		 * Scans the whole entries that end within the first n bytes of
+		 * a block of the directory.
+		 */
+		void add(byte[] block, int n){
+			System.arraycopy(block, 0, pending, length, n);
+			length += n;
+			int whole = length - length % FileManager.ENTRY_SIZE;
+			scanEntries(i, pending, whole);
+			System.arraycopy(pending, whole, pending, 0, length - whole);
+			length -= whole;
+		}
+	}
+
+	/**
+	 * Gathers the free blocks, from the bitmap or from the free block
+	 * tree and the high-water mark.
+	 */
+	private void scanFreeBlocks() throws IOException {
+		if(freeSpaceFormat == DiskUnit.FREE_BLOCK_BITMAP){
+			byte[] region = new byte[BitmapAllocator.bitmapBlocks(capacity, blockSize) * blockSize];
+			disk.read((long) firstBitmapBlock * blockSize, region, 0, region.length);
+			bytesRead.addAndGet(region.length);
+			ByteBuffer.wrap(region).asLongBuffer().get(freeBlock);
+			for(int w = 0; w < freeBlock.length; w++)
+				freeBlock[w] = ~freeBlock[w];
+			for(int bn = 0; bn < firstDataBlock; bn++)
+				if(isFree(bn)){
+					report(FREE_BLOCKS, bn, "Block " + bn + " is in the reserved area but free in the bitmap.");
+					freeBlock[bn >>> 6] &= ~(1L << (bn & 63));
+				}
+			return;
+		}
+
+		for(int bn = blockHighWaterMark; bn < capacity; bn++)
+			freeBlock[bn >>> 6] |= 1L << (bn & 63);
+		byte[] block = new byte[blockSize];
+		int last = firstFreeBlockIndex;
+		for(int root = firstFreeBlock; root != 0; root = DiskUtils.getIntFromBytesArray(block, 0)){
+			if(!isDataBlock(root)){
+				report(FREE_BLOCKS, root, "The free block tree reaches block " + root + ", out of the data area.");
+				return;
+			}
+			if(!markFree(root)){
+				report(FREE_BLOCKS, root, "The free block tree reaches block " + root + " twice.");
+				return;
+			}
+			readBlock(root, block);
+			for(int k = 1; k <= last; k++){
+				int bn = DiskUtils.getIntFromBytesArray(block, k * DiskUtils.INTSIZE);
+				if(!isDataBlock(bn))
+					report(FREE_BLOCKS, bn, "The free block tree holds block " + bn + ", out of the data area.");
+				else if(!markFree(bn))
+					report(FREE_BLOCKS, bn, "Block " + bn + " is registered as free twice.");
+			}
+			last = blockSize / DiskUtils.INTSIZE - 1;
+		}
+	}
+
+	/**
+	 * Checks that each i-node is either free or in exactly one directory
+	 * reached from the root.
+	 */
+	private void checkLinks(){
+		byte[] reach = new byte[numberOfINodes];
+		int[] path = new int[numberOfINodes];
+		for(int i = 1; i < numberOfINodes; i++){
+			int l = links.get(i);
+			if(freeINode[i]){
+				if(l > 0)
+					report(LINKS, i, "I-node " + i + " is free but in " + l + " directory entries.");
+			}
+			else if(l == 0)
+				report(LINKS, i, "I-node " + i + " is in use but in no directory.");
+			else if(l > 1)
+				report(LINKS, i, "I-node " + i + " is in " + l + " directory entries.");
+			else if(!reachable(i, reach, path))
+				report(LINKS, i, "I-node " + i + " is in a directory that can't be reached from the root.");
+		}
+	}
+
+	/**
+	 * Goes up from i-node i through the directories it is in, until the
+	 * root or an i-node already known; everything on the way is then
+	 * known as well.
+	 */
+	private boolean reachable(int i, byte[] reach, int[] path){
+		int top = 0;
+		int p = i;
+		while(p != 0 && reach[p] == UNKNOWN && !freeINode[p] && links.get(p) == 1){
+			reach[p] = ON_PATH;
+			path[top++] = p;
+			p = parent[p];
+		}
+		byte result = p == 0 || reach[p] == REACHABLE ? REACHABLE : UNREACHABLE;
+		while(top > 0)
+			reach[path[--top]] = result;
+		return result == REACHABLE;
+	}
+
+	/**
+	 * Checks the checkpoint left by the last shutdown, whose blocks are
+	 * in use until the next mount.
+	 */
+	private void checkCheckpoint() throws IOException {
+		if(firstCheckpointBlock == 0)
+			return;
+		Checkpoint c = Checkpoint.read(disk, capacity, blockSize, firstCheckpointBlock, generation, numberOfINodes);
+		if(c == null){
+			// the next mount gives back the blocks it can tell are the checkpoint's
+			int[] blocks = Checkpoint.readBlocks(disk, capacity, blockSize, firstCheckpointBlock, 
+					checkpointBlocks, checkpointChecksum);
+			report(CHECKPOINT, 0, "The checkpoint at block " + firstCheckpointBlock + " is not valid" + 
+					(blocks == null ? "." : "; its blocks are freed at the next mount."));
+			if(blocks != null)
+				for(int bn : blocks)
+					if(isDataBlock(bn))
+						references.incrementAndGet(bn);
+			return;
+		}
+		for(int bn : c.getBlocks())
+			if(isDataBlock(bn))
+				references.incrementAndGet(bn);
+		bytesRead.addAndGet((long) c.getBlocks().length * blockSize);
+		if(!Arrays.equals(c.getFreeINodes(), freeChain))
+			report(CHECKPOINT, 1, "The checkpoint doesn't match the chain of free i-nodes.");
+		int[] runs = c.getBlockRuns();
+		if(runs != null){
+			long free = 0;
+			boolean match = true;
+			for(int r = 0; r < runs.length; r += 2)
+				for(int bn = runs[r]; bn < runs[r] + runs[r + 1]; bn++)
+					match &= isFree(bn);
+			for(long word : freeBlock)
+				free += Long.bitCount(word);
+			for(int r = 1; r < runs.length; r += 2)
+				free -= runs[r];
+			if(!match || free != 0)
+				report(CHECKPOINT, 2, "The checkpoint doesn't match the bitmap.");
+		}
+	}
+
+	/**
+	 * Compares, for each block of the data area from from up to to,
+	 * whether it is free with the references found to it.
+	 */
+	private void compareBlocks(int from, int to){
+		int used = 0;
+		int free = 0;
+		for(int bn = from; bn < to; bn++){
+			int found = references.get(bn);
+			int counted = shares == null ? 1 : (shares[bn] & 0xFF) + 1;
+			if(isFree(bn)){
+				free++;
+				if(found > 0)
+					report(BLOCKS, bn, "Block " + bn + " is free but used " + found + (found == 1 ? " time." : " times."));
+				else if(counted > 1)
+					report(BLOCKS, bn, "Block " + bn + " is free but the table counts " + counted + " references.");
+			}
+			else if(found == 0)
+				report(BLOCKS, bn, "Block " + bn + " is neither free nor used.");
+			else{
+				used++;
+				if(found != counted)
+					report(BLOCKS, bn, "Block " + bn + " is used " + found + (found == 1 ? " time" : " times") +
+							", but the table counts " + counted + (counted == 1 ? " reference." : " references."));
+			}
+		}
+		usedBlocks.addAndGet(used);
+		freeBlocks.addAndGet(free);
+	}
+
+	private synchronized void report(int kind, int number, String problem){
+		long key = (long) kind << 32 | number & 0xFFFFFFFFL;
+		problemCount++;
+		if(!problems.containsKey(key)){
+			problems.put(key, problem);
+			if(problems.size() > MAX_PROBLEMS)
+				problems.remove(problems.lastKey());
+		}
+	}
+
+	/**
+	 * Returns the number of the i-node at the given position, 0 for
+	 * the root, or -1 if there is no i-node there.
+	 */
+	private int iNodeNumber(int position){
+		int offset = position % blockSize;
+		if(position < blockSize || (long) position >= (long) blockSize * (1 + area.length / blockSize) ||
+				offset % iNodeSize != 0 || offset / iNodeSize >= iNodesPerBlock)
+			return -1;
+		return (position / blockSize - 1) * iNodesPerBlock + offset / iNodeSize;
+	}
+
+	private int iNodeOffset(int i){
+		return i / iNodesPerBlock * blockSize + i % iNodesPerBlock * iNodeSize;
+	}
+
+	private boolean isDataBlock(int bn){
+		return bn >= firstDataBlock && bn < capacity;
+	}
+
+	private boolean isFree(int bn){
+		return (freeBlock[bn >>> 6] & 1L << (bn & 63)) != 0;
+	}
+
+	/**
+	 * Marks a block as free, unless it already is.
+	 * @return false if it already was
+	 */
+	private boolean markFree(int bn){
+		if(isFree(bn))
+			return false;
+		freeBlock[bn >>> 6] |= 1L << (bn & 63);
+		return true;
+	}
+
+	/**
+	 * Marks a chained block as having had its pointer counted.
+	 * @return true if this call marked it
+	 */
+	private boolean markWalked(int bn){
+		long bit = 1L << (bn & 63);
+		for(;;){
+			long word = walked.get(bn >>> 6);
+			if((word & bit) != 0)
+				return false;
+			if(walked.compareAndSet(bn >>> 6, word, word | bit))
+				return true;
+		}
+	}
+
+	private int read(long position) throws IOException {
+		bytesRead.addAndGet(DiskUtils.INTSIZE);
+		return disk.readInt(position);
+	}
+
+	private void readBlock(int bn, byte[] block) throws IOException {
+		disk.read((long) bn * blockSize, block, 0, blockSize);
+		bytesRead.addAndGet(blockSize);
+	}
+
+	/**
+	 * A range of i-node blocks, i-nodes or blocks, split in two halves
+	 * for other threads to take while it is large.
+	 */
+	private class Part extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int task;									//what is done with the range
+		private int from;									//first of the range
+		private int to;										//the one after the range
+
+		Part(int task, int from, int to){
+			this.task = task;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			int grain = task == READ_AREA ? TASK_AREA_BLOCKS : task == SCAN_INODES ? TASK_INODES : TASK_BLOCKS;
+			if(to - from > grain && task != SCAN_FREE_BLOCKS){
+				int middle = (from + to) >>> 1;
+				invokeAll(new Part(task, from, middle), new Part(task, middle, to));
+				return;
+			}
+			try {
+				if(task == READ_AREA){
+					disk.read((long) (from + 1) * blockSize, area, from * blockSize, (to - from) * blockSize);
+					bytesRead.addAndGet((long) (to - from) * blockSize);
+				}
+				else if(task == SCAN_INODES){
+					for(int i = from; i < to; i++)
+						if(!freeINode[i])
+							scanINode(i);
+				}
+				else if(task == SCAN_FREE_BLOCKS)
+					scanFreeBlocks();
+				else
+					compareBlocks(from, to);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills a range of the file of a disk with zeroes. The range is written
+ * in chunks of CHUNK_BYTES aligned to multiples of CHUNK_BYTES in the
+ * file, all taken from one buffer of zeroes that is never changed. The
+ * range is split in parts of at least TASK_CHUNKS chunks, which the
+ * threads of a fork-join pool write at once with positional transfers.
+ *
+ * When holes are allowed and the range reaches the end of the file,
+ * the file is truncated and extended instead (see DiskStorage.punchHole()),
+ * and nothing is written, unless the storage can't do it.
+ * @author josej
+ *
+ */
+public class DiskFormatter {
+	/** Bytes written by each transfer, a power of 2. **/
+	public static final int CHUNK_BYTES = 1 << 20;
+	private static final int
+	TASK_CHUNKS = 8;										//chunks below which a part is not split
+	private static final ByteBuffer
+	ZEROES = ByteBuffer.allocateDirect(CHUNK_BYTES);		//read through duplicates only
+
+	private DiskStorage disk;								//the disk formatted
+	private int parallelism;								//threads writing at once
+	private boolean holes;									//true to punch a hole if possible
+	private FormatProgress progress;						//told as chunks are written, may be null
+	private AtomicLong formatted;							//bytes formatted so far
+	private long totalBytes;								//bytes of the range being formatted
+
+	/**
+	 * @param disk the disk to format
+	 */
+	public DiskFormatter(DiskStorage disk){
+		this.disk = disk;
+		parallelism = Runtime.getRuntime().availableProcessors();
+		formatted = new AtomicLong();
+	}
+
+	/**
+	 * Sets the number of threads that write at once; by default, one
+	 * per processor.
+	 * @param parallelism the number of threads, at least 1
+	 * @return this formatter
+	 * @throws IllegalArgumentException whenever parallelism is less than 1.
+	 */
+	public DiskFormatter setParallelism(int parallelism){
+		if(parallelism < 1)
+			throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Allows the end of the file to be turned into a hole instead of
+	 * being written; not allowed by default.
+	 * @param holes true to allow it
+	 * @return this formatter
+	 */
+	public DiskFormatter setHoles(boolean holes){
+		this.holes = holes;
+		return this;
+	}
+
+	/**
+	 * Sets the object told how far the formatting has gone.
+	 * @param progress the object, or null for none
+	 * @return this formatter
+	 */
+	public DiskFormatter setProgress(FormatProgress progress){
+		this.progress = progress;
+		return this;
+	}
+
+	/**
+	 * Fills the bytes of the disk from position from up to position to
+	 * with zeroes. A formatter formats one range at a time.
+	 * @param from the first byte to format
+	 * @param to the byte after the last one to format
+	 * @return true if a hole was punched, false if the bytes were written
+	 * @throws IOException whenever the disk can't be written.
+	 */
+	public boolean format(long from, long to) throws IOException {
+		formatted.set(0);
+		totalBytes = Math.max(0, to - from);
+		if(totalBytes == 0)
+			return false;
+		if(holes && to >= disk.length() && disk.punchHole(from)){
+			advance(totalBytes);
+			return true;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new ZeroRange(from, to));
+		} catch (RuntimeException e) {
+			// the tasks carry the IOException of a failed transfer, maybe
+			// wrapped again by the pool
+			for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause())
+				if(cause instanceof IOException)
+					throw (IOException) cause;
+			throw e;
+		} finally {
+			pool.shutdown();
+		}
+		return false;
+	}
+
+	/**
+	 * Writes zeroes from position from up to position to, one aligned
+	 * chunk at a time.
+	 */
+	private void zero(long from, long to) throws IOException {
+		while(from < to){
+			long end = Math.min(to, (from & -CHUNK_BYTES) + CHUNK_BYTES);
+			ByteBuffer zeroes = ZEROES.duplicate();
+			zeroes.limit((int) (end - from));
+			disk.write(from, zeroes);
+			advance(end - from);
+			from = end;
+		}
+	}
+
+	private void advance(long bytes){
+		long done = formatted.addAndGet(bytes);
+		if(progress != null)
+			progress.formatted(done, totalBytes);
+	}
+
+	/**
+	 * A part of the range, split in two halves at a chunk boundary for
+	 * other threads to take while it is large.
+	 */
+	private class ZeroRange extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private long from;									//first byte of the part
+		private long to;									//byte after the part
+
+		ZeroRange(long from, long to){
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			long middle = ((from + to) >>> 1) & -CHUNK_BYTES;
+			if(to - from <= (long) TASK_CHUNKS * CHUNK_BYTES || middle <= from){
+				try {
+					zero(from, to);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			else
+				invokeAll(new ZeroRange(from, middle), new ZeroRange(middle, to));
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package diskUtilities;
+
+/**
+ * What the disk manager keeps about a disk: its name, its capacity
+ * and block size, when it was created and when it was last mounted.
+ * @author josej
+ *
+ */
+public class DiskInfo {
+	private String name;				//name of the disk
+	private int capacity;				//number of blocks
+	private int blockSize;				//bytes per block
+	private long created;				//time of creation, in milliseconds
+	private long lastMount;				//time of the last mount, 0 if never mounted
+
+	/**
+	 * @param name the name of the disk
+	 * @param capacity the number of blocks of the disk
+	 * @param blockSize the size of each block of the disk
+	 * @param created the time the disk was created, in milliseconds
+	 * since the epoch
+	 */
+	public DiskInfo(String name, int capacity, int blockSize, long created){
+		this.name = name;
+		this.capacity = capacity;
+		this.blockSize = blockSize;
+		this.created = created;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	/**
+	 * Returns the time the disk was last mounted.
+	 * @return the time in milliseconds since the epoch, 0 if the disk
+	 * has never been mounted
+	 */
+	public long getLastMount() {
+		return lastMount;
+	}
+
+	void setLastMount(long lastMount) {
+		this.lastMount = lastMount;
+	}
+}
@@ -1,103 +1,296 @@
 package diskUtilities;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
 
+/**
+ * Keeps the disks that exist, by name, with what is known about each
+ * of them (see DiskInfo). The disks are kept in memory in a hash table,
+ * and on the file DiskNames as a log of records appended as disks are
+ * added, deleted and mounted, so that no change rewrites the file.
+ * When the log holds more than twice as many records as there are
+ * disks, it is compacted: written again with one record per disk.
+ *
+ * The file starts with MAGIC. Each record holds its length, its kind,
+ * the name of the disk, the fields of its kind and a CRC32 of all of
+ * it. A record that was not written whole is dropped with the rest of
+ * the log after it. A file written by older versions, with one name
+ * per line, is turned into a log when it is first read.
+ * @author josej
+ *
+ */
 public class DiskManager {
+	private static final String
+	REGISTRY = "src\\DiskNames";						//the log of the disks
+	private static final String
+	DISK_DIRECTORY = "src\\DiskUnits\\";				//directory of the files of the disks
+	private static final int
+	MAGIC = 0x44524547;									//"DREG"
+	private static final byte
+	ADD = 1, DELETE = 2, MOUNT = 3;						//kinds of records
+	private static final int
+	COMPACT_RECORDS = 64;								//records below which the log is not compacted
+
+	private LinkedHashMap<String, DiskInfo> disks;		//the disks by name, in order of creation
+	private RandomAccessFile diskNames;					//the log, written at its end
+	private int records;								//number of records in the log
+
 
-	private ArrayList<String> disks;
-	private RandomAccessFile diskNames;
-	
-	
 	/**
 	 * Creates a manager that will handle the names
-	 * of the disks that get created.
+	 * of the disks that get created, reading the
+	 * ones that exist from the log.
 	 */
-	public DiskManager(){		
+	public DiskManager(){
+		disks = new LinkedHashMap<String, DiskInfo>();
 		try {
-			diskNames = new RandomAccessFile("src\\DiskNames", "rw");
-			disks = new ArrayList<String>();
-
-			if(new File("DiskNames").exists()){
-				diskNames.seek(0);
-				while(diskNames.getFilePointer() < diskNames.length())
-					disks.add(diskNames.readLine());
+			File file = new File(REGISTRY);
+			byte[] log = file.exists() ? Files.readAllBytes(file.toPath()) : new byte[0];
+			if(log.length >= DiskUtils.INTSIZE && ByteBuffer.wrap(log).getInt() == MAGIC){
+				long end = replay(log);
+				diskNames = new RandomAccessFile(file, "rw");
+				diskNames.setLength(end);
+				diskNames.seek(end);
+			}
+			else{
+				readNames(log);
+				compact();
 			}
-		} catch (FileNotFoundException e) {			
-			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-
 	}
 
 	/**
-	 * Return an array of strings corresponding to 
+	 * Return an array of strings corresponding to
 	 * the names of the disks created.
-	 * @return
+	 * @return the names, in order of creation
 	 */
-	public ArrayList<String> getDiskNames(){		
-		return disks;
+	public synchronized ArrayList<String> getDiskNames(){
+		return new ArrayList<String>(disks.keySet());
+	}
+
+	/**
+	 * Returns what is known about each disk.
+	 * @return the disks, in order of creation
+	 */
+	public synchronized ArrayList<DiskInfo> getDisks(){
+		return new ArrayList<DiskInfo>(disks.values());
+	}
+
+	/**
+	 * Returns what is known about a disk.
+	 * @param diskName the name of the disk
+	 * @return the disk, or null if it doesn't exist.
+	 */
+	public synchronized DiskInfo getDisk(String diskName){
+		return disks.get(diskName);
+	}
+
+	/**
+	 * Tells whether a disk with the given name exists.
+	 * @param diskName the name of the disk
+	 * @return true if it exists, false otherwise.
+	 */
+	public synchronized boolean hasDisk(String diskName){
+		return disks.containsKey(diskName);
 	}
 
 	/**
 	 * Add the name of a disk to the list of disk names.
 	 * @param diskName the name of the disk to be added.
+	 * @param capacity the number of blocks of the disk
+	 * @param blockSize the size of each block of the disk
 	 */
-	public void addDisk(String diskName){
-		disks.add(diskName);
-		try {			
-			diskNames.writeBytes(diskName + "\n");
+	public synchronized void addDisk(String diskName, int capacity, int blockSize){
+		DiskInfo disk = new DiskInfo(diskName, capacity, blockSize, System.currentTimeMillis());
+		disks.put(diskName, disk);
+		append(ADD, disk);
+	}
 
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**
+	 * Records that a disk has just been mounted.
+	 * @param diskName the name of the disk, which must exist
+	 */
+	public synchronized void diskMounted(String diskName){
+		DiskInfo disk = disks.get(diskName);
+		if(disk != null){
+			disk.setLastMount(System.currentTimeMillis());
+			append(MOUNT, disk);
 		}
 	}
 
 	/**
 	 * Deletes a disk from the directory of disks called "DiskUnits".
-	 * After that, the name is removed from the array of disk names.
+	 * After that, the name is removed from the disk names. If the file
+	 * of the disk exists but can't be deleted, as happens on Windows 
+	 * while it is still open or mapped, the disk is kept.
 	 * @param diskName the name of the disk to be deleted.
+	 * @return true if the disk was deleted, false otherwise.
 	 */
-	public void deleteDisk(String diskName){
-		//searches for the disk name
-		int index = findDiskNameIndex(diskName);
-		disks.remove(index);
+	public synchronized boolean deleteDisk(String diskName){
+		DiskInfo disk = disks.get(diskName);
+		if(disk == null)
+			return false;
 
-		File dtr = new File("src\\DiskUnits\\" + diskName);
-		dtr.delete();
+		File dtr = new File(DISK_DIRECTORY + diskName);
+		if(dtr.exists() && !dtr.delete())
+			return false;
+		disks.remove(diskName);
+		append(DELETE, disk);
+		return true;
+	}
 
+	/**
+	 * Writes the log again with one record per disk. The new log is
+	 * written to a file of its own, which then replaces the old one.
+	 */
+	public synchronized void compact(){
 		try {
-			diskNames.close();
+			ByteArrayOutputStream log = new ByteArrayOutputStream();
+			new DataOutputStream(log).writeInt(MAGIC);
+			for(DiskInfo disk : disks.values())
+				log.write(record(ADD, disk));
+
+			Path path = Paths.get(REGISTRY);
+			Path next = Paths.get(REGISTRY + ".new");
+			Files.write(next, log.toByteArray());
+			if(diskNames != null)
+				diskNames.close();
+			try {
+				Files.move(next, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(next, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+			diskNames = new RandomAccessFile(REGISTRY, "rw");
+			diskNames.seek(diskNames.length());
+			records = disks.size();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		File file = new File("DiskNames");
-		file.delete();
+	}
+
+	/**
+	 * Appends a record to the log, compacting it if it has grown too
+	 * long for the disks it holds.
+	 */
+	private void append(byte kind, DiskInfo disk){
 		try {
-			diskNames = new RandomAccessFile("DiskNames", "rw");
-			for(String dName: disks)				
-				diskNames.writeBytes(dName + "\n");				
+			diskNames.write(record(kind, disk));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		records++;
+		if(records >= COMPACT_RECORDS && records > 2 * disks.size())
+			compact();
 	}
 
 	/**
-	 * Search for the name of a disk in the array of disk names.
-	 * @param diskName
-	 * @return the index of the position where the disk name is,
-	 * returns -1 if it doesn't exist.
+	 * Returns the bytes of a record of the given kind about a disk.
 	 */
-	public int findDiskNameIndex(String diskName){
-		for(int i = 0; i < disks.size(); i++){
-			if(disks.get(i).equals(diskName))
-				return i;
+	private static byte[] record(byte kind, DiskInfo disk) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0);
+		out.writeByte(kind);
+		out.writeUTF(disk.getName());
+		if(kind == ADD){
+			out.writeInt(disk.getCapacity());
+			out.writeInt(disk.getBlockSize());
+			out.writeLong(disk.getCreated());
+			out.writeLong(disk.getLastMount());
+		}
+		else if(kind == MOUNT)
+			out.writeLong(disk.getLastMount());
+		out.writeInt(0);
+
+		byte[] record = bytes.toByteArray();
+		int length = record.length - 2 * DiskUtils.INTSIZE;
+		CRC32 crc = new CRC32();
+		crc.update(record, DiskUtils.INTSIZE, length);
+		ByteBuffer.wrap(record).putInt(0, length).putInt(record.length - DiskUtils.INTSIZE, (int) crc.getValue());
+		return record;
+	}
+
+	/**
+	 * Applies the records of a log to the disks.
+	 * @return the length of the log up to the last whole record
+	 */
+	private long replay(byte[] log){
+		ByteBuffer buffer = ByteBuffer.wrap(log);
+		int end = DiskUtils.INTSIZE;
+		records = 0;
+		while(log.length - end >= 2 * DiskUtils.INTSIZE){
+			int length = buffer.getInt(end);
+			if(length < 3 || length > log.length - end - 2 * DiskUtils.INTSIZE)
+				break;
+			CRC32 crc = new CRC32();
+			crc.update(log, end + DiskUtils.INTSIZE, length);
+			if(buffer.getInt(end + DiskUtils.INTSIZE + length) != (int) crc.getValue())
+				break;
+
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(log, end + DiskUtils.INTSIZE, length));
+			try {
+				byte kind = in.readByte();
+				String name = in.readUTF();
+				if(kind == ADD){
+					DiskInfo disk = new DiskInfo(name, in.readInt(), in.readInt(), in.readLong());
+					disk.setLastMount(in.readLong());
+					disks.put(name, disk);
+				}
+				else if(kind == DELETE)
+					disks.remove(name);
+				else if(kind == MOUNT){
+					long time = in.readLong();
+					if(disks.containsKey(name))
+						disks.get(name).setLastMount(time);
+				}
+				else
+					break;
+			} catch (IOException e) {
+				break;
+			}
+			end += length + 2 * DiskUtils.INTSIZE;
+			records++;
+		}
+		return end;
+	}
+
+	/**
+	 * Reads the names of a file written by older versions, one per
+	 * line, taking the capacity and block size of each disk from its
+	 * file and its time of creation from when the file was last changed.
+	 * The disks whose files are gone or can't be read are dropped.
+	 */
+	private void readNames(byte[] names) throws IOException {
+		for(String name : new String(names, StandardCharsets.ISO_8859_1).split("\n")){
+			File file = new File(DISK_DIRECTORY + name);
+			if(name.isEmpty() || disks.containsKey(name) || !file.exists())
+				continue;
+			RandomAccessFile disk = new RandomAccessFile(file, "r");
+			try {
+				disks.put(name, new DiskInfo(name, disk.readInt(), disk.readInt(), file.lastModified()));
+			} catch (IOException e) {
+				e.printStackTrace();
+			} finally {
+				disk.close();
+			}
 		}
-		return -1;
 	}
 
 }
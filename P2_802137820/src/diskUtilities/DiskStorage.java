@@ -0,0 +1,120 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Specifies the type of object that moves bytes between a disk unit
+ * and the file that represents it. Every position is a byte offset
+ * from the beginning of the file, so a block transfer is a single
+ * call with position blockNum * blockSize.
+ * @author josej
+ *
+ */
+public interface DiskStorage {
+
+	/**
+	 * Copies length bytes starting at position into dst[offset...].
+	 * @param position byte offset in the disk file
+	 * @param dst the destination array
+	 * @param offset first index of dst to fill
+	 * @param length number of bytes to copy
+	 * @throws IOException if the bytes can't be read
+	 */
+	void read(long position, byte[] dst, int offset, int length) throws IOException;
+
+	/**
+	 * Copies length bytes from src[offset...] into the disk file
+	 * starting at position.
+	 * @param position byte offset in the disk file
+	 * @param src the source array
+	 * @param offset first index of src to copy
+	 * @param length number of bytes to copy
+	 * @throws IOException if the bytes can't be written
+	 */
+	void write(long position, byte[] src, int offset, int length) throws IOException;
+
+	/**
+	 * Fills the remaining bytes of dst with the content of the disk
+	 * file starting at position.
+	 * @param position byte offset in the disk file
+	 * @param dst the destination buffer; its position is advanced
+	 * up to its limit.
+	 * @throws IOException if the bytes can't be read
+	 */
+	void read(long position, ByteBuffer dst) throws IOException;
+
+	/**
+	 * Copies the remaining bytes of src into the disk file starting
+	 * at position.
+	 * @param position byte offset in the disk file
+	 * @param src the source buffer; its position is advanced up
+	 * to its limit.
+	 * @throws IOException if the bytes can't be written
+	 */
+	void write(long position, ByteBuffer src) throws IOException;
+
+	/**
+	 * Copies up to count bytes read from src into the disk file starting
+	 * at position, without going through an intermediate array when the 
+	 * backend allows it.
+	 * @param src the channel the bytes are read from
+	 * @param position byte offset in the disk file
+	 * @param count the number of bytes to copy
+	 * @return the number of bytes copied; less than count only if src
+	 * reached its end.
+	 * @throws IOException if the bytes can't be read or written
+	 */
+	long transferFrom(ReadableByteChannel src, long position, long count) throws IOException;
+
+	/**
+	 * Reads the four bytes at position as an integer (most
+	 * significant byte first).
+	 * @param position byte offset in the disk file
+	 * @return the integer value
+	 * @throws IOException if the bytes can't be read
+	 */
+	int readInt(long position) throws IOException;
+
+	/**
+	 * Writes value in the four bytes at position (most
+	 * significant byte first).
+	 * @param position byte offset in the disk file
+	 * @param value the integer value
+	 * @throws IOException if the bytes can't be written
+	 */
+	void writeInt(long position, int value) throws IOException;
+
+	/**
+	 * Turns the bytes of the disk file from position to its end into a
+	 * hole, which reads as zeroes and takes no space where the file
+	 * system allows it, keeping the length of the file. This is done by
+	 * truncating the file and extending it again, so only the end of 
+	 * the file can be punched.
+	 * @param position byte offset in the disk file
+	 * @return true if the hole was made, false if the backend can't
+	 * make it; the bytes are then left as they are.
+	 * @throws IOException if the file can't be truncated or extended
+	 */
+	boolean punchHole(long position) throws IOException;
+
+	/**
+	 * Returns the number of bytes in the disk file.
+	 * @return the length of the file
+	 * @throws IOException if the length can't be determined
+	 */
+	long length() throws IOException;
+
+	/**
+	 * Pushes pending changes to the file and releases it.
+	 * @throws IOException if the file can't be closed
+	 */
+	void close() throws IOException;
+
+	/**
+	 * Returns a short description of the backend, as shown by dparams.
+	 * @return the name of the backend
+	 */
+	String getType();
+}
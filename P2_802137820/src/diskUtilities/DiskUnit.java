@@ -2,43 +2,157 @@ package diskUtilities;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import diskExceptions.ExistingDiskException;
 import diskExceptions.FullDiskException;
 import diskExceptions.InvalidBlockException;
 import diskExceptions.InvalidBlockNumberException;
 import diskExceptions.NonExistingDiskException;
-import lists.LLQueue;
+import stack.IntStack;
 
+/**
+ * A disk unit kept in a file. Several threads may use a mounted disk
+ * at once: the blocks are split in groups of 2^GROUP_SHIFT adjacent
+ * blocks, and each group is guarded by one of LOCK_STRIPES read/write
+ * locks, which many readers of its blocks hold together and a writer
+ * holds alone. A transfer of several blocks takes the locks of all
+ * their groups, always in ascending order. The free i-nodes, the free
+ * blocks, the block references and the parameters in block 0 are
+ * guarded by a single lock of their own, which is never taken while
+ * holding the lock of a group; single free blocks are handed out
+ * without it, from chunks kept by each thread (see 
+ * ChunkedBlockAllocator). The disk file is accessed with 
+ * positional transfers, so threads never share a file pointer.
+ */
 public class DiskUnit {
 	private static final int 
 	DEFAULT_CAPACITY = 256;								//default number of blocks
 	private static final int 
 	DEFAULT_BLOCK_SIZE = 32;							//default number of bytes per block	
 
+	/** Free-space format where free blocks are kept in a tree of free block directories. **/
+	public static final int FREE_BLOCK_TREE = 0;
+	/** Free-space format where free blocks are kept in a bitmap in the reserved area. **/
+	public static final int FREE_BLOCK_BITMAP = 1;
+	private static final int 
+	DEFAULT_FREE_SPACE_FORMAT = FREE_BLOCK_BITMAP;		//free-space format of new disks
+	/** Number of blocks cached by a disk mounted without giving the size of its cache. **/
+	public static final int DEFAULT_CACHE_BLOCKS = 256;
+	private static final int 
+	DEFAULT_DIRTY_THRESHOLD = 1 << 20;					//bytes of dirty blocks that make a write-back disk flush
+	/** I-node format where the blocks of a file are chained through their last four bytes. **/
+	public static final int INODE_CHAINED = 0;
+	/** I-node format where the i-node holds the runs of blocks of the file (see ExtentINode). **/
+	public static final int INODE_EXTENTS = 1;
+	/** Directory format where the entries follow one another, as the content of a file. **/
+	public static final int DIRECTORY_LINEAR = 0;
+	/** Directory format where the entries are placed in buckets by a hash of their names. **/
+	public static final int DIRECTORY_HASHED = 1;
+	private static final int 
+	DEFAULT_DIRECTORY_FORMAT = DIRECTORY_HASHED;		//directory format of new disks
+	static final int 
+	FEATURE_BLOCK_REFERENCES = 1;						//flag of disks with a table of block references
+	static final int 
+	FEATURE_HIGH_WATER_MARKS = 2;						//flag of disks created sparse, with bytes 32 to 39
+	/** Smallest block size of a sparse disk, whose block 0 also holds its high-water marks. **/
+	public static final int MIN_SPARSE_BLOCK_SIZE = 64;
+	static final int 
+	MIN_CHECKPOINT_BLOCK_SIZE = 64;						//smallest block size whose block 0 holds bytes 40 to 55
+	private static final int 
+	LOCK_STRIPES = 64;									//locks shared by the groups of blocks, a power of 2
+	private static final int 
+	GROUP_SHIFT = 6;									//groups of 64 adjacent blocks have the same lock
+
 	private int capacity;								//number of blocks of current disk instance
 	private int blockSize;								//size of each block of current disk instance
-	private RandomAccessFile disk;						//disk instance
-	private static LLQueue<INode> freeINodesList;		//list that will manage the free i-nodes of the disk
-	private static LLQueue<INode> takenINodesList;		//list that will manage the taken i-nodes of the disk
-	private static int firstFreeBlock;					//the first free block of the disk
-	private static int firstFreeBlockIndex;				//the first index of the first free block
-	private static int firstFreeINodeIndex;				//pointer to the first free i-node
-	private static int numberOfINodes;					//total number of i-nodes
+	private DiskStorage disk;							//disk instance
+	private IntStack freeINodes;						//positions of the free i-nodes, first free on top
+	private ChunkedBlockAllocator allocator;				//manages the free data blocks of the disk
+	private BlockReferences references;					//references to shared blocks, null if not kept
+	private int iNodeFormat;							//either INODE_CHAINED or INODE_EXTENTS
+	private int directoryFormat;						//either DIRECTORY_LINEAR or DIRECTORY_HASHED
+	private int firstFreeINodeIndex;					//pointer to the first free i-node
+	private int numberOfINodes;							//total number of i-nodes
+	private int iNodeHighWaterMark;						//number of the first i-node never handed out
+	private boolean sparse;								//true if block 0 holds the high-water marks
+	private int generation;								//times the disk has been mounted, if checkpointed
+	private boolean checkpointed;						//true if mounted from a checkpoint
+	private BlockCache cache;							//copies of recently used blocks, null if disabled
+	private boolean writeBack;							//true if writes stay in the cache until flushed
+	private AtomicLong readAheadHits;					//blocks of files found already fetched
+	private AtomicLong readAheadMisses;					//blocks of files that had to be fetched
+	private volatile int readAheadWindow;				//blocks brought by the latest fetch ahead
+	private ReentrantReadWriteLock[] blockLocks;		//lock of each stripe of groups of blocks
+	private Object metadata;							//lock of the free space and i-node structures
 
 
 	// the constructor -- PRIVATE
 	/**
 	 * @param name is the name of the disk
+	 * @param mapped true if the disk file is to be memory-mapped; if
+	 * mapping fails, or the mapping couldn't be released at unmount (see
+	 * MappedDiskStorage.canUnmap()), the disk falls back to plain 
+	 * RandomAccessFile access.
 	 */
-	private DiskUnit(String name){
+	private DiskUnit(String name, boolean mapped){
+		RandomAccessFile file = null;
 		try{
-			disk = new RandomAccessFile(name, "rw");
+			file = new RandomAccessFile(name, "rw");
 		} catch (IOException e){
 			System.err.println("Unable to start the disk");
 			System.exit(1);
 		}
+		disk = null;
+		if(mapped && !MappedDiskStorage.canUnmap())
+			System.err.println("Unable to unmap disks in this Java runtime, using RandomAccessFile instead");
+		else if(mapped){
+			try{
+				disk = new MappedDiskStorage(file);
+			} catch (IOException e){
+				System.err.println("Unable to map the disk, using RandomAccessFile instead");
+			}
+		}
+		if(disk == null)
+			disk = new RAFDiskStorage(file);
+		readAheadHits = new AtomicLong();
+		readAheadMisses = new AtomicLong();
+		blockLocks = new ReentrantReadWriteLock[LOCK_STRIPES];
+		for(int i = 0; i < LOCK_STRIPES; i++)
+			blockLocks[i] = new ReentrantReadWriteLock();
+		metadata = new Object();
+	}
+
+	/**
+	 * Takes the locks of the groups of count blocks starting at
+	 * firstBlock, in ascending order of stripe.
+	 * @param exclusive true to take them for writing, false for reading
+	 * @return the locks taken, to be released with unlock()
+	 */
+	private Lock[] lockBlocks(int firstBlock, int count, boolean exclusive){
+		int firstGroup = firstBlock >>> GROUP_SHIFT;
+		int groups = Math.min(LOCK_STRIPES, 
+				((firstBlock + Math.max(count, 1) - 1) >>> GROUP_SHIFT) - firstGroup + 1);
+		Lock[] locks = new Lock[groups];
+		int n = 0;
+		for(int stripe = 0; stripe < LOCK_STRIPES; stripe++)
+			if(((stripe - firstGroup) & (LOCK_STRIPES - 1)) < groups){
+				locks[n] = exclusive ? blockLocks[stripe].writeLock() : blockLocks[stripe].readLock();
+				locks[n++].lock();
+			}
+		return locks;
+	}
+
+	private static void unlock(Lock[] locks){
+		for(int i = locks.length - 1; i >= 0; i--)
+			locks[i].unlock();
 	}
 
 	/**
@@ -60,12 +174,20 @@ public class DiskUnit {
 		else if(b.getCapacity() != this.getBlockSize())
 			throw new InvalidBlockException("Invalid block: does not match disk.");
 		else{
+			Lock[] locks = lockBlocks(blockNum, 1, true);
 			try {
-				disk.seek(blockNum * b.getCapacity());				//the file-pointer is set to blockNum
-				for(int i = 0; i < b.getCapacity(); i++)
-					disk.write(b.getElement(i));					//write the byte array of b into the block of the RAF
+				if(writeBack)
+					cache.putDirty(blockNum, b.getArray(), 0);
+				else{
+					//the whole block is copied in one transfer
+					disk.write((long) blockNum * blockSize, b.getArray(), 0, blockSize);
+					if(cache != null)
+						cache.put(blockNum, b.getArray(), 0);
+				}
 			} catch (IOException e) {			
 				e.printStackTrace();
+			} finally {
+				unlock(locks);
 			}
 		}
 	}
@@ -88,16 +210,166 @@ public class DiskUnit {
 		else if(b.getCapacity() != this.getBlockSize())
 			throw new InvalidBlockException("Invalid block: does not match disk.");
 		else{
+			Lock[] locks = lockBlocks(blockNum, 1, false);
 			try {
-				disk.seek(blockNum * b.getCapacity());
-				for(int i = 0; i < b.getCapacity(); i++)
-					b.setElement(i, disk.readByte());
+				if(cache != null && cache.read(blockNum, 0, b.getArray(), 0, blockSize))
+					return;
+				disk.read((long) blockNum * blockSize, b.getArray(), 0, blockSize);
+				if(cache != null)
+					cache.put(blockNum, b.getArray(), 0);
 			} catch (IOException e) {
 				e.printStackTrace();
+			} finally {
+				unlock(locks);
 			}
 		}		
 	}
 
+	/**
+	 * Reads count contiguous blocks, starting at firstBlock, into dst
+	 * with a single transfer. The blocks are placed one after the other
+	 * from the current position of dst, which is advanced past them.
+	 * Blocks found in the cache are copied from it, and each run of
+	 * blocks between them is read with one transfer; the blocks read
+	 * this way are not added to the cache, so that reading a large file
+	 * doesn't push out the blocks that are used over and over.
+	 * @param firstBlock the number of the first block to read.
+	 * @param count the number of blocks to read.
+	 * @param dst the buffer that receives the blocks.
+	 * @throws InvalidBlockNumberException whenever the range of blocks
+	 * is not valid for the current disk instance.
+	 * @throws InvalidBlockException whenever dst doesn't have room
+	 * for count blocks.
+	 */
+	public void readBlocks(int firstBlock, int count, ByteBuffer dst) 
+			throws InvalidBlockNumberException, InvalidBlockException{
+		if(firstBlock < 0 || count < 0 || firstBlock + count > capacity)
+			throw new InvalidBlockNumberException("Invalid block range: " + firstBlock + 
+					" to " + (firstBlock + count - 1));
+		if(dst == null || dst.remaining() < count * blockSize)
+			throw new InvalidBlockException("Invalid buffer: can't hold " + count + " blocks.");
+		Lock[] locks = lockBlocks(firstBlock, count, false);
+		try {
+			if(cache == null || !dst.hasArray()){
+				// the cache can't copy into dst, so the disk must be up to date
+				if(writeBack)
+					cache.flush();
+				readRun(firstBlock, count, dst);
+				return;
+			}
+			byte[] array = dst.array();
+			int runStart = firstBlock;									//first block not found in the cache
+			for(int bn = firstBlock; bn < firstBlock + count; bn++){
+				int offset = dst.arrayOffset() + dst.position() + (bn - runStart) * blockSize;
+				if(cache.read(bn, 0, array, offset, blockSize)){
+					readRun(runStart, bn - runStart, dst);
+					dst.position(dst.position() + blockSize);
+					runStart = bn + 1;
+				}
+			}
+			readRun(runStart, firstBlock + count - runStart, dst);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			unlock(locks);
+		}
+	}
+
+	/**
+	 * Reads count contiguous blocks from the disk into dst, bypassing the cache.
+	 */
+	private void readRun(int firstBlock, int count, ByteBuffer dst){
+		if(count == 0)
+			return;
+		ByteBuffer run = dst.duplicate();
+		run.limit(run.position() + count * blockSize);
+		try {
+			disk.read((long) firstBlock * blockSize, run);
+			dst.position(run.position());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes count contiguous blocks, starting at firstBlock, from src
+	 * with a single transfer. The blocks are taken one after the other
+	 * from the current position of src, which is advanced past them.
+	 * @param firstBlock the number of the first block to overwrite.
+	 * @param count the number of blocks to write.
+	 * @param src the buffer that holds the blocks.
+	 * @throws InvalidBlockNumberException whenever the range of blocks
+	 * is not valid for the current disk instance.
+	 * @throws InvalidBlockException whenever src doesn't hold
+	 * count blocks.
+	 */
+	public void writeBlocks(int firstBlock, int count, ByteBuffer src) 
+			throws InvalidBlockNumberException, InvalidBlockException{
+		if(firstBlock <= 0 || count < 0 || firstBlock + count > capacity)
+			throw new InvalidBlockNumberException("Invalid block range: " + firstBlock + 
+					" to " + (firstBlock + count - 1));
+		if(src == null || src.remaining() < count * blockSize)
+			throw new InvalidBlockException("Invalid buffer: doesn't hold " + count + " blocks.");
+		ByteBuffer run = src.duplicate();
+		run.limit(run.position() + count * blockSize);
+		Lock[] locks = lockBlocks(firstBlock, count, true);
+		try {
+			disk.write((long) firstBlock * blockSize, run);
+			// the copies of the overwritten blocks must not go stale
+			if(cache != null)
+				for(int i = 0; i < count; i++){
+					if(src.hasArray())
+						cache.update(firstBlock + i, 0, src.array(), 
+								src.arrayOffset() + src.position() + i * blockSize, blockSize);
+					else
+						cache.invalidate(firstBlock + i);
+				}
+			src.position(run.position());
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			unlock(locks);
+		}
+	}
+
+	/**
+	 * Fills count contiguous blocks, starting at firstBlock, with the
+	 * bytes read from src, which go to the disk file without being 
+	 * copied to an array on the way when the storage allows it. If src
+	 * ends first, the rest of the blocks is filled with zeroes.
+	 * @param src the channel the content of the blocks is read from
+	 * @param firstBlock the number of the first block to overwrite.
+	 * @param count the number of blocks to fill.
+	 * @return the number of bytes read from src.
+	 * @throws InvalidBlockNumberException whenever the range of blocks
+	 * is not valid for the current disk instance.
+	 * @throws IOException whenever src can't be read.
+	 */
+	public long importBlocks(ReadableByteChannel src, int firstBlock, int count) 
+			throws InvalidBlockNumberException, IOException{
+		if(firstBlock <= 0 || count < 0 || firstBlock + count > capacity)
+			throw new InvalidBlockNumberException("Invalid block range: " + firstBlock + 
+					" to " + (firstBlock + count - 1));
+		long position = (long) firstBlock * blockSize;
+		long length = (long) count * blockSize;
+		Lock[] locks = lockBlocks(firstBlock, count, true);
+		try {
+			long done = disk.transferFrom(src, position, length);
+			if(done < length){
+				byte[] zeroes = new byte[(int) Math.min(length - done, 65536)];
+				for(long p = done; p < length; p += zeroes.length)
+					disk.write(position + p, zeroes, 0, (int) Math.min(zeroes.length, length - p));
+			}
+			// the blocks were written around the cache
+			if(cache != null)
+				for(int bn = firstBlock; bn < firstBlock + count; bn++)
+					cache.invalidate(bn);
+			return done;
+		} finally {
+			unlock(locks);
+		}
+	}
+
 	/**
 	 * Returns a nonnegative integer value corresponding to
 	 * the number of valid blocks (unused + used) that 
@@ -118,22 +390,114 @@ public class DiskUnit {
 		return blockSize;
 	}
 
+	/**
+	 * Returns a description of the storage backend that
+	 * serves the reads and writes of the current disk instance.
+	 * @return the name of the backend
+	 */
+	public String getStorageType(){
+		return disk.getType();
+	}
+
+	/**
+	 * Returns the cache of blocks of the current disk instance.
+	 * @return the cache, or null if the disk was mounted without one.
+	 */
+	public BlockCache getCache(){
+		return cache;
+	}
+
+	/**
+	 * Records a block of a file asked to a ReadAhead.
+	 * @param hit true if the block had been fetched already
+	 * @param window the current window of the reader
+	 */
+	void countReadAhead(boolean hit, int window){
+		if(hit)
+			readAheadHits.incrementAndGet();
+		else
+			readAheadMisses.incrementAndGet();
+		readAheadWindow = window;
+	}
+
+	/**
+	 * Returns the number of blocks of files, read in order, that were
+	 * found already fetched.
+	 * @return the number of read-ahead hits
+	 */
+	public long getReadAheadHits(){
+		return readAheadHits.get();
+	}
+
+	/**
+	 * Returns the number of blocks of files, read in order, that had
+	 * to be fetched from the disk.
+	 * @return the number of read-ahead misses
+	 */
+	public long getReadAheadMisses(){
+		return readAheadMisses.get();
+	}
+
+	/**
+	 * Returns the number of blocks brought by the latest fetch ahead.
+	 * @return the current read-ahead window
+	 */
+	public int getReadAheadWindow(){
+		return readAheadWindow;
+	}
+
+	/**
+	 * Returns true if the blocks written to the current disk instance
+	 * stay in its cache until they are flushed, false if they are 
+	 * written to the disk right away.
+	 * @return true if in write-back mode
+	 */
+	public boolean isWriteBack(){
+		return writeBack;
+	}
+
+	/**
+	 * Sets how many bytes of dirty blocks make the cache write them all
+	 * back. It is rounded to whole blocks, and can't exceed the cache.
+	 * @param bytes the threshold
+	 */
+	public void setDirtyThreshold(int bytes){
+		if(cache != null)
+			cache.setDirtyLimit(bytes / blockSize);
+	}
+
 	/**Returns a nonnegative integer value which corresponds to
 	 * the first block in the collection of free data blocks 
 	 * in the current disk instance. 
 	 * @return the first free block
 	 */
 	public int getFirstFreeBlock(){
-		return firstFreeBlock;
+		synchronized(metadata){
+			return allocator.getFirstFreeBlock();
+		}
 	}
 
 	/**
 	 * Returns a nonnegative integer value which corresponds to
 	 * the index of the first free block in the current disk instance.
+	 * Only the free block tree format has such index; it is 0 otherwise.
 	 * @return the index of the first free block
 	 */
 	public int getFirstFreeBlockIndex(){
-		return firstFreeBlockIndex;
+		synchronized(metadata){
+			if(allocator.getBase() instanceof FreeBlockTreeAllocator)
+				return ((FreeBlockTreeAllocator) allocator.getBase()).getFirstFreeBlockIndex();
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns the name of the free-space format used by the current 
+	 * disk instance.
+	 * @return the name of the format
+	 */
+	public String getFreeSpaceFormat(){
+		return allocator.getFormatName();
 	}
 
 	/**
@@ -143,7 +507,9 @@ public class DiskUnit {
 	 * @return the first free i-node
 	 */
 	public int getFirstFreeINodeIndex(){
-		return firstFreeINodeIndex;
+		synchronized(metadata){
+			return firstFreeINodeIndex;
+		}
 	}	
 
 	/**
@@ -152,122 +518,464 @@ public class DiskUnit {
 	 * @return the number of i-nodes
 	 */
 	public int getNumOfINodes(){
-		numberOfINodes = freeINodesList.size() + takenINodesList.size();
 		return numberOfINodes;
 	}	
 
+	/**
+	 * Returns a nonnegative integer value which corresponds to
+	 * the number of free i-nodes in the current disk instance.
+	 * @return the number of free i-nodes
+	 */
+	public int getNumOfFreeINodes(){
+		synchronized(metadata){
+			return freeINodes.size() + numberOfINodes - iNodeHighWaterMark;
+		}
+	}
+
+	/**
+	 * Tells whether the disk was created sparse, so that the blocks and
+	 * i-nodes above its high-water marks have never been used.
+	 * @return true if the disk is sparse, false otherwise.
+	 */
+	public boolean isSparse(){
+		return sparse;
+	}
+
+	/**
+	 * Returns the number of the first i-node that has never been handed
+	 * out; it and every i-node after it are free without being in the 
+	 * list of free i-nodes.
+	 * @return the high-water mark of the i-nodes, the number of i-nodes
+	 * if every one has been handed out
+	 */
+	public int getINodeHighWaterMark(){
+		synchronized(metadata){
+			return iNodeHighWaterMark;
+		}
+	}
+
+	/**
+	 * Returns the first block that the free block tree has never handed
+	 * out; it and every block after it are free without being in the
+	 * tree. Only the free block tree format has such mark.
+	 * @return the high-water mark of the blocks, the capacity of the
+	 * disk if every block has been handed out or the disk uses another
+	 * format
+	 */
+	public int getBlockHighWaterMark(){
+		synchronized(metadata){
+			if(sparse && allocator.getBase() instanceof FreeBlockTreeAllocator)
+				return ((FreeBlockTreeAllocator) allocator.getBase()).getHighWaterMark();
+			return capacity;
+		}
+	}
+
+	/**
+	 * Returns true if the free i-nodes and blocks of the disk were taken
+	 * from the checkpoint written when it was last shut down, instead of
+	 * being read from the i-nodes and the bitmap (see Checkpoint).
+	 * @return true if mounted from a checkpoint
+	 */
+	public boolean isMountedFromCheckpoint(){
+		return checkpointed;
+	}
+
 	/**
 	 * Returns the first free i-node index in the list of free i-nodes for file
 	 * or directory assignment. Next free i-node becomes the first free i-node.
+	 * Once the list is empty, the i-nodes above the high-water mark are
+	 * handed out; their content is undefined until written.
 	 * @return the first free i-node in the list of free i-nodes
-	 * @throws FullDiskException if pointer to next free i-node is 0.
+	 * @throws FullDiskException if there are no free i-nodes left.
 	 */
 	public int getFreeINode() throws FullDiskException{
-		if(firstFreeINodeIndex == 0)
-			throw new FullDiskException("Disk is full");
-		int freeNodeToReturn = firstFreeINodeIndex;						//get the first free i-node index to return from free i-nodes list
-		firstFreeINodeIndex = freeINodesList.front().getFirstBlock();	//next i-node in line is first free i-node
-		takenINodesList.enqueue(freeINodesList.front());			//add i-node to the list of i-nodes for files and directories
-		freeINodesList.dequeue();									//remove last first free i-node from list of free i-nodes
+		synchronized(metadata){
+			if(freeINodes.isEmpty()){
+				if(iNodeHighWaterMark < numberOfINodes)
+					return iNodePosition(iNodeHighWaterMark++, blockSize, getINodeSize());
+				throw new FullDiskException("Disk is full");
+			}
+			int freeNodeToReturn = freeINodes.pop();						//get the first free i-node index to return from free i-nodes list
+			firstFreeINodeIndex = freeINodes.isEmpty() ? 0 : freeINodes.top();	//next i-node in line is first free i-node
+
+			return freeNodeToReturn;
+		}
+	}
 
-		return freeNodeToReturn;
+	/**
+	 * Returns an i-node that is no longer used to the list of free
+	 * i-nodes, where it becomes the first free i-node.
+	 * @param iNodeIndex the position of the i-node
+	 * @throws InvalidParameterException whenever iNodeIndex is not in
+	 * the i-node area of the disk.
+	 */
+	public void registerFreeINode(int iNodeIndex) throws InvalidParameterException{
+		synchronized(metadata){
+			writeINode(iNodeIndex, newINode(firstFreeINodeIndex, iNodeFormat));	//points to the old first free i-node
+			freeINodes.push(iNodeIndex);
+			firstFreeINodeIndex = iNodeIndex;
+		}
+	}
+
+	/**
+	 * Returns the position of the i-node of the root directory.
+	 * @return the root i-node
+	 */
+	public int getRootINode(){
+		return iNodePosition(0, blockSize, getINodeSize());
+	}
+
+	/**
+	 * Returns the format of the i-nodes of the current disk instance.
+	 * @return either INODE_CHAINED or INODE_EXTENTS
+	 */
+	public int getINodeFormat(){
+		return iNodeFormat;
+	}
+
+	/**
+	 * Returns the format of the directories of the current disk instance.
+	 * @return either DIRECTORY_LINEAR or DIRECTORY_HASHED
+	 */
+	public int getDirectoryFormat(){
+		return directoryFormat;
+	}
+
+	/**
+	 * Returns the number of bytes of each i-node of the current disk instance.
+	 * @return the size of an i-node
+	 */
+	public int getINodeSize(){
+		return iNodeSize(iNodeFormat);
+	}
+
+	static int iNodeSize(int iNodeFormat){
+		return iNodeFormat == INODE_EXTENTS ? ExtentINode.EXTENT_INODE_SIZE : INode.INODE_SIZE;
+	}
+
+	/**
+	 * Reads the i-node at the given position of the disk.
+	 * @param iNodeIndex the position of the i-node, as returned by 
+	 * getFreeINode() or getRootINode().
+	 * @return the i-node
+	 * @throws InvalidParameterException whenever iNodeIndex is not in
+	 * the i-node area of the disk.
+	 */
+	public INode readINode(int iNodeIndex) throws InvalidParameterException{
+		checkINodeIndex(iNodeIndex);
+		byte[] data = new byte[getINodeSize()];
+		int bn = iNodeIndex / blockSize;
+		int offset = iNodeIndex % blockSize;
+		Lock[] locks = lockBlocks(bn, 1, false);
+		try {
+			if(cache == null)
+				disk.read(iNodeIndex, data, 0, data.length);
+			else if(!cache.read(bn, offset, data, 0, data.length)){
+				//the block of the i-node is cached, since its neighbors are likely to be read too
+				byte[] block = new byte[blockSize];
+				disk.read((long) bn * blockSize, block, 0, blockSize);
+				cache.put(bn, block, 0);
+				System.arraycopy(block, offset, data, 0, data.length);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			unlock(locks);
+		}
+		if(iNodeFormat == INODE_EXTENTS)
+			return new ExtentINode(data);
+		return new INode(data);
+	}
+
+	/**
+	 * Writes node on the i-node at the given position of the disk.
+	 * @param iNodeIndex the position of the i-node, as returned by 
+	 * getFreeINode() or getRootINode().
+	 * @param node the new content of the i-node; it must be an ExtentINode
+	 * if the disk uses the INODE_EXTENTS format.
+	 * @throws InvalidParameterException whenever iNodeIndex is not in
+	 * the i-node area of the disk, or node is not of the disk's format.
+	 */
+	public void writeINode(int iNodeIndex, INode node) throws InvalidParameterException{
+		checkINodeIndex(iNodeIndex);
+		if(node.getArray().length != getINodeSize())
+			throw new InvalidParameterException("Invalid i-node: does not match disk.");
+		int bn = iNodeIndex / blockSize;
+		int offset = iNodeIndex % blockSize;
+		Lock[] locks = lockBlocks(bn, 1, true);
+		try {
+			if(cache != null)
+				cache.update(bn, offset, node.getArray(), 0, getINodeSize());
+			if(!writeBack)
+				disk.write(iNodeIndex, node.getArray(), 0, getINodeSize());
+			else if(!cache.markDirty(bn)){
+				//the rest of the block has to come from the disk
+				byte[] block = new byte[blockSize];
+				disk.read((long) bn * blockSize, block, 0, blockSize);
+				System.arraycopy(node.getArray(), 0, block, offset, getINodeSize());
+				cache.putDirty(bn, block, 0);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			unlock(locks);
+		}
+	}
+
+	private void checkINodeIndex(int iNodeIndex){
+		if(!isValidINode(iNodeIndex))
+			throw new InvalidParameterException("Invalid i-node: " + iNodeIndex);
+	}
+
+	/**
+	 * Returns true if there is an i-node at the given position of the disk.
+	 * @param iNodeIndex the position to check
+	 * @return true if valid, false otherwise.
+	 */
+	private boolean isValidINode(int iNodeIndex){
+		int blocksToReserve = (int) Math.floor(capacity * 0.01);
+		int iNodesPerBlock = blockSize / getINodeSize();
+		int offset = iNodeIndex % blockSize;
+		return iNodeIndex >= blockSize && iNodeIndex < (blocksToReserve + 1) * blockSize 
+				&& offset % getINodeSize() == 0 && offset / getINodeSize() < iNodesPerBlock;
 	}
 
 	/**
 	 * Returns the reference to the most recent free block in the disk.
-	 * @param disk the disk from where the free block will be returned
-	 * @param blockSize the size of the blocks in the disk
 	 * @return the reference to the first 4 bytes of the free block
 	 */
-	public int getFreeBlockNumber(RandomAccessFile disk, int blockSize){
-		int bn;
-		if(firstFreeBlock == 0)
-			throw new FullDiskException("Disk is full");
+	public int getFreeBlockNumber() throws FullDiskException{
+		return allocator.allocate();
+	}
 
-		//disk has space
-		if(firstFreeBlockIndex != 0){
-			bn = firstFreeBlock;
-			firstFreeBlockIndex--;
+	/**
+	 * Takes a run of adjacent free blocks of the disk, so that large
+	 * files can be stored contiguously. The run may be shorter than
+	 * desired if there is no run that long; the rest of the blocks
+	 * should be asked for again.
+	 * @param desiredBlocks the number of blocks wanted, at least 1.
+	 * @return the run of blocks that were taken.
+	 * @throws FullDiskException whenever there are no free blocks left.
+	 */
+	public Extent allocateExtent(int desiredBlocks) throws FullDiskException{
+		synchronized(metadata){
+			return allocator.allocateExtent(desiredBlocks);
 		}
-		else{
-			//free block to return is the root free block
-			bn = firstFreeBlock;			
-			try {
-				disk.seek(firstFreeBlock);
-				firstFreeBlock = disk.readInt();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			firstFreeBlockIndex = (blockSize/4) - 1;
+	}
+
+	/**
+	 * Returns block bn to the collection of free blocks of the disk,
+	 * unless it is shared: then one of its references is dropped and 
+	 * the block stays in use.
+	 * @param bn the number of the block that is no longer used
+	 */
+	public void registerFreeBlock(int bn){
+		synchronized(metadata){
+			if(references != null && references.release(bn))
+				return;
+			allocator.free(bn);
+			// the allocator may write in the block without going through the cache
+			if(cache != null)
+				cache.invalidate(bn);
 		}
-		return bn;
 	}
 
 	/**
-	 * Formats the disk. This operation visits every physical block
-	 * in the disk and fills with zeroes all those that are valid.
+	 * Tells whether the disk keeps count of the references to its blocks,
+	 * so that they can be shared by several files.
+	 * @return true if blocks can be shared, false otherwise.
 	 */
-	public void lowLevelFormat(){
-		try {
-			disk.seek(blockSize);
-			for(int i = blockSize; i < capacity; i++)
-				disk.writeByte(0);
+	public boolean hasBlockReferences(){
+		return references != null;
+	}
 
-		} catch (IOException e1) {
-			e1.printStackTrace();
+	/**
+	 * Adds a reference to every block of the given runs, which are in
+	 * use, so that it takes one more registerFreeBlock() to free each
+	 * of them. Either all of them get the reference or none does.
+	 * @param extents the runs of blocks
+	 * @return true if the references were added, false if the disk 
+	 * doesn't share blocks or some block has as many references as it can.
+	 */
+	public boolean shareBlocks(List<Extent> extents){
+		synchronized(metadata){
+			if(references == null)
+				return false;
+			for(int i = 0; i < extents.size(); i++)
+				if(!references.share(extents.get(i).getStart(), extents.get(i).getLength())){
+					for(int j = 0; j < i; j++)
+						for(int bn = extents.get(j).getStart(); bn < extents.get(j).getEnd(); bn++)
+							references.release(bn);
+					return false;
+				}
+			return true;
 		}
 	}
 
-	/** Simulates shutting-off the disk. Just closes the corresponding RAF. **/
-	public void shutdown(){
-		try{
-			disk.close();
-		} catch(IOException e){
-			e.printStackTrace();
+	/**
+	 * Tells whether block bn has more than one reference.
+	 * @param bn the number of the block
+	 * @return true if the block is shared, false otherwise.
+	 */
+	public boolean isShared(int bn){
+		synchronized(metadata){
+			return references != null && references.isShared(bn);
 		}
 	}
 
 	/**
-	 * Writes a free block into the tree-like structure
-	 * of free blocks in the disk.
-	 * @param disk the disk that will register the blocks
-	 * @param bn the reference for the block to register
-	 * @param blockSize the size of each block in the disk
+	 * Returns the number of blocks that have more than one reference.
+	 * @return the number of shared blocks, 0 if the disk doesn't share blocks.
+	 */
+	public int getSharedBlocks(){
+		synchronized(metadata){
+			return references == null ? 0 : references.getSharedBlocks();
+		}
+	}
+
+	/**
+	 * Formats the disk. This operation visits every physical block
+	 * in the disk and fills with zeroes all those that are valid.
+	 */
+	public void lowLevelFormat(){
+		lowLevelFormat(false, null);
+	}
+
+	/**
+	 * Formats the disk as lowLevelFormat() does, through a DiskFormatter,
+	 * with the disk to itself while doing it.
+	 * @param holes true to turn the blocks into a hole of the file instead
+	 * of writing them, if its storage allows it
+	 * @param progress told how far the formatting has gone, may be null
 	 */
-	public static void registerFreeBlock(RandomAccessFile disk, int bn, int blockSize) {		
-		//case where bn is the first free block in the disk
-		if(firstFreeBlock == 0){		
-			firstFreeBlock = bn;			
+	public void lowLevelFormat(boolean holes, FormatProgress progress){
+		synchronized(metadata){
+			Lock[] locks = lockBlocks(0, capacity, true);
 			try {
-				disk.seek(firstFreeBlock);
-				disk.writeInt(0);
+				if(cache != null)
+					cache.clear();
+				new DiskFormatter(disk).setHoles(holes).setProgress(progress)
+				.format(blockSize, (long) capacity * blockSize);
 			} catch (IOException e) {
 				e.printStackTrace();
+			} finally {
+				unlock(locks);
 			}
-			firstFreeBlockIndex = 0;
 		}
-		//case where the current root free block directory is full
-		else if(firstFreeBlockIndex == (blockSize/4) - 1){
-			try {
-				//writes reference to root free block directory on the bn-th free block
-				disk.seek(bn);
-				disk.writeInt(firstFreeBlock);
-			} catch (IOException e) {
+	}
+
+	/**
+	 * Writes to the disk everything that is only in memory: the dirty
+	 * blocks of the cache, the changes to the free-space structures
+	 * and the parameters in block 0 that change as the disk is used.
+	 */
+	public void sync(){
+		synchronized(metadata){
+			try{
+				if(cache != null)
+					cache.flush();
+				allocator.flush();
+				if(references != null)
+					references.flush();
+				disk.writeInt(8, allocator.getFirstFreeBlock());		// bytes 8 to 11
+				disk.writeInt(12, getFirstFreeBlockIndex());			// bytes 12 to 15
+				disk.writeInt(16, firstFreeINodeIndex);				// bytes 16 to 19
+				if(sparse){
+					disk.writeInt(32, getBlockHighWaterMark());		// bytes 32 to 35
+					disk.writeInt(36, iNodeHighWaterMark);			// bytes 36 to 39
+				}
+			} catch(IOException e){
 				e.printStackTrace();
 			}
-			firstFreeBlockIndex = 0;			
 		}
-		else{
-			firstFreeBlockIndex++;
-			try {
-				disk.seek(firstFreeBlockIndex);
-				disk.writeInt(bn);
-			} catch (IOException e) {
+	}
+
+	/**
+	 * Simulates shutting-off the disk. Writes what is pending and closes the corresponding file.
+	 * If blocks are at least MIN_CHECKPOINT_BLOCK_SIZE bytes, a checkpoint of the free i-nodes 
+	 * and blocks is left for the next mount, which then needs not read them from the disk.
+	 */
+	public void shutdown(){
+		synchronized(metadata){
+			int[] checkpointBlocks = writeCheckpoint();
+			sync();
+			try{
+				// block 0 points to the checkpoint only once it is whole; the
+				// number and checksum of its blocks let a mount that rejects
+				// the record still give them back
+				if(blockSize >= MIN_CHECKPOINT_BLOCK_SIZE){
+					disk.writeInt(48, checkpointBlocks.length);	// bytes 48 to 51
+					disk.writeInt(52, Checkpoint.blocksChecksum(checkpointBlocks));	// bytes 52 to 55
+					disk.writeInt(44, generation);					// bytes 44 to 47
+					disk.writeInt(40, checkpointBlocks.length == 0 ? 0 : checkpointBlocks[0]);	// bytes 40 to 43
+				}
+				disk.close();
+			} catch(IOException e){
 				e.printStackTrace();
 			}
 		}
 	}
 
+	/**
+	 * Writes a checkpoint of the free i-nodes and blocks to free blocks
+	 * of the disk. The blocks are taken first, so that the checkpoint
+	 * records them as taken; the runs of free blocks of a bitmap are
+	 * kept only while they take less room than the bitmap itself.
+	 * @return the blocks of the checkpoint, in the order they are chained,
+	 * or none if it was not written
+	 */
+	private int[] writeCheckpoint(){
+		if(blockSize < MIN_CHECKPOINT_BLOCK_SIZE)
+			return new int[0];
+		int[] blocks = new int[0];
+		try{
+			if(cache != null)
+				cache.flush();
+			allocator.flush();			// the chunks of the threads are given back
+			int[] iNodes = new int[freeINodes.size()];
+			for(int i = 0; i < iNodes.length; i++)
+				iNodes[i] = iNodeNumber(freeINodes.pop());
+			for(int i = iNodes.length - 1; i >= 0; i--)
+				freeINodes.push(iNodePosition(iNodes[i], blockSize, getINodeSize()));
+
+			// taking blocks may change the runs, and so the blocks needed
+			Checkpoint checkpoint = new Checkpoint(generation, iNodes, freeBlockRuns());
+			while(checkpoint.blocksNeeded(blockSize) > blocks.length){
+				int taken = blocks.length;
+				blocks = Arrays.copyOf(blocks, checkpoint.blocksNeeded(blockSize));
+				while(taken < blocks.length){
+					Extent e = allocator.allocateExtent(blocks.length - taken);
+					for(int bn = e.getStart(); bn < e.getEnd(); bn++)
+						blocks[taken++] = bn;
+				}
+				checkpoint = new Checkpoint(generation, iNodes, freeBlockRuns());
+			}
+			checkpoint.write(disk, blockSize, blocks);
+			return blocks;
+		} catch(FullDiskException e){
+			for(int bn : blocks)
+				if(bn != 0)
+					allocator.free(bn);
+		} catch(IOException e){
+			e.printStackTrace();
+		}
+		return new int[0];
+	}
+
+	/**
+	 * Returns the runs of free blocks to keep in a checkpoint.
+	 * @return the first block and length of each run, or null if the
+	 * free blocks are kept in a tree or the runs are larger than the bitmap
+	 */
+	private int[] freeBlockRuns(){
+		if(!(allocator.getBase() instanceof BitmapAllocator))
+			return null;
+		BitmapAllocator bitmap = (BitmapAllocator) allocator.getBase();
+		if((long) bitmap.getFreeExtents() * 2 * DiskUtils.INTSIZE > bitmap.getBitmapBytes())
+			return null;
+		return bitmap.getFreeRuns();
+	}
+
 	/**
 	 * Turns on an existing disk unit whose name is given. If successful, it makes
 	 * the particular disk unit available for operations suitable for a disk unit.
@@ -277,28 +985,236 @@ public class DiskUnit {
 	 *    disk with the specified name is found.
 	 */
 	public static DiskUnit mount(String name) throws NonExistingDiskException{
+		return mount(name, true, DEFAULT_CACHE_BLOCKS);
+	}
+
+	/**
+	 * Turns on an existing disk unit whose name is given, choosing how its
+	 * file is accessed.
+	 * @param name the name of the disk unit to activate
+	 * @param mapped true to memory-map the disk file, false to access it
+	 * through a RandomAccessFile
+	 * @return the corresponding DiskUnit object
+	 * @throws NonExistingDiskException whenever no
+	 *    disk with the specified name is found.
+	 */
+	public static DiskUnit mount(String name, boolean mapped) throws NonExistingDiskException{
+		return mount(name, mapped, DEFAULT_CACHE_BLOCKS);
+	}
+
+	/**
+	 * Turns on an existing disk unit whose name is given, choosing how its
+	 * file is accessed and how many of its blocks are kept in memory.
+	 * @param name the name of the disk unit to activate
+	 * @param mapped true to memory-map the disk file, false to access it
+	 * through a RandomAccessFile
+	 * @param cacheBlocks the number of blocks the cache of the disk holds;
+	 * 0 to mount the disk without a cache.
+	 * @return the corresponding DiskUnit object
+	 * @throws NonExistingDiskException whenever no
+	 *    disk with the specified name is found.
+	 * @throws InvalidParameterException whenever cacheBlocks is negative.
+	 */
+	public static DiskUnit mount(String name, boolean mapped, int cacheBlocks) 
+			throws NonExistingDiskException, InvalidParameterException{
+		return mount(name, mapped, cacheBlocks, false);
+	}
+
+	/**
+	 * Turns on an existing disk unit whose name is given, choosing how its
+	 * file is accessed, how many of its blocks are kept in memory and
+	 * when the blocks written are sent to the disk.
+	 * @param name the name of the disk unit to activate
+	 * @param mapped true to memory-map the disk file, false to access it
+	 * through a RandomAccessFile
+	 * @param cacheBlocks the number of blocks the cache of the disk holds;
+	 * 0 to mount the disk without a cache.
+	 * @param writeBack true to keep the blocks written in the cache until
+	 * sync(), shutdown() or too many of them are dirty; false to write them 
+	 * to the disk right away. 
+	 * @return the corresponding DiskUnit object
+	 * @throws NonExistingDiskException whenever no
+	 *    disk with the specified name is found.
+	 * @throws InvalidParameterException whenever cacheBlocks is negative,
+	 * or 0 in write-back mode.
+	 */
+	public static DiskUnit mount(String name, boolean mapped, int cacheBlocks, boolean writeBack) 
+			throws NonExistingDiskException, InvalidParameterException{
+		if(cacheBlocks < 0 || writeBack && cacheBlocks == 0)
+			throw new InvalidParameterException("Invalid cache size: " + cacheBlocks);
 		File file = new File("src\\DiskUnits\\" + name);
 		if (!file.exists())
 			throw new NonExistingDiskException("No disk has name : " + name);
 
-		DiskUnit dUnit = new DiskUnit("src\\DiskUnits\\" + name);	
+		DiskUnit dUnit = new DiskUnit("src\\DiskUnits\\" + name, mapped);	
 
 		// get the capacity, block size, and other important data of the disk from the file
 		// representing the disk
 		try {
-			dUnit.disk.seek(0);	
-			dUnit.capacity = dUnit.disk.readInt();			// bytes 0 to 3
-			dUnit.blockSize = dUnit.disk.readInt();			// bytes 4 to 7
-			firstFreeBlock = dUnit.disk.readInt();			// bytes 8 to 11
-			firstFreeBlockIndex = dUnit.disk.readInt();		// bytes 12 to 15
-			firstFreeINodeIndex = dUnit.disk.readInt();			// bytes 16 to 19
-			numberOfINodes = dUnit.disk.readInt();			// bytes 20 to 23			
+			dUnit.capacity = dUnit.disk.readInt(0);			// bytes 0 to 3
+			dUnit.blockSize = dUnit.disk.readInt(4);			// bytes 4 to 7
+			int firstFreeBlock = dUnit.disk.readInt(8);		// bytes 8 to 11
+			int firstFreeBlockIndex = dUnit.disk.readInt(12);	// bytes 12 to 15
+			dUnit.firstFreeINodeIndex = dUnit.disk.readInt(16);	// bytes 16 to 19
+			dUnit.numberOfINodes = dUnit.disk.readInt(20);		// bytes 20 to 23			
+			int formats = dUnit.disk.readInt(24);				// bytes 24 to 27
+			int freeSpaceFormat = formats & 0xFF;				// byte 27
+			dUnit.iNodeFormat = formats >>> 8 & 0xFF;			// byte 26
+			dUnit.directoryFormat = formats >>> 16 & 0xFF;		// byte 25
+			int features = formats >>> 24;						// byte 24
+			int firstBitmapBlock = dUnit.disk.readInt(28);		// bytes 28 to 31
+			dUnit.sparse = (features & FEATURE_HIGH_WATER_MARKS) != 0;
+			int blockHighWaterMark = dUnit.sparse ? dUnit.disk.readInt(32) : dUnit.capacity;	// bytes 32 to 35
+			dUnit.iNodeHighWaterMark = dUnit.sparse ? dUnit.disk.readInt(36) : 	// bytes 36 to 39
+				dUnit.numberOfINodes;
+			if(cacheBlocks > 0){
+				dUnit.cache = new BlockCache(dUnit.disk, Math.min(cacheBlocks, dUnit.capacity), 
+						dUnit.blockSize);
+				// a flush must not be forced by every block that is brought in
+				dUnit.cache.setDirtyLimit(Math.min(DEFAULT_DIRTY_THRESHOLD / dUnit.blockSize, 
+						dUnit.cache.getSlots() / 2));
+			}
+			dUnit.writeBack = writeBack;
+
+			// a checkpoint is used once: it is dropped and the generation
+			// changed before anything else, so a crash leaves it stale
+			Checkpoint checkpoint = null;
+			int[] checkpointBlocks = null;		// blocks to give back, whether the checkpoint is used or not
+			if(dUnit.blockSize >= MIN_CHECKPOINT_BLOCK_SIZE){
+				int firstCheckpointBlock = dUnit.disk.readInt(40);	// bytes 40 to 43
+				dUnit.generation = dUnit.disk.readInt(44);			// bytes 44 to 47
+				if(firstCheckpointBlock != 0){
+					checkpoint = Checkpoint.read(dUnit.disk, dUnit.capacity, dUnit.blockSize, 
+							firstCheckpointBlock, dUnit.generation, dUnit.numberOfINodes);
+					// a record that is not valid may still sit on blocks that
+					// are known, by their number and checksum, to be its own
+					checkpointBlocks = checkpoint != null ? checkpoint.getBlocks() : 
+						Checkpoint.readBlocks(dUnit.disk, dUnit.capacity, dUnit.blockSize, firstCheckpointBlock, 
+								dUnit.disk.readInt(48), dUnit.disk.readInt(52));	// bytes 48 to 55
+				}
+				dUnit.generation++;
+				dUnit.disk.writeInt(40, 0);
+				dUnit.disk.writeInt(48, 0);
+				dUnit.disk.writeInt(52, 0);
+				dUnit.disk.writeInt(44, dUnit.generation);
+			}
+			int[] chain = checkpoint == null ? null : checkpoint.getFreeINodes();
+			if(chain != null){
+				for(int i = 0; i < chain.length; i++)
+					chain[i] = iNodePosition(chain[i], dUnit.blockSize, dUnit.getINodeSize());
+				if(chain.length == 0 ? dUnit.firstFreeINodeIndex != 0 : chain[0] != dUnit.firstFreeINodeIndex)
+					chain = null;
+			}
+			int free = chain == null ? 0 : chain.length;
+			if(chain == null){
+				// the free i-nodes are chained on the disk, each one pointing
+				// to the next; they are stacked so the first one ends on top
+				checkpoint = null;
+				chain = new int[Math.max(0, dUnit.numberOfINodes)];
+				for(int i = dUnit.firstFreeINodeIndex; i != 0 && free < chain.length && dUnit.isValidINode(i); ){
+					chain[free++] = i;
+					i = dUnit.disk.readInt(i);
+				}
+			}
+			dUnit.freeINodes = new IntStack(Math.max(0, dUnit.numberOfINodes));
+			while(free > 0)
+				dUnit.freeINodes.push(chain[--free]);
+
+			if((features & FEATURE_BLOCK_REFERENCES) != 0)
+				dUnit.references = new BlockReferences(dUnit.disk, dUnit.capacity, dUnit.blockSize, 
+						(int) Math.floor(dUnit.capacity * 0.01) + 1);
+
+			// disks created before the bitmap format have 0 in bytes 24 to 31
+			BlockAllocator base;
+			if(freeSpaceFormat == FREE_BLOCK_BITMAP && checkpoint != null && checkpoint.getBlockRuns() != null)
+				base = BitmapAllocator.load(dUnit.disk, dUnit.capacity, 
+						dUnit.blockSize, firstBitmapBlock, firstFreeBlock, checkpoint.getBlockRuns());
+			else if(freeSpaceFormat == FREE_BLOCK_BITMAP)
+				base = new BitmapAllocator(dUnit.disk, dUnit.capacity, 
+						dUnit.blockSize, firstBitmapBlock, firstFreeBlock);
+			else
+				base = new FreeBlockTreeAllocator(dUnit.disk, dUnit.blockSize, 
+						firstFreeBlock, firstFreeBlockIndex, dUnit.capacity, blockHighWaterMark);
+			// the blocks of the checkpoint are free again, even if it was not used
+			if(checkpointBlocks != null){
+				for(int bn : checkpointBlocks)
+					base.free(bn);
+				base.flush();
+			}
+			dUnit.checkpointed = checkpoint != null;
+			// single blocks are handed out to each thread from chunks of its own
+			dUnit.allocator = new ChunkedBlockAllocator(base, dUnit.metadata);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		return dUnit;  	
 	}	
 
+	/**
+	 * Erases every file of an existing disk unit that is not mounted:
+	 * all its blocks but block 0 are filled with zeroes by a DiskFormatter,
+	 * and the disk is set up again as it was created, with the same 
+	 * capacity, block size and formats. A sparse disk is turned back
+	 * into a hole, and so is any other if holes are allowed.
+	 * @param name the name of the disk unit to format
+	 * @param holes true to turn the blocks into a hole of the file
+	 * instead of writing them
+	 * @param progress told how far the formatting has gone, may be null
+	 * @return the number of bytes formatted
+	 * @throws NonExistingDiskException whenever no
+	 *    disk with the specified name is found.
+	 */
+	public static long format(String name, boolean holes, FormatProgress progress) 
+			throws NonExistingDiskException{
+		File file = new File("src\\DiskUnits\\" + name);
+		if (!file.exists())
+			throw new NonExistingDiskException("No disk has name : " + name);
+
+		long bytes = 0;
+		try {
+			RandomAccessFile disk = new RandomAccessFile(file, "rw");
+			DiskStorage storage = new RAFDiskStorage(disk);
+			int capacity = storage.readInt(0);					// bytes 0 to 3
+			int blockSize = storage.readInt(4);					// bytes 4 to 7
+			int formats = storage.readInt(24);					// bytes 24 to 27
+			boolean sparse = (formats >>> 24 & FEATURE_HIGH_WATER_MARKS) != 0;
+			bytes = (long) (capacity - 1) * blockSize;
+			new DiskFormatter(storage).setHoles(holes || sparse).setProgress(progress)
+			.format(blockSize, (long) capacity * blockSize);
+			reserveDiskSpace(disk, capacity, blockSize, formats & 0xFF, formats >>> 8 & 0xFF, 
+					formats >>> 16 & 0xFF, sparse);
+			disk.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Checks an existing disk unit that is not mounted, reading it 
+	 * without changing it (see DiskChecker).
+	 * @param name the name of the disk unit to check
+	 * @return the checker, with the problems found and what was read
+	 * @throws NonExistingDiskException whenever no
+	 *    disk with the specified name is found.
+	 */
+	public static DiskChecker check(String name) throws NonExistingDiskException{
+		File file = new File("src\\DiskUnits\\" + name);
+		if (!file.exists())
+			throw new NonExistingDiskException("No disk has name : " + name);
+
+		DiskChecker checker = null;
+		try {
+			RandomAccessFile disk = new RandomAccessFile(file, "r");
+			checker = new DiskChecker(new RAFDiskStorage(disk));
+			checker.check();
+			disk.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return checker;
+	}
+
 	/***
 	 * Creates a new disk unit with the given name. The disk is formatted
 	 * as having default capacity (number of blocks), each of default
@@ -326,6 +1242,96 @@ public class DiskUnit {
 	 */
 	public static void createDiskUnit(String name, int capacity, int blockSize) 
 			throws ExistingDiskException, InvalidParameterException{
+		createDiskUnit(name, capacity, blockSize, DEFAULT_FREE_SPACE_FORMAT);
+	}
+
+	/**
+	 * Creates a new disk unit with the given name, capacity and block
+	 * size, choosing the format used to keep track of its free blocks.
+	 * The created disk is left as in off mode.
+	 * @param name the name of the file that is to represent the disk.
+	 * @param capacity number of blocks in the new disk
+	 * @param blockSize size per block in the new disk
+	 * @param freeSpaceFormat either FREE_BLOCK_TREE or FREE_BLOCK_BITMAP
+	 * @throws ExistingDiskException whenever the name attempted is
+	 * already in use.
+	 * @throws InvalidParameterException whenever the values for capacity,
+	 *  blockSize or freeSpaceFormat are not valid according to the specifications
+	 */
+	public static void createDiskUnit(String name, int capacity, int blockSize, int freeSpaceFormat) 
+			throws ExistingDiskException, InvalidParameterException{
+		createDiskUnit(name, capacity, blockSize, freeSpaceFormat, INODE_CHAINED);
+	}
+
+	/**
+	 * Creates a new disk unit with the given name, capacity and block
+	 * size, choosing the format used to keep track of its free blocks
+	 * and the format of its i-nodes. Its directories are hashed. The 
+	 * created disk is left as in off mode.
+	 * @param name the name of the file that is to represent the disk.
+	 * @param capacity number of blocks in the new disk
+	 * @param blockSize size per block in the new disk; at least 64 for
+	 *  the INODE_EXTENTS format.
+	 * @param freeSpaceFormat either FREE_BLOCK_TREE or FREE_BLOCK_BITMAP
+	 * @param iNodeFormat either INODE_CHAINED or INODE_EXTENTS
+	 * @throws ExistingDiskException whenever the name attempted is
+	 * already in use.
+	 * @throws InvalidParameterException whenever the values for capacity,
+	 *  blockSize or the formats are not valid according to the specifications
+	 */
+	public static void createDiskUnit(String name, int capacity, int blockSize, int freeSpaceFormat, 
+			int iNodeFormat) throws ExistingDiskException, InvalidParameterException{
+		createDiskUnit(name, capacity, blockSize, freeSpaceFormat, iNodeFormat, DEFAULT_DIRECTORY_FORMAT);
+	}
+
+	/**
+	 * Creates a new disk unit with the given name, capacity and block
+	 * size, choosing the format used to keep track of its free blocks,
+	 * the format of its i-nodes and the format of its directories. The 
+	 * created disk is left as in off mode.
+	 * @param name the name of the file that is to represent the disk.
+	 * @param capacity number of blocks in the new disk
+	 * @param blockSize size per block in the new disk; at least 64 for
+	 *  the INODE_EXTENTS format.
+	 * @param freeSpaceFormat either FREE_BLOCK_TREE or FREE_BLOCK_BITMAP
+	 * @param iNodeFormat either INODE_CHAINED or INODE_EXTENTS
+	 * @param directoryFormat either DIRECTORY_LINEAR or DIRECTORY_HASHED
+	 * @throws ExistingDiskException whenever the name attempted is
+	 * already in use.
+	 * @throws InvalidParameterException whenever the values for capacity,
+	 *  blockSize or the formats are not valid according to the specifications
+	 */
+	public static void createDiskUnit(String name, int capacity, int blockSize, int freeSpaceFormat, 
+			int iNodeFormat, int directoryFormat) throws ExistingDiskException, InvalidParameterException{
+		createDiskUnit(name, capacity, blockSize, freeSpaceFormat, iNodeFormat, directoryFormat, false);
+	}
+
+	/**
+	 * Creates a new disk unit as createDiskUnit(name, capacity, blockSize,
+	 * freeSpaceFormat, iNodeFormat, directoryFormat) does, optionally
+	 * sparse. A sparse disk is created writing only block 0, the root
+	 * directory and the blocks of the bitmap that have taken blocks; the
+	 * rest of its file is left as a hole. Its free i-nodes and, in the
+	 * FREE_BLOCK_TREE format, its free blocks are not registered one by
+	 * one: block 0 keeps a high-water mark for each, above which they
+	 * have never been used, and they are registered only once they are
+	 * freed after being used.
+	 * @param name the name of the file that is to represent the disk.
+	 * @param capacity number of blocks in the new disk
+	 * @param blockSize size per block in the new disk; at least 64 for
+	 *  the INODE_EXTENTS format or a sparse disk.
+	 * @param freeSpaceFormat either FREE_BLOCK_TREE or FREE_BLOCK_BITMAP
+	 * @param iNodeFormat either INODE_CHAINED or INODE_EXTENTS
+	 * @param directoryFormat either DIRECTORY_LINEAR or DIRECTORY_HASHED
+	 * @param sparse true to create the disk sparse
+	 * @throws ExistingDiskException whenever the name attempted is
+	 * already in use.
+	 * @throws InvalidParameterException whenever the values for capacity,
+	 *  blockSize or the formats are not valid according to the specifications
+	 */
+	public static void createDiskUnit(String name, int capacity, int blockSize, int freeSpaceFormat, 
+			int iNodeFormat, int directoryFormat, boolean sparse) 
+					throws ExistingDiskException, InvalidParameterException{
 		File file = new File(name);
 		if (file.exists())
 			throw new ExistingDiskException("Disk name is already used: " + name);
@@ -336,6 +1342,16 @@ public class DiskUnit {
 			throw new InvalidParameterException("Invalid values: " +
 					" capacity = " + capacity + " block size = " +
 					blockSize);
+		if (freeSpaceFormat != FREE_BLOCK_TREE && freeSpaceFormat != FREE_BLOCK_BITMAP)
+			throw new InvalidParameterException("Invalid free-space format: " + freeSpaceFormat);
+		if (iNodeFormat != INODE_CHAINED && iNodeFormat != INODE_EXTENTS || 
+				blockSize < iNodeSize(iNodeFormat))
+			throw new InvalidParameterException("Invalid i-node format: " + iNodeFormat + 
+					" block size = " + blockSize);
+		if (directoryFormat != DIRECTORY_LINEAR && directoryFormat != DIRECTORY_HASHED)
+			throw new InvalidParameterException("Invalid directory format: " + directoryFormat);
+		if (sparse && blockSize < MIN_SPARSE_BLOCK_SIZE)
+			throw new InvalidParameterException("Invalid block size for a sparse disk: " + blockSize);
 
 		// disk parameters are valid... hence create the file to represent the
 		// disk unit.
@@ -347,7 +1363,7 @@ public class DiskUnit {
 			System.exit(1);
 		}
 
-		reserveDiskSpace(disk, capacity, blockSize);
+		reserveDiskSpace(disk, capacity, blockSize, freeSpaceFormat, iNodeFormat, directoryFormat, sparse);
 
 		// after creation, just leave it in shutdown mode - just
 		// close the corresponding file
@@ -363,27 +1379,70 @@ public class DiskUnit {
 	 * @param disk which will have the memory reserved for.
 	 * @param capacity of the whole disk unit
 	 * @param blockSize the size of each disk block
+	 * @param freeSpaceFormat the format used to keep track of free blocks
+	 * @param iNodeFormat the format of the i-nodes
+	 * @param directoryFormat the format of the directories
+	 * @param sparse true to leave the free i-nodes and blocks unregistered,
+	 * under their high-water marks
 	 */
-	private static void reserveDiskSpace(RandomAccessFile disk, int capacity, int blockSize){
+	private static void reserveDiskSpace(RandomAccessFile disk, int capacity, int blockSize, 
+			int freeSpaceFormat, int iNodeFormat, int directoryFormat, boolean sparse){
 		try {
-			disk.setLength(blockSize * capacity);
+			// a sparse disk relies on its file reading as zeroes, even if it existed
+			if(sparse)
+				disk.setLength(0);
+			disk.setLength((long) blockSize * capacity);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		// Initializing list and variables
-		firstFreeBlock = 0;
-		firstFreeINodeIndex = blockSize;		
-		//		// Creating i-node 0 for root directory
-		//		INode node = new INode(0);
-
 		// reserving space and registering i-nodes 
-		reserveINodeSpace(disk, capacity, blockSize);	
+		int numberOfINodes = reserveINodeSpace(disk, capacity, blockSize, iNodeFormat, sparse);	
+		int firstFreeINodeIndex = numberOfINodes > 1 && !sparse ? 
+				iNodePosition(1, blockSize, iNodeSize(iNodeFormat)) : 0;
+		int iNodeHighWaterMark = sparse ? 1 : numberOfINodes;
 
 		int blocksToReserve = (int) Math.floor(capacity * 0.01);
+		// the table of block references, all zeroes, comes right after the i-node blocks
+		blocksToReserve += BlockReferences.tableBlocks(capacity, blockSize);
 
-		// registering free blocks in the disk
-		for(int i = blocksToReserve + 1; i <= capacity - 1; i++)
-			registerFreeBlock(disk, i, blockSize);	
+		// registering free blocks in the disk; the bitmap, if used, 
+		// goes right after the reserved blocks
+		DiskStorage storage = new RAFDiskStorage(disk);
+		BlockAllocator allocator;
+		int firstBitmapBlock = 0;
+		int firstFreeBlockIndex = 0;
+		int blockHighWaterMark = capacity;
+		try {
+			if(freeSpaceFormat == FREE_BLOCK_BITMAP){
+				firstBitmapBlock = blocksToReserve + 1;
+				allocator = BitmapAllocator.create(storage, capacity, blockSize, firstBitmapBlock, sparse);
+			}
+			else if(sparse)
+				allocator = new FreeBlockTreeAllocator(storage, blockSize, 0, 0, 
+						capacity, blocksToReserve + 1);
+			else{
+				FreeBlockTreeAllocator tree = new FreeBlockTreeAllocator(storage, blockSize, 0, 0);
+				for(int i = blocksToReserve + 1; i <= capacity - 1; i++)
+					tree.free(i);
+				allocator = tree;
+			}
+
+			// the root of a hashed disk starts with an empty bucket table
+			if(directoryFormat == DIRECTORY_HASHED){
+				int table = allocator.allocate();
+				storage.write((long) table * blockSize, new byte[blockSize], 0, blockSize);
+				storage.writeInt(blockSize, table);		//first block of i-node 0
+				allocator.flush();
+			}
+			if(allocator instanceof FreeBlockTreeAllocator){
+				firstFreeBlockIndex = ((FreeBlockTreeAllocator) allocator).getFirstFreeBlockIndex();
+				if(sparse)
+					blockHighWaterMark = ((FreeBlockTreeAllocator) allocator).getHighWaterMark();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
 
 		// write disk parameters (number of blocks, bytes per block) in
 		// block 0 of disk space
@@ -391,10 +1450,29 @@ public class DiskUnit {
 			disk.seek(0);
 			disk.writeInt(capacity);  					// bytes 0 to 3
 			disk.writeInt(blockSize); 					// bytes 4 to 7
-			disk.writeInt(firstFreeBlock); 				// bytes 8 to 11
+			disk.writeInt(allocator.getFirstFreeBlock());	// bytes 8 to 11
 			disk.writeInt(firstFreeBlockIndex);			// bytes 12 to 15
 			disk.writeInt(firstFreeINodeIndex);				// bytes 16 to 19
-			disk.writeInt(freeINodesList.size()); 		// bytes 20 to 23			
+			disk.writeInt(numberOfINodes); 				// bytes 20 to 23			
+			// one byte per format, and one for the features of the disk, so 
+			// that block 0 holds all parameters even when blocks are 32 bytes
+			int features = FEATURE_BLOCK_REFERENCES | (sparse ? FEATURE_HIGH_WATER_MARKS : 0);
+			disk.writeInt(features << 24 | directoryFormat << 16 | 
+					iNodeFormat << 8 | freeSpaceFormat);	// bytes 24 to 27
+			disk.writeInt(firstBitmapBlock);			// bytes 28 to 31
+			// blocks of 32 bytes are full by now, so only sparse disks go on
+			if(sparse){
+				disk.writeInt(blockHighWaterMark);		// bytes 32 to 35
+				disk.writeInt(iNodeHighWaterMark);		// bytes 36 to 39
+			}
+			// a formatted disk must not find the checkpoint of what it held
+			if(blockSize >= MIN_CHECKPOINT_BLOCK_SIZE){
+				disk.seek(40);
+				disk.writeInt(0);						// bytes 40 to 43
+				disk.writeInt(0);						// bytes 44 to 47
+				disk.writeInt(0);						// bytes 48 to 51
+				disk.writeInt(0);						// bytes 52 to 55
+			}
 
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -402,75 +1480,94 @@ public class DiskUnit {
 	}
 
 	/**
-	 * Reserves and writes the space needed for i-nodes in the disk
+	 * Reserves and writes the space needed for i-nodes in the disk.
+	 * The i-nodes are packed blockSize / size per block, from block 1 up to
+	 * the last reserved block. The first one belongs to the root directory;
+	 * each of the others is free and holds, in its first four bytes, the
+	 * position of the next free i-node (0 in the last one). In a sparse
+	 * disk only the root is written, and the others are left unchained.
 	 * @param disk the current disk to write the i-nodes
 	 * @param capacity the capacity of the disk
 	 * @param blockSize the size of each block of the disk
-	 * @return a list containing all the free i-nodes that were reserved
+	 * @param iNodeFormat the format of the i-nodes
+	 * @param sparse true to write only the root
+	 * @return the number of i-nodes of the disk
 	 */
-	private static void reserveINodeSpace(RandomAccessFile disk, int capacity, int blockSize){
+	private static int reserveINodeSpace(RandomAccessFile disk, int capacity, int blockSize, 
+			int iNodeFormat, boolean sparse){
 		//FORMULAS NEEDED TO RESERVE AND ASSIGN I-NODE SPACE
 		int blocksToReserve = (int) Math.floor(capacity * 0.01);
-		int totalOfINodes = (blockSize * blocksToReserve) / 9;
-		int iNodesPerBlock = blockSize / 9;
+		int iNodeSize = iNodeSize(iNodeFormat);
+		int iNodesPerBlock = blockSize / iNodeSize;
+		int totalOfINodes = iNodesPerBlock * blocksToReserve;
 
-		//CONTROL VARIABLES
-		int iNodesCreated = 0;
-		int unusedBytesOnBlock = blockSize - (iNodesPerBlock * 9);
-		int cursor = blockSize;
+		//the whole i-node area is built in memory and written at once,
+		//or just the root if the rest is to stay a hole
+		byte[] area = new byte[sparse ? iNodeSize : blocksToReserve * blockSize];
 
-		takenINodesList = new LLQueue<>();
-		freeINodesList = new LLQueue<>();	
+		//i-node 0 is the root directory
+		INode root = newINode(0, iNodeFormat);
+		root.setType(INode.DIRECTORY);
+		System.arraycopy(root.getArray(), 0, area, 0, iNodeSize);
+
+		for(int i = 1; i < totalOfINodes && !sparse; i++){
+			//create a node with a pointer to the next free i-node
+			int next = i + 1 < totalOfINodes ? iNodePosition(i + 1, blockSize, iNodeSize) : 0;
+			INode node = newINode(next, iNodeFormat);
+			System.arraycopy(node.getArray(), 0, area, 
+					iNodePosition(i, blockSize, iNodeSize) - blockSize, iNodeSize);
+		}
 
 		try{
-			//this part of the code goes through every block and writes the free i-nodes
-			for(int i = 0; i < blocksToReserve; i++){
-
-				//each iteration sets the cursor to the beginning of the next block
-				disk.seek(cursor = blockSize + (blockSize * i)); 	
-
-				//writes the amount of i-nodes that the block can hold
-				for(int j = 0; j <= iNodesPerBlock; j++){
-					//if the total number of i-nodes has been created then create i-node 0
-					if(iNodesCreated == 1){
-						INode node = new INode(0);
-						node.setType((byte)1);
-						disk.seek(cursor + 8);
-						disk.writeByte(1);
-						takenINodesList.enqueue(node);						
-					}
-					if(iNodesCreated == totalOfINodes){
-						break;
-					}
-					//check if the node to be created on this iteration is the last node on the block 
-					if(cursor + 9 == (blockSize + blockSize * i+1) - unusedBytesOnBlock){
-						INode node = new INode(cursor += 9 + unusedBytesOnBlock);
-
-						//write the pointer to the next free i-node in the physical block
-						disk.writeInt(node.getFirstBlock());				
-
-						//add the i-node to a collection for management later on
-						freeINodesList.enqueue(node);						
-
-					}
-					else{
-						//create a node with a pointer to the next free i-node
-						INode node = new INode(cursor += 9);
-
-						//write the pointer to the next free i-node in the physical block
-						disk.writeInt(node.getFirstBlock());				
-
-						//add the i-node to a collection for management later on
-						freeINodesList.enqueue(node);
-
-						//update the amount of nodes created
-						iNodesCreated++;
-
-					}				
-				}
-			}
+			disk.seek(blockSize);
+			disk.write(area);
 		} catch(IOException e){
 			e.printStackTrace();
 		}
+		return totalOfINodes;
 	}	
+
+	/**
+	 * Returns the byte position in the disk of the i-th i-node.
+	 * @param i the number of the i-node, 0 being the root directory
+	 * @param blockSize the size of each block of the disk
+	 * @param iNodeSize the size of each i-node of the disk
+	 * @return the position of the i-node
+	 */
+	private static int iNodePosition(int i, int blockSize, int iNodeSize){
+		int iNodesPerBlock = blockSize / iNodeSize;
+		return blockSize * (1 + i / iNodesPerBlock) + (i % iNodesPerBlock) * iNodeSize;
+	}
+
+	/**
+	 * Returns the number of the i-node at the given position of the
+	 * current disk instance, the inverse of iNodePosition().
+	 * @param position the position of the i-node
+	 * @return the number of the i-node
+	 */
+	private int iNodeNumber(int position){
+		int iNodesPerBlock = blockSize / getINodeSize();
+		return (position / blockSize - 1) * iNodesPerBlock + position % blockSize / getINodeSize();
+	}
+
+	/**
+	 * Creates an i-node of the given format.
+	 * @param nextINode the value for its first four bytes
+	 * @param iNodeFormat either INODE_CHAINED or INODE_EXTENTS
+	 * @return the i-node
+	 */
+	private static INode newINode(int nextINode, int iNodeFormat){
+		if(iNodeFormat == INODE_EXTENTS)
+			return new ExtentINode(nextINode);
+		return new INode(nextINode);
+	}
+
+	/**
+	 * Creates an empty i-node of the format of the current disk instance,
+	 * ready to be written with writeINode().
+	 * @return the i-node
+	 */
+	public INode newINode(){
+		return newINode(0, iNodeFormat);
+	}
 }
@@ -20,10 +20,7 @@ public class DiskUtils {
 	 * @param value The integer value to be written in block. 
 	 */
 	public static void copyIntToBlock(VirtualDiskBlock vdb, int index, int value) { 
-		for (int i = INTSIZE-1; i >= 0; i--) { 
-			vdb.setElement(index+i, (byte) (value & 0x000000ff)); 	
-			value = value >> 8; 
-		}
+		copyIntToBytesArray(vdb.getArray(), index, value); 
 	}
 
 	/**
@@ -35,14 +32,7 @@ public class DiskUtils {
 	 * From most significant to less significant bytes of the number's four bytes. 
 	 */
 	public static int getIntFromBlock(VirtualDiskBlock vdb, int index) {  
-		int value = 0; 
-		int lSB; 
-		for (int i=0; i < INTSIZE; i++) { 
-			value = value << 8; 
-			lSB = 0x000000ff & vdb.getElement(index + i);
-			value = value | lSB; 
-		}
-		return value; 
+		return getIntFromBytesArray(vdb.getArray(), index); 
 	}
 
 	/**
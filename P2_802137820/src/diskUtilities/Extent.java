@@ -0,0 +1,41 @@
+package diskUtilities;
+
+/**
+ * A run of adjacent blocks of a disk, given by its first
+ * block and its number of blocks.
+ * @author josej
+ *
+ */
+public class Extent {
+	private int start;					//number of the first block
+	private int length;					//number of blocks in the run
+
+	/**
+	 * @param start the number of the first block
+	 * @param length the number of blocks in the run
+	 */
+	public Extent(int start, int length){
+		this.start = start;
+		this.length = length;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the number of the block right after the run.
+	 * @return start + length
+	 */
+	public int getEnd() {
+		return start + length;
+	}
+
+	public String toString() {
+		return "[" + start + ", " + getEnd() + ")";
+	}
+}
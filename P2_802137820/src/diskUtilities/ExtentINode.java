@@ -0,0 +1,72 @@
+package diskUtilities;
+
+/**
+ * I-node of the extended format, where the blocks of a file are given
+ * by a list of runs of adjacent blocks instead of a chain. Bytes 0 to 8
+ * have the same meaning as in a regular i-node (first block, size and
+ * type), so code that only needs those can treat both alike. Then:
+ * bytes 12 to 15 hold the number of runs, bytes 16 to 19 the first
+ * overflow block, and bytes 20 to 59 the first INLINE_EXTENTS runs as
+ * (first block, number of blocks) pairs. The runs that don't fit in the
+ * i-node go to overflow blocks, (blockSize - 4) / 8 per block, which are
+ * chained through their last four bytes.
+ * @author josej
+ *
+ */
+public class ExtentINode extends INode {
+	static final int 
+	EXTENT_INODE_SIZE = 64;				//number of bytes per extended i-node
+	public static final int 
+	INLINE_EXTENTS = 5;					//runs kept inside the i-node
+	private static final int 
+	FIRST_EXTENT = 20;					//position of the first run in the i-node
+
+	//constructor made specially for the creation of i-nodes
+	public ExtentINode(int nextINode){
+		super(new byte[EXTENT_INODE_SIZE]);
+		setFirstBlock(nextINode);
+	}
+
+	//constructor for i-nodes read from the disk
+	ExtentINode(byte[] iNode){
+		super(iNode);
+	}
+
+	public int getExtentCount() {
+		return DiskUtils.getIntFromBytesArray(getArray(), 12);
+	}
+
+	public void setExtentCount(int count) {
+		DiskUtils.copyIntToBytesArray(getArray(), 12, count);
+	}
+
+	public int getOverflowBlock() {
+		return DiskUtils.getIntFromBytesArray(getArray(), 16);
+	}
+
+	public void setOverflowBlock(int bn) {
+		DiskUtils.copyIntToBytesArray(getArray(), 16, bn);
+	}
+
+	/**
+	 * Returns the i-th run kept inside the i-node.
+	 * @param i index of the run, 0 <= i < INLINE_EXTENTS
+	 * @return the run
+	 */
+	public Extent getInlineExtent(int i) {
+		int p = FIRST_EXTENT + 8 * i;
+		return new Extent(DiskUtils.getIntFromBytesArray(getArray(), p), 
+				DiskUtils.getIntFromBytesArray(getArray(), p + 4));
+	}
+
+	/**
+	 * Sets the i-th run kept inside the i-node.
+	 * @param i index of the run, 0 <= i < INLINE_EXTENTS
+	 * @param e the run
+	 */
+	public void setInlineExtent(int i, Extent e) {
+		int p = FIRST_EXTENT + 8 * i;
+		DiskUtils.copyIntToBytesArray(getArray(), p, e.getStart());
+		DiskUtils.copyIntToBytesArray(getArray(), p + 4, e.getLength());
+	}
+}
@@ -0,0 +1,952 @@
+package diskUtilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import diskExceptions.FullDiskException;
+
+/**
+ * Manages the files of a mounted disk unit. How the blocks of a file
+ * are found depends on the i-node format of the disk:
+ * <ul>
+ * <li>INODE_CHAINED: the i-node has the first block, and each block holds 
+ * blockSize - 4 bytes of data followed by the number of the next block
+ * of the file (0 in the last one).</li>
+ * <li>INODE_EXTENTS: the i-node holds the runs of adjacent blocks of the 
+ * file (see ExtentINode), and each block holds blockSize bytes of data.</li>
+ * </ul>
+ * Either way, the blocks of a file are handed out as a BlockMap. A
+ * directory holds 24-byte entries: a name of up to 20 characters 
+ * followed by the i-node of the file with that name. They are laid 
+ * out according to the directory format of the disk (see Directory).
+ *
+ * Files and directories are named by paths from the root directory,
+ * with names separated by '/' ("a/b/file" or "/a/b/file"). The lookups
+ * done while resolving a path go through a DentryCache, and only the
+ * DIRECTORY_CACHE directories used last keep their entries in memory.
+ *
+ * Paths can be resolved and files read by several threads at once,
+ * but a change to the files must not overlap with anything else done
+ * to the same disk (see theSystem.MountTable). A reader that lets 
+ * changes happen between its reads can tell whether the file or
+ * directory it reads has changed meanwhile from its version (see
+ * getVersion()).
+ * @author josej
+ *
+ */
+public class FileManager {
+	public static final int 
+	NAME_LENGTH = 20;								//maximum number of characters in a name
+	public static final int 
+	ENTRY_SIZE = NAME_LENGTH + DiskUtils.INTSIZE;	//bytes per directory entry
+	private static final int 
+	TRANSFER_SIZE = 65536;							//bytes moved per bulk transfer
+	private static final int 
+	DIRECTORY_CACHE = 64;							//most directories kept in memory
+
+	private DiskUnit disk;							//the mounted disk
+	private int blockSize;							//size of each block of the disk
+	private boolean chained;						//true if blocks are chained, false if in runs
+	private int dataPerBlock;						//bytes of file data per block
+	private ByteBuffer transferBuffer;				//direct buffer reused to write chained blocks
+	private LinkedHashMap<Integer, Directory> directories;	//directories used last, least recent first
+	private DentryCache dentries;					//i-nodes of names looked up while resolving paths
+	private HashMap<Integer, Integer> versions;		//version of each i-node that has changed
+
+	/**
+	 * @param disk the mounted disk whose files are managed
+	 */
+	public FileManager(DiskUnit disk){
+		this.disk = disk;
+		blockSize = disk.getBlockSize();
+		chained = disk.getINodeFormat() == DiskUnit.INODE_CHAINED;
+		dataPerBlock = chained ? blockSize - DiskUtils.INTSIZE : blockSize;
+		directories = new LinkedHashMap<Integer, Directory>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<Integer, Directory> eldest){
+				return size() > DIRECTORY_CACHE;
+			}
+		};
+		dentries = new DentryCache(DentryCache.DEFAULT_ENTRIES);
+		versions = new HashMap<Integer, Integer>();
+	}
+
+	/**
+	 * Returns the disk whose files are managed.
+	 * @return the disk unit
+	 */
+	public DiskUnit getDiskUnit(){
+		return disk;
+	}
+
+	/**
+	 * Returns the number of bytes of file data held by each block.
+	 * @return blockSize - 4 for chained files, blockSize otherwise.
+	 */
+	public int getDataPerBlock(){
+		return dataPerBlock;
+	}
+
+	/**
+	 * Returns the cache of the lookups done while resolving paths.
+	 * @return the dentry cache
+	 */
+	public DentryCache getDentryCache(){
+		return dentries;
+	}
+
+	/**
+	 * Returns the directory whose i-node is given. The same object is
+	 * returned while the directory is among the DIRECTORY_CACHE used
+	 * last, so its entries are read from the disk once in that time.
+	 * @param iNodeIndex the i-node of the directory
+	 * @return the directory, of the directory format of the disk
+	 */
+	public Directory getDirectory(int iNodeIndex){
+		synchronized(directories){
+			Directory dir = directories.get(iNodeIndex);
+			if(dir == null){
+				if(disk.getDirectoryFormat() == DiskUnit.DIRECTORY_HASHED)
+					dir = new HashedDirectory(disk, iNodeIndex);
+				else
+					dir = new LinearDirectory(this, iNodeIndex);
+				directories.put(iNodeIndex, dir);
+			}
+			return dir;
+		}
+	}
+
+	/**
+	 * Returns the version of a file or directory: the number of times,
+	 * since this manager was created, the blocks of the file have been
+	 * released, as when it is replaced or removed, or the entries of
+	 * the directory have changed. A reader that keeps the blocks of a
+	 * file, or the names of a directory, can trust them as long as the
+	 * version stays the same.
+	 * @param iNodeIndex the i-node of the file or directory
+	 * @return the version, 0 if it has not changed
+	 */
+	public int getVersion(int iNodeIndex){
+		synchronized(versions){
+			Integer version = versions.get(iNodeIndex);
+			return version == null ? 0 : version;
+		}
+	}
+
+	/**
+	 * Starts a new version of a file or directory (see getVersion()).
+	 */
+	private void changed(int iNodeIndex){
+		synchronized(versions){
+			versions.put(iNodeIndex, getVersion(iNodeIndex) + 1);
+		}
+	}
+
+	/**
+	 * Searches for a file or directory.
+	 * @param path the path of the file from the root directory
+	 * @return the i-node of the file, or -1 if there is no such file.
+	 */
+	public int findFile(String path){
+		return resolve(split(path), -1);
+	}
+
+	/**
+	 * Tells whether the given i-node is that of a directory.
+	 * @param iNodeIndex the i-node
+	 * @return true if it is a directory, false if it is a file.
+	 */
+	public boolean isDirectory(int iNodeIndex){
+		return disk.readINode(iNodeIndex).getType() == INode.DIRECTORY;
+	}
+
+	/**
+	 * Creates an empty directory.
+	 * @param path the path of the new directory from the root directory
+	 * @throws FullDiskException whenever there is no free i-node or
+	 * block for the directory.
+	 * @throws InvalidParameterException whenever the parent directory
+	 * does not exist, or the name is in use or too long.
+	 */
+	public void makeDirectory(String path) throws FullDiskException, InvalidParameterException{
+		String[] names = split(path);
+		int parent = findParent(names, path);
+		String name = names[names.length - 1];
+		checkName(name);
+		if(lookup(parent, name) != -1)
+			throw new InvalidParameterException("Already exists: " + path);
+
+		int iNodeIndex = disk.getFreeINode();
+		INode node = disk.newINode();
+		node.setType(INode.DIRECTORY);
+		try {
+			if(disk.getDirectoryFormat() == DiskUnit.DIRECTORY_HASHED)
+				node.setFirstBlock(HashedDirectory.createTable(disk));
+			disk.writeINode(iNodeIndex, node);
+			getDirectory(parent).add(name, iNodeIndex);
+		} catch (FullDiskException e) {
+			if(node.getFirstBlock() != 0)
+				disk.registerFreeBlock(node.getFirstBlock());
+			disk.registerFreeINode(iNodeIndex);
+			throw e;
+		}
+		changed(parent);
+		dentries.put(parent, name, iNodeIndex);
+	}
+
+	/**
+	 * Removes a file, or a directory that has no entries, and returns
+	 * its blocks and i-node to the disk.
+	 * @param path the path of the file from the root directory
+	 * @throws InvalidParameterException whenever there is no such file,
+	 * or it is the root or a directory that is not empty.
+	 */
+	public void delete(String path) throws InvalidParameterException{
+		String[] names = split(path);
+		if(names.length == 0)
+			throw new InvalidParameterException("The root directory can't be removed.");
+		int parent = findParent(names, path);
+		String name = names[names.length - 1];
+		int iNodeIndex = lookup(parent, name);
+		if(iNodeIndex == -1)
+			throw new InvalidParameterException("No file has path: " + path);
+
+		INode node = disk.readINode(iNodeIndex);
+		if(node.getType() == INode.DIRECTORY){
+			Directory dir = getDirectory(iNodeIndex);
+			if(dir.size() > 0)
+				throw new InvalidParameterException("Directory is not empty: " + path);
+			dir.release();
+			synchronized(directories){
+				directories.remove(iNodeIndex);
+			}
+		}
+		else
+			releaseBlocks(node);
+		getDirectory(parent).remove(name);
+		dentries.invalidate(parent, name);
+		disk.registerFreeINode(iNodeIndex);
+		changed(iNodeIndex);
+		changed(parent);
+	}
+
+	/**
+	 * Moves a file or directory to another path, which may be in another
+	 * directory. If the new path is that of a directory, the file keeps 
+	 * its name and goes into it; if it is that of a file, that file is
+	 * replaced.
+	 * @param from the path of the file from the root directory
+	 * @param to the new path from the root directory
+	 * @throws FullDiskException whenever the directory receiving the
+	 * file needs another block and there is none.
+	 * @throws InvalidParameterException whenever either path is not
+	 * valid, a directory would go into itself, or a directory would 
+	 * replace a file or be replaced.
+	 */
+	public void rename(String from, String to) throws FullDiskException, InvalidParameterException{
+		String[] source = split(from);
+		if(source.length == 0)
+			throw new InvalidParameterException("The root directory can't be moved.");
+		int sourceParent = findParent(source, from);
+		String sourceName = source[source.length - 1];
+		int iNodeIndex = lookup(sourceParent, sourceName);
+		if(iNodeIndex == -1)
+			throw new InvalidParameterException("No file has path: " + from);
+
+		String[] target = split(to);
+		int targetParent;
+		String name;
+		int existing = resolve(target, -1);
+		if(existing != -1 && isDirectory(existing)){
+			targetParent = existing;
+			name = sourceName;
+			target = Arrays.copyOf(target, target.length + 1);
+			target[target.length - 1] = name;
+			existing = lookup(targetParent, name);
+		}
+		else{
+			targetParent = findParent(target, to);
+			name = target[target.length - 1];
+		}
+		checkName(name);
+		if(targetParent == sourceParent && name.equals(sourceName))
+			return;
+
+		boolean moved = isDirectory(iNodeIndex);
+		if(moved && target.length > source.length && 
+				Arrays.equals(source, Arrays.copyOf(target, source.length)))
+			throw new InvalidParameterException("A directory can't go into itself: " + to);
+		if(existing != -1){
+			if(moved || isDirectory(existing))
+				throw new InvalidParameterException("Already exists: " + to);
+			delete(join(target));
+		}
+
+		getDirectory(targetParent).add(name, iNodeIndex);
+		getDirectory(sourceParent).remove(sourceName);
+		changed(targetParent);
+		changed(sourceParent);
+		dentries.invalidate(sourceParent, sourceName);
+		dentries.put(targetParent, name, iNodeIndex);
+	}
+
+	/**
+	 * Copies an external file into a directory of the disk. The
+	 * blocks for the file are requested as runs of adjacent blocks sized
+	 * from the length of the external file, so the file ends up stored
+	 * as few contiguous pieces as the free space allows. If a file with
+	 * the same name already exists, it is replaced. The content is 
+	 * streamed from the external file into the blocks (see writeData()),
+	 * so the memory used doesn't depend on the length of the file.
+	 * @param external the file to copy
+	 * @param path the path of the new file from the root directory
+	 * @return the number of blocks used by the new file
+	 * @throws IOException whenever the external file can't be read.
+	 * @throws FullDiskException whenever the disk has no room for the file.
+	 * @throws InvalidParameterException whenever the path is not valid,
+	 * or the file is too large for the disk or for the size field of an
+	 * i-node (Integer.MAX_VALUE bytes).
+	 */
+	public int loadFile(File external, String path) 
+			throws IOException, FullDiskException, InvalidParameterException{
+		FileChannel in = new FileInputStream(external).getChannel();
+		try {
+			return store(in, in.size(), path);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Copies a file of this disk or of another mounted disk into a
+	 * directory of this disk. If both files are on this disk and it
+	 * keeps count of the references to its blocks, the copy shares the 
+	 * blocks of the original (see cloneFile()). Otherwise the content of 
+	 * the original file is read through a ContentReader, one block at a
+	 * time, and streamed into the copy as loadFile() does, so the memory
+	 * used doesn't depend on the length of the file.
+	 * If a file with the same name already exists, it is replaced.
+	 * @param source the manager of the disk holding the original file
+	 * @param sourcePath the path of the original file
+	 * @param path the path of the copy
+	 * @return the number of blocks used by the copy
+	 * @throws FullDiskException whenever the disk has no room for the copy.
+	 * @throws InvalidParameterException whenever the original file does
+	 * not exist, or the path of the copy is not valid.
+	 */
+	public int copyFile(FileManager source, String sourcePath, String path) 
+			throws FullDiskException, InvalidParameterException{
+		int iNodeIndex = source.findFile(sourcePath);
+		if(iNodeIndex == -1 || source.isDirectory(iNodeIndex))
+			throw new InvalidParameterException("No file has path: " + sourcePath);
+		if(source == this && disk.hasBlockReferences()){
+			int blocks = cloneFile(iNodeIndex, path);
+			if(blocks != -1)
+				return blocks;
+		}
+		ContentReader content = source.openContent(iNodeIndex);
+		try {
+			return store(content.openChannel(), content.getSize(), path);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);		//the channel reads a mounted disk
+		}
+	}
+
+	/**
+	 * Makes the file with the given path a copy of another file of this
+	 * disk by sharing its blocks rather than copying them: the i-node of
+	 * the copy gets the blocks of the original and each block gets one 
+	 * more reference. For chained files only the first block takes the
+	 * reference, since the rest of the chain is reached through it, so
+	 * the clone takes constant time. For files in runs the runs are 
+	 * copied, not the blocks, but every block of them takes a reference
+	 * in the table, which keeps one count per block: the clone takes 
+	 * time proportional to the number of blocks, though the table is
+	 * written once for every blockSize blocks. Neither file is ever 
+	 * written in place, so no block needs to be duplicated later: 
+	 * replacing either file gives it new blocks and drops its references
+	 * to the old ones, which stay with the other file. As in store(), 
+	 * the file replaced by the copy keeps its blocks until the i-node of
+	 * the copy has been written.
+	 * @param original the i-node of the file copied
+	 * @param path the path of the copy
+	 * @return the number of blocks of the copy, or -1 if some block
+	 * can't take another reference, in which case nothing is done.
+	 */
+	private int cloneFile(int original, String path) throws FullDiskException, InvalidParameterException{
+		String[] names = split(path);
+		int parent = findParent(names, path);
+		String name = names[names.length - 1];
+		checkName(name);
+		int iNodeIndex = lookup(parent, name);
+		INode source = disk.readINode(original);
+		int blocks = (source.getSize() + dataPerBlock - 1) / dataPerBlock;
+		if(iNodeIndex == original)
+			return blocks;
+
+		boolean isNew = iNodeIndex == -1;
+		INode old = null;
+		if(!isNew){
+			old = disk.readINode(iNodeIndex);
+			if(old.getType() == INode.DIRECTORY)
+				throw new InvalidParameterException("Is a directory: " + path);
+		}
+
+		ArrayList<Extent> extents = new ArrayList<Extent>();
+		if(source instanceof ExtentINode)
+			extents = readExtents((ExtentINode) source);
+		else if(source.getFirstBlock() != 0)
+			extents.add(new Extent(source.getFirstBlock(), 1));
+		if(!disk.shareBlocks(extents))
+			return -1;
+
+		INode node = disk.newINode();
+		try {
+			if(isNew)
+				iNodeIndex = disk.getFreeINode();
+			setBlocks(node, extents);
+		} catch (FullDiskException e) {
+			releaseExtents(extents);		//drops the references just added
+			if(isNew && iNodeIndex != -1)
+				disk.registerFreeINode(iNodeIndex);
+			throw e;
+		}
+		node.setType(INode.FILE);
+		node.setSize(source.getSize());
+		if(isNew)
+			addFile(parent, name, iNodeIndex, node);
+		else{
+			disk.writeINode(iNodeIndex, node);
+			releaseBlocks(old);
+			changed(iNodeIndex);
+		}
+		return blocks;
+	}
+
+	/**
+	 * Stores length bytes read from in as the file with the given path,
+	 * replacing the file with that path if there is one. The new content
+	 * gets blocks of its own, and the blocks of the old file are released
+	 * only after its i-node has been written again, so replacing a file
+	 * needs room for both.
+	 * @return the number of blocks used by the file
+	 */
+	private int store(ReadableByteChannel in, long length, String path) 
+			throws IOException, FullDiskException, InvalidParameterException{
+		String[] names = split(path);
+		int parent = findParent(names, path);
+		String name = names[names.length - 1];
+		checkName(name);
+		if(length > Integer.MAX_VALUE)
+			throw new InvalidParameterException("File is larger than " + Integer.MAX_VALUE + " bytes: " + path);
+		if(length > (long) dataPerBlock * disk.getCapacity())
+			throw new InvalidParameterException("File is larger than the disk: " + path);
+		int blocks = (int) ((length + dataPerBlock - 1) / dataPerBlock);
+
+		int iNodeIndex = lookup(parent, name);
+		boolean isNew = iNodeIndex == -1;
+		INode old = null;
+		if(!isNew){
+			old = disk.readINode(iNodeIndex);
+			if(old.getType() == INode.DIRECTORY)
+				throw new InvalidParameterException("Is a directory: " + path);
+		}
+
+		// the new file is complete before any block of the old one is
+		// released, so that a failure leaves the old file as it was
+		ArrayList<Extent> extents = allocateBlocks(blocks);
+		INode node = disk.newINode();
+		try {
+			writeData(in, extents, length);
+			if(isNew)
+				iNodeIndex = disk.getFreeINode();
+			node.setType(INode.FILE);
+			node.setSize((int) length);
+			setBlocks(node, extents);
+		} catch (IOException | FullDiskException e) {
+			releaseExtents(extents);
+			if(isNew && iNodeIndex != -1)
+				disk.registerFreeINode(iNodeIndex);
+			throw e;
+		}
+
+		if(isNew)
+			addFile(parent, name, iNodeIndex, node);
+		else{
+			disk.writeINode(iNodeIndex, node);
+			releaseBlocks(old);
+			changed(iNodeIndex);
+		}
+		return blocks;
+	}
+
+	/**
+	 * Writes the i-node of a new file and adds the file to a directory.
+	 * If the directory can't grow to hold it, the blocks of the file 
+	 * and its i-node are returned to the disk.
+	 * @throws FullDiskException whenever the directory needs another
+	 * block and there is none.
+	 */
+	private void addFile(int parent, String name, int iNodeIndex, INode node) throws FullDiskException{
+		disk.writeINode(iNodeIndex, node);
+		try {
+			getDirectory(parent).add(name, iNodeIndex);
+		} catch (FullDiskException e) {
+			releaseBlocks(node);
+			disk.registerFreeINode(iNodeIndex);
+			throw e;
+		}
+		changed(parent);
+		dentries.put(parent, name, iNodeIndex);
+	}
+
+	/**
+	 * Follows a path from the root directory.
+	 * @param names the names along the path
+	 * @param count the number of names to follow, or -1 for all of them
+	 * @return the i-node reached, or -1 if some name does not exist or
+	 * is not that of a directory while names remain.
+	 */
+	private int resolve(String[] names, int count){
+		int iNodeIndex = disk.getRootINode();
+		int end = count == -1 ? names.length : count;
+		for(int i = 0; i < end; i++){
+			if(i > 0 && !isDirectory(iNodeIndex))
+				return -1;
+			iNodeIndex = lookup(iNodeIndex, names[i]);
+			if(iNodeIndex == -1)
+				return -1;
+		}
+		return iNodeIndex;
+	}
+
+	/**
+	 * Returns the i-node of the directory holding the last name of a path.
+	 * @throws InvalidParameterException whenever the path has no names,
+	 * or that directory does not exist.
+	 */
+	private int findParent(String[] names, String path) throws InvalidParameterException{
+		if(names.length == 0)
+			throw new InvalidParameterException("Path has no name: " + path);
+		int parent = resolve(names, names.length - 1);
+		if(parent == -1 || !isDirectory(parent))
+			throw new InvalidParameterException("No directory has path: " + path.substring(0, 
+					Math.max(0, path.lastIndexOf('/'))));
+		return parent;
+	}
+
+	/**
+	 * Returns the i-node of a name in a directory, looking first in
+	 * the dentry cache and then in the directory itself.
+	 * @return the i-node, or -1 if the name is not in the directory.
+	 */
+	private int lookup(int parent, String name){
+		int iNodeIndex = dentries.get(parent, name);
+		if(iNodeIndex == -1){
+			iNodeIndex = getDirectory(parent).find(name);
+			if(iNodeIndex != -1)
+				dentries.put(parent, name, iNodeIndex);
+		}
+		return iNodeIndex;
+	}
+
+	private static void checkName(String name) throws InvalidParameterException{
+		if(name.length() > NAME_LENGTH)
+			throw new InvalidParameterException("Name is longer than " + NAME_LENGTH + " characters: " + name);
+	}
+
+	/**
+	 * Returns the names along a path, leaving out empty ones.
+	 */
+	private static String[] split(String path){
+		ArrayList<String> names = new ArrayList<String>();
+		for(String name : path.split("/"))
+			if(!name.isEmpty())
+				names.add(name);
+		return names.toArray(new String[names.size()]);
+	}
+
+	private static String join(String[] names){
+		StringBuilder path = new StringBuilder();
+		for(String name : names)
+			path.append('/').append(name);
+		return path.toString();
+	}
+
+	/**
+	 * Returns the map of the blocks of a file. For chained files this
+	 * follows the whole chain; for files in runs it only reads the
+	 * i-node and its overflow blocks.
+	 * @param node the i-node of the file
+	 * @return the map
+	 */
+	public BlockMap getBlockMap(INode node){
+		if(node instanceof ExtentINode)
+			return new BlockMap(readExtents((ExtentINode) node));
+
+		ArrayList<Extent> extents = new ArrayList<Extent>();
+		ReadAhead reader = new ReadAhead(disk);
+		byte[] block = new byte[blockSize];
+		int bn = node.getFirstBlock();
+		int blocks = (node.getSize() + dataPerBlock - 1) / dataPerBlock;
+		for(int i = 0; i < blocks && bn != 0; i++){
+			addBlock(extents, bn);
+			reader.read(i, bn, blocks - i, block, 0);
+			bn = DiskUtils.getIntFromBytesArray(block, dataPerBlock);
+		}
+		return new BlockMap(extents);
+	}
+
+	/**
+	 * Reads the whole content of a file, block after block, through a
+	 * ReadAhead. The blocks of a chained file are fetched ahead from 
+	 * the disk as if they were adjacent, which they are unless the free
+	 * space was fragmented when the file was written.
+	 * @param node the i-node of the file
+	 * @return the content of the file
+	 */
+	public byte[] readContent(INode node){
+		byte[] content = new byte[node.getSize()];
+		int blocks = (content.length + dataPerBlock - 1) / dataPerBlock;
+		BlockMap map = chained ? null : getBlockMap(node);
+		if(!chained)
+			blocks = Math.min(blocks, map.getBlockCount());
+		ReadAhead reader = new ReadAhead(disk);
+		byte[] block = new byte[blockSize];
+		int bn = node.getFirstBlock();
+		int read = 0;
+		for(int fb = 0; fb < blocks; fb++){
+			if(!chained)
+				bn = map.getBlock(fb);
+			else if(bn == 0)
+				break;
+			reader.read(fb, bn, chained ? blocks - fb : map.getRunLength(fb), block, 0);
+			int n = Math.min(dataPerBlock, content.length - read);
+			System.arraycopy(block, 0, content, read, n);
+			read += n;
+			if(chained)
+				bn = DiskUtils.getIntFromBytesArray(block, dataPerBlock);
+		}
+		return content;
+	}
+
+	/**
+	 * Opens the content of a file to be read piece by piece rather than
+	 * as a whole (see ContentReader). No block of a chained file is read
+	 * until the reader asks for it.
+	 * @param iNodeIndex the i-node of the file
+	 * @return the reader
+	 */
+	public ContentReader openContent(int iNodeIndex){
+		return new ContentReader(this, iNodeIndex, disk.readINode(iNodeIndex));
+	}
+
+	/**
+	 * Takes count blocks from the disk as runs of adjacent blocks, 
+	 * asking for everything still missing each time.
+	 * @param count the number of blocks needed
+	 * @return the runs, in the order the blocks are to be used
+	 * @throws FullDiskException whenever there are not enough free blocks;
+	 * in that case, the runs already taken are returned to the disk.
+	 */
+	private ArrayList<Extent> allocateBlocks(int count) throws FullDiskException{
+		ArrayList<Extent> extents = new ArrayList<Extent>();
+		int allocated = 0;
+		try {
+			while(allocated < count){
+				Extent x = disk.allocateExtent(count - allocated);
+				extents.add(x);
+				allocated += x.getLength();
+			}
+		} catch (FullDiskException e) {
+			releaseExtents(extents);
+			throw e;
+		}
+		return extents;
+	}
+
+	/**
+	 * Writes the content of in into the given runs of blocks. If the 
+	 * disk doesn't chain the blocks of a file, the content of each run
+	 * is one stretch of the disk file, so it is handed to the disk to be
+	 * transferred straight from in. Otherwise every block must end with
+	 * the number of the next one; the blocks are then put together in a
+	 * direct buffer, reused from one file to the next, and written with
+	 * bulk transfers of up to TRANSFER_SIZE bytes.
+	 * @param in where the content is read from
+	 * @param extents the blocks of the file, in order
+	 * @param length the number of bytes to copy
+	 * @throws IOException whenever in can't be read
+	 */
+	private void writeData(ReadableByteChannel in, List<Extent> extents, long length) throws IOException{
+		if(!chained){
+			for(Extent extent: extents)
+				disk.importBlocks(in, extent.getStart(), extent.getLength());
+			return;
+		}
+
+		int blocksPerTransfer = Math.max(1, TRANSFER_SIZE / blockSize);
+		if(transferBuffer == null)
+			transferBuffer = ByteBuffer.allocateDirect(blocksPerTransfer * blockSize);
+		ByteBuffer buffer = transferBuffer;
+		byte[] zeroes = new byte[dataPerBlock];
+		long remaining = length;
+
+		for(int x = 0; x < extents.size(); x++){
+			Extent extent = extents.get(x);
+			int nextExtent = x + 1 < extents.size() ? extents.get(x + 1).getStart() : 0;
+			for(int first = extent.getStart(); first < extent.getEnd(); first += blocksPerTransfer){
+				int count = Math.min(blocksPerTransfer, extent.getEnd() - first);
+				for(int b = 0; b < count; b++){
+					int n = (int) Math.min(dataPerBlock, remaining);
+					buffer.limit(b * blockSize + dataPerBlock);
+					buffer.position(b * blockSize);
+					readFully(in, buffer, n);
+					remaining -= buffer.position() - b * blockSize;
+					buffer.put(zeroes, 0, buffer.remaining());		//after the end of the file
+					int bn = first + b;
+					int next = bn + 1 < extent.getEnd() ? bn + 1 : nextExtent;
+					buffer.limit(buffer.capacity());
+					buffer.putInt(b * blockSize + dataPerBlock, next);
+				}
+				buffer.position(0);
+				buffer.limit(count * blockSize);
+				disk.writeBlocks(first, count, buffer);
+			}
+		}
+	}
+
+	/**
+	 * Records in node which blocks hold the file: the first block
+	 * for chained files, every run for files in runs. The i-node 
+	 * itself is not written.
+	 * @param node the i-node of the file
+	 * @param extents the blocks of the file, in order
+	 * @throws FullDiskException whenever the runs need overflow blocks
+	 * and there are none; in that case, node is left as it was.
+	 */
+	private void setBlocks(INode node, List<Extent> extents) throws FullDiskException{
+		if(node instanceof ExtentINode)
+			writeExtents((ExtentINode) node, extents);
+		else
+			node.setFirstBlock(extents.isEmpty() ? 0 : extents.get(0).getStart());
+	}
+
+	/**
+	 * Returns every block of a file to the collection of free blocks, 
+	 * and leaves the i-node (in memory) as that of an empty file. Shared
+	 * blocks only lose a reference. The chain of a chained file is only
+	 * followed up to its first shared block, since the blocks after it 
+	 * are reached through it by the other files.
+	 * @param node the i-node of the file
+	 */
+	void releaseBlocks(INode node){
+		ArrayList<Extent> owned;
+		if(node instanceof ExtentINode)
+			owned = readExtents((ExtentINode) node);
+		else{
+			owned = new ArrayList<Extent>();
+			ReadAhead reader = new ReadAhead(disk);
+			byte[] block = new byte[blockSize];
+			int bn = node.getFirstBlock();
+			int blocks = (node.getSize() + dataPerBlock - 1) / dataPerBlock;
+			for(int i = 0; i < blocks && bn != 0; i++){
+				addBlock(owned, bn);
+				if(disk.isShared(bn))
+					break;
+				reader.read(i, bn, blocks - i, block, 0);
+				bn = DiskUtils.getIntFromBytesArray(block, dataPerBlock);
+			}
+		}
+		releaseExtents(owned);
+		if(node instanceof ExtentINode)
+			writeExtents((ExtentINode) node, new ArrayList<Extent>());
+		node.setFirstBlock(0);
+		node.setSize(0);
+	}
+
+	private void releaseExtents(List<Extent> extents){
+		for(Extent x: extents)
+			for(int bn = x.getStart(); bn < x.getEnd(); bn++)
+				disk.registerFreeBlock(bn);
+	}
+
+	/**
+	 * Reads every run of a file in runs: first the ones inside the
+	 * i-node, then the ones in its chain of overflow blocks.
+	 * @param node the i-node of the file
+	 * @return the runs, in file order
+	 */
+	private ArrayList<Extent> readExtents(ExtentINode node){
+		int count = node.getExtentCount();
+		ArrayList<Extent> extents = new ArrayList<Extent>(count);
+		for(int i = 0; i < count && i < ExtentINode.INLINE_EXTENTS; i++)
+			extents.add(node.getInlineExtent(i));
+
+		VirtualDiskBlock vdb = new VirtualDiskBlock(blockSize);
+		int perBlock = (blockSize - DiskUtils.INTSIZE) / 8;
+		int bn = node.getOverflowBlock();
+		while(extents.size() < count && bn != 0){
+			disk.read(bn, vdb);
+			for(int i = 0; i < perBlock && extents.size() < count; i++)
+				extents.add(new Extent(DiskUtils.getIntFromBlock(vdb, 8 * i), 
+						DiskUtils.getIntFromBlock(vdb, 8 * i + 4)));
+			bn = DiskUtils.getIntFromBlock(vdb, blockSize - DiskUtils.INTSIZE);
+		}
+		return extents;
+	}
+
+	/**
+	 * Replaces the runs of a file in runs. The runs that don't fit in
+	 * the i-node go to new overflow blocks, and the old overflow blocks
+	 * are released once those are written. The i-node itself is not
+	 * written.
+	 * @param node the i-node of the file
+	 * @param extents the new runs, in file order
+	 * @throws FullDiskException whenever there are not enough free blocks
+	 * for the overflow blocks; in that case, node is left as it was.
+	 */
+	private void writeExtents(ExtentINode node, List<Extent> extents) throws FullDiskException{
+		// overflow blocks are filled from the last one, so each one
+		// can point to the one written before it
+		int perBlock = (blockSize - DiskUtils.INTSIZE) / 8;
+		int overflow = Math.max(0, extents.size() - ExtentINode.INLINE_EXTENTS);
+		ArrayList<Integer> taken = new ArrayList<Integer>();
+		int next = 0;
+		try {
+			for(int b = (overflow + perBlock - 1) / perBlock - 1; b >= 0; b--){
+				VirtualDiskBlock vdb = new VirtualDiskBlock(blockSize);
+				for(int i = 0; i < perBlock && b * perBlock + i < overflow; i++){
+					Extent x = extents.get(ExtentINode.INLINE_EXTENTS + b * perBlock + i);
+					DiskUtils.copyIntToBlock(vdb, 8 * i, x.getStart());
+					DiskUtils.copyIntToBlock(vdb, 8 * i + 4, x.getLength());
+				}
+				DiskUtils.copyIntToBlock(vdb, blockSize - DiskUtils.INTSIZE, next);
+				next = disk.getFreeBlockNumber();
+				taken.add(next);
+				disk.write(next, vdb);
+			}
+		} catch (FullDiskException e) {
+			for(int bn : taken)
+				disk.registerFreeBlock(bn);
+			throw e;
+		}
+
+		VirtualDiskBlock vdb = new VirtualDiskBlock(blockSize);
+		for(int bn = node.getOverflowBlock(); bn != 0; ){
+			disk.read(bn, vdb);
+			disk.registerFreeBlock(bn);
+			bn = DiskUtils.getIntFromBlock(vdb, blockSize - DiskUtils.INTSIZE);
+		}
+		node.setOverflowBlock(next);
+		node.setExtentCount(extents.size());
+		node.setFirstBlock(extents.isEmpty() ? 0 : extents.get(0).getStart());
+		for(int i = 0; i < extents.size() && i < ExtentINode.INLINE_EXTENTS; i++)
+			node.setInlineExtent(i, extents.get(i));
+	}
+
+	/**
+	 * Overwrites part of the content of a file, which keeps its length.
+	 * @param iNodeIndex the i-node of the file
+	 * @param offset the first byte of the content to overwrite
+	 * @param data the new bytes, which end before the file does
+	 */
+	void overwrite(int iNodeIndex, int offset, byte[] data){
+		BlockMap map = getBlockMap(disk.readINode(iNodeIndex));
+		VirtualDiskBlock vdb = new VirtualDiskBlock(blockSize);
+		for(int done = 0; done < data.length; ){
+			int position = offset + done;
+			int bn = map.getBlock(position / dataPerBlock);
+			int n = Math.min(dataPerBlock - position % dataPerBlock, data.length - done);
+			disk.read(bn, vdb);
+			vdb.copyFrom(data, done, position % dataPerBlock, n);
+			disk.write(bn, vdb);
+			done += n;
+		}
+	}
+
+	/**
+	 * Adds data at the end of a file, filling its last block first and
+	 * then taking as many new blocks as needed.
+	 * @param iNodeIndex the i-node of the file
+	 * @param data the bytes to add
+	 */
+	void append(int iNodeIndex, byte[] data){
+		INode node = disk.readINode(iNodeIndex);
+		BlockMap map = getBlockMap(node);
+		int blocks = map.getBlockCount();
+		int used = node.getSize() - (blocks - 1) * dataPerBlock;
+		int inLast = blocks > 0 ? Math.min(dataPerBlock - used, data.length) : 0;
+		int needed = (data.length - inLast + dataPerBlock - 1) / dataPerBlock;
+		ArrayList<Extent> added = allocateBlocks(needed);
+		BlockMap addedMap = new BlockMap(added);
+
+		VirtualDiskBlock vdb = new VirtualDiskBlock(blockSize);
+		if(blocks > 0 && (inLast > 0 || chained && needed > 0)){
+			int last = map.getBlock(blocks - 1);
+			disk.read(last, vdb);
+			vdb.copyFrom(data, 0, used, inLast);
+			if(chained && needed > 0)
+				Utils.copyNextBNToBlock(vdb, addedMap.getBlock(0));
+			disk.write(last, vdb);
+		}
+		int copied = inLast;
+		for(int k = 0; k < needed; k++){
+			vdb = new VirtualDiskBlock(blockSize);
+			int n = Math.min(dataPerBlock, data.length - copied);
+			vdb.copyFrom(data, copied, 0, n);
+			copied += n;
+			if(chained)
+				Utils.copyNextBNToBlock(vdb, k + 1 < needed ? addedMap.getBlock(k + 1) : 0);
+			disk.write(addedMap.getBlock(k), vdb);
+		}
+
+		if(needed > 0){
+			ArrayList<Extent> all = new ArrayList<Extent>();
+			for(int i = 0; i < map.getExtentCount(); i++)
+				all.add(map.getExtent(i));
+			for(Extent x: added)
+				for(int bn = x.getStart(); bn < x.getEnd(); bn++)
+					addBlock(all, bn);
+			if(blocks == 0 || !chained)
+				setBlocks(node, all);
+		}
+		node.setSize(node.getSize() + data.length);
+		disk.writeINode(iNodeIndex, node);
+	}
+
+	/**
+	 * Adds block bn at the end of a list of runs, extending the
+	 * last run if bn comes right after it.
+	 */
+	private static void addBlock(ArrayList<Extent> extents, int bn){
+		int last = extents.size() - 1;
+		if(last >= 0 && extents.get(last).getEnd() == bn)
+			extents.set(last, new Extent(extents.get(last).getStart(), extents.get(last).getLength() + 1));
+		else
+			extents.add(new Extent(bn, 1));
+	}
+
+	/**
+	 * Reads exactly n bytes from in into buffer, unless in ends first.
+	 */
+	private static void readFully(ReadableByteChannel in, ByteBuffer buffer, int n) throws IOException{
+		int limit = buffer.limit();
+		buffer.limit(buffer.position() + n);
+		while(buffer.hasRemaining())
+			if(in.read(buffer) < 0)
+				break;
+		buffer.limit(limit);
+	}
+}
@@ -0,0 +1,17 @@
+package diskUtilities;
+
+/**
+ * Specifies the type of object that is told how far a DiskFormatter
+ * has gone. It may be told from several threads at once.
+ * @author josej
+ *
+ */
+public interface FormatProgress {
+
+	/**
+	 * Called each time another part of the disk has been formatted.
+	 * @param bytes the number of bytes formatted so far
+	 * @param totalBytes the number of bytes to format
+	 */
+	void formatted(long bytes, long totalBytes);
+}
@@ -0,0 +1,163 @@
+package diskUtilities;
+
+import java.io.IOException;
+
+import diskExceptions.FullDiskException;
+
+/**
+ * Keeps the free blocks of the disk in a tree-like structure of
+ * "free block directory" blocks. The root directory is the first free
+ * block; its first integer points to the next directory and the rest of
+ * its integers (1 up to firstFreeBlockIndex) hold free block numbers.
+ * When the root is exhausted it is handed out itself and the next
+ * directory becomes the root.
+ *
+ * A disk created sparse has no tree at first: every block from the
+ * high-water mark up to the end of the disk is free without being in
+ * the tree, and is handed out, moving the mark up, once the tree is
+ * empty. Only the blocks freed afterwards go into the tree.
+ * @author josej
+ *
+ */
+public class FreeBlockTreeAllocator implements BlockAllocator {
+	private DiskStorage disk;					//disk holding the tree
+	private int blockSize;						//size of each block of the disk
+	private int firstFreeBlock;					//root of the tree, 0 if the disk is full
+	private int firstFreeBlockIndex;			//last used integer position in the root
+	private int capacity;						//number of blocks of the disk
+	private int highWaterMark;					//first block never handed out, capacity if none
+
+	/**
+	 * @param disk the disk holding the tree
+	 * @param blockSize the size of each block of the disk
+	 * @param firstFreeBlock the root of the tree, as recorded in the header
+	 * @param firstFreeBlockIndex the index in the root, as recorded in the header
+	 */
+	public FreeBlockTreeAllocator(DiskStorage disk, int blockSize, 
+			int firstFreeBlock, int firstFreeBlockIndex){
+		this(disk, blockSize, firstFreeBlock, firstFreeBlockIndex, 0, 0);
+	}
+
+	/**
+	 * @param disk the disk holding the tree
+	 * @param blockSize the size of each block of the disk
+	 * @param firstFreeBlock the root of the tree, as recorded in the header
+	 * @param firstFreeBlockIndex the index in the root, as recorded in the header
+	 * @param capacity the number of blocks of the disk
+	 * @param highWaterMark the first block never handed out, as recorded
+	 * in the header; capacity if every block has been
+	 */
+	public FreeBlockTreeAllocator(DiskStorage disk, int blockSize, 
+			int firstFreeBlock, int firstFreeBlockIndex, int capacity, int highWaterMark){
+		this.disk = disk;
+		this.blockSize = blockSize;
+		this.firstFreeBlock = firstFreeBlock;
+		this.firstFreeBlockIndex = firstFreeBlockIndex;
+		this.capacity = capacity;
+		this.highWaterMark = highWaterMark;
+	}
+
+	public int allocate() throws FullDiskException {
+		int bn;
+		if(firstFreeBlock == 0){
+			if(highWaterMark < capacity)
+				return highWaterMark++;
+			throw new FullDiskException("Disk is full");
+		}
+
+		try {
+			if(firstFreeBlockIndex != 0){
+				//take the last block registered in the root directory
+				bn = disk.readInt(position(firstFreeBlock, firstFreeBlockIndex));
+				firstFreeBlockIndex--;
+			}
+			else{
+				//free block to return is the root free block
+				bn = firstFreeBlock;
+				firstFreeBlock = disk.readInt(position(bn, 0));
+				firstFreeBlockIndex = (blockSize/4) - 1;
+			}
+		} catch (IOException e) {
+			throw new FullDiskException("Unable to read the free block tree: " + e.getMessage());
+		}
+		return bn;
+	}
+
+	/**
+	 * The tree doesn't know which free blocks are adjacent, so runs
+	 * are of a single block, except above the high-water mark.
+	 */
+	public Extent allocateExtent(int desiredBlocks) throws FullDiskException {
+		if(desiredBlocks < 1)
+			throw new IllegalArgumentException("Invalid number of blocks: " + desiredBlocks);
+		if(firstFreeBlock == 0 && highWaterMark < capacity){
+			Extent e = new Extent(highWaterMark, Math.min(desiredBlocks, capacity - highWaterMark));
+			highWaterMark = e.getEnd();
+			return e;
+		}
+		return new Extent(allocate(), 1);
+	}
+
+	public void free(int bn) {
+		try {
+			//case where bn is the first free block in the disk
+			if(firstFreeBlock == 0){
+				disk.writeInt(position(bn, 0), 0);
+				firstFreeBlock = bn;
+				firstFreeBlockIndex = 0;
+			}
+			//case where the current root free block directory is full;
+			//bn becomes the new root
+			else if(firstFreeBlockIndex == (blockSize/4) - 1){
+				disk.writeInt(position(bn, 0), firstFreeBlock);
+				firstFreeBlock = bn;
+				firstFreeBlockIndex = 0;
+			}
+			else{
+				firstFreeBlockIndex++;
+				disk.writeInt(position(firstFreeBlock, firstFreeBlockIndex), bn);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public int getFirstFreeBlock() {
+		return firstFreeBlock;
+	}
+
+	/**
+	 * Returns the last used integer position in the root directory.
+	 * This is the value kept in bytes 12 to 15 of the disk header.
+	 * @return the index of the first free block
+	 */
+	public int getFirstFreeBlockIndex() {
+		return firstFreeBlockIndex;
+	}
+
+	/**
+	 * Returns the first block that has never been handed out; it and
+	 * every block after it are free. This is the value kept in bytes
+	 * 32 to 35 of the header of a sparse disk.
+	 * @return the high-water mark, the capacity of the disk if every
+	 * block has been handed out
+	 */
+	public int getHighWaterMark() {
+		return highWaterMark;
+	}
+
+	/**
+	 * Nothing is kept in memory apart from the root, its index and
+	 * the high-water mark, which are part of the disk header.
+	 */
+	public void flush() {
+	}
+
+	public String getFormatName() {
+		return "free block tree";
+	}
+
+	private long position(int bn, int index){
+		return (long) bn * blockSize + index * 4;
+	}
+}
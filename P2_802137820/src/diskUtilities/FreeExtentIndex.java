@@ -0,0 +1,126 @@
+package diskUtilities;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * In-memory index of the runs of free blocks of a disk. Runs are kept 
+ * both by address, so that neighboring runs are merged when blocks are
+ * freed, and by size, so that a request for n blocks is served by the 
+ * smallest run that can hold them (or by the largest run, if none can).
+ * @author josej
+ *
+ */
+public class FreeExtentIndex {
+	private TreeMap<Integer, Extent> byAddress;		//free runs keyed by their first block
+	private TreeSet<Extent> bySize;					//the same runs ordered by length, then address
+
+	public FreeExtentIndex(){
+		byAddress = new TreeMap<Integer, Extent>();
+		bySize = new TreeSet<Extent>(new Comparator<Extent>(){
+			public int compare(Extent a, Extent b){
+				if(a.getLength() != b.getLength())
+					return a.getLength() < b.getLength() ? -1 : 1;
+				return Integer.compare(a.getStart(), b.getStart());
+			}
+		});
+	}
+
+	/**
+	 * Registers the blocks start up to start + length - 1 as free,
+	 * merging them with the free runs right before and after them.
+	 * @param start the first free block
+	 * @param length the number of free blocks
+	 */
+	public void add(int start, int length){
+		if(length <= 0)
+			return;
+		Map.Entry<Integer, Extent> before = byAddress.lowerEntry(start);
+		if(before != null && before.getValue().getEnd() == start){
+			Extent e = before.getValue();
+			remove(e);
+			start = e.getStart();
+			length += e.getLength();
+		}
+		Extent after = byAddress.get(start + length);
+		if(after != null){
+			remove(after);
+			length += after.getLength();
+		}
+		insert(new Extent(start, length));
+	}
+
+	/**
+	 * Takes the blocks start up to start + length - 1 out of the index.
+	 * The blocks must belong to a single free run.
+	 * @param start the first block taken
+	 * @param length the number of blocks taken
+	 */
+	public void remove(int start, int length){
+		Map.Entry<Integer, Extent> entry = byAddress.floorEntry(start);
+		if(entry == null || entry.getValue().getEnd() < start + length)
+			throw new IllegalArgumentException("Blocks are not free: " + new Extent(start, length));
+		Extent e = entry.getValue();
+		remove(e);
+		if(e.getStart() < start)
+			insert(new Extent(e.getStart(), start - e.getStart()));
+		if(start + length < e.getEnd())
+			insert(new Extent(start + length, e.getEnd() - start - length));
+	}
+
+	/**
+	 * Takes up to desired blocks out of the index, all from the same run.
+	 * The smallest run with at least desired blocks is used; if there is
+	 * none, the blocks come from the largest run.
+	 * @param desired the number of blocks wanted
+	 * @return the run taken, or null if there are no free blocks.
+	 */
+	public Extent take(int desired){
+		if(bySize.isEmpty())
+			return null;
+		Extent e = bySize.ceiling(new Extent(-1, desired));
+		if(e == null)
+			e = bySize.last();
+		Extent taken = new Extent(e.getStart(), Math.min(desired, e.getLength()));
+		remove(taken.getStart(), taken.getLength());
+		return taken;
+	}
+
+	/**
+	 * Returns the number of free runs in the index.
+	 * @return the number of runs
+	 */
+	public int size(){
+		return byAddress.size();
+	}
+
+	/**
+	 * Returns the free runs in increasing order of their first block.
+	 * @return the runs, as a view that can't be changed
+	 */
+	public Collection<Extent> inOrder(){
+		return Collections.unmodifiableCollection(byAddress.values());
+	}
+
+	/**
+	 * Returns the largest free run, without taking it.
+	 * @return the run, or null if there are no free blocks.
+	 */
+	public Extent largest(){
+		return bySize.isEmpty() ? null : bySize.last();
+	}
+
+	private void insert(Extent e){
+		byAddress.put(e.getStart(), e);
+		bySize.add(e);
+	}
+
+	private void remove(Extent e){
+		byAddress.remove(e.getStart());
+		bySize.remove(e);
+	}
+}
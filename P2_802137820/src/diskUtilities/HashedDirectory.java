@@ -0,0 +1,203 @@
+package diskUtilities;
+
+import java.util.Map;
+
+import diskExceptions.FullDiskException;
+
+/**
+ * Directory whose entries are spread over buckets by a hash of their
+ * names. The i-node of the directory points to its bucket table, a
+ * block holding blockSize / 4 bucket numbers; each bucket is a chain
+ * of blocks holding (blockSize - 4) / FileManager.ENTRY_SIZE entries
+ * followed by the number of the next block of the bucket (0 in the
+ * last one). A bucket with no blocks is 0 in the table, and an unused
+ * entry has i-node 0. The size of the i-node is the number of bytes of
+ * entries in the directory.
+ *
+ * Only the bucket of a name is read to find it on the disk, and a new
+ * entry is written in the last block of its bucket, which is known
+ * once the directory has been read. The entries of a bucket are kept
+ * packed: a removed entry is replaced by the last one of its bucket,
+ * and a last block left with no entries is released.
+ * @author josej
+ *
+ */
+public class HashedDirectory extends Directory {
+	private int blockSize;							//size of each block of the disk
+	private int buckets;							//number of buckets, a power of 2
+	private int perBlock;							//entries per bucket block
+	private int table;								//block holding the bucket table
+	private int[] lastBlock;						//last block of each bucket, 0 if none
+	private int[] inLast;							//entries used in the last block of each bucket
+
+	/**
+	 * @param disk the disk holding the directory
+	 * @param iNodeIndex the i-node of the directory
+	 */
+	public HashedDirectory(DiskUnit disk, int iNodeIndex){
+		super(disk, iNodeIndex);
+		blockSize = disk.getBlockSize();
+		buckets = blockSize / DiskUtils.INTSIZE;
+		perBlock = (blockSize - DiskUtils.INTSIZE) / FileManager.ENTRY_SIZE;
+		table = disk.readINode(iNodeIndex).getFirstBlock();
+	}
+
+	/**
+	 * Creates the bucket table of a new, empty, hashed directory. The
+	 * i-node of the directory must then point to it.
+	 * @param disk the disk that will hold the directory
+	 * @return the block of the bucket table
+	 * @throws FullDiskException whenever there are no free blocks left.
+	 */
+	public static int createTable(DiskUnit disk) throws FullDiskException{
+		int bn = disk.getFreeBlockNumber();
+		disk.write(bn, new VirtualDiskBlock(disk.getBlockSize()));
+		return bn;
+	}
+
+	/**
+	 * Returns the bucket that holds the entry with the given name.
+	 */
+	private int bucketOf(String name){
+		int h = name.hashCode();
+		return (h ^ (h >>> 16)) & (buckets - 1);
+	}
+
+	protected void readEntries(Map<String, Integer> entries){
+		lastBlock = new int[buckets];
+		inLast = new int[buckets];
+		VirtualDiskBlock tableBlock = new VirtualDiskBlock(blockSize);
+		VirtualDiskBlock vdb = new VirtualDiskBlock(blockSize);
+		disk.read(table, tableBlock);
+		for(int b = 0; b < buckets; b++){
+			int bn = DiskUtils.getIntFromBlock(tableBlock, b * DiskUtils.INTSIZE);
+			while(bn != 0){
+				disk.read(bn, vdb);
+				byte[] block = vdb.getArray();
+				lastBlock[b] = bn;
+				inLast[b] = 0;
+				for(int e = 0; e < perBlock; e++){
+					int offset = e * FileManager.ENTRY_SIZE;
+					int iNode = DiskUtils.getIntFromBytesArray(block, offset + FileManager.NAME_LENGTH);
+					if(iNode != 0){
+						entries.put(getEntryName(block, offset), iNode);
+						inLast[b] = e + 1;
+					}
+				}
+				bn = DiskUtils.getIntFromBlock(vdb, blockSize - DiskUtils.INTSIZE);
+			}
+		}
+	}
+
+	protected void writeEntry(String name, int iNode) throws FullDiskException{
+		int b = bucketOf(name);
+		VirtualDiskBlock vdb = new VirtualDiskBlock(blockSize);
+		if(lastBlock[b] != 0 && inLast[b] < perBlock){
+			disk.read(lastBlock[b], vdb);
+			copyEntry(vdb.getArray(), inLast[b] * FileManager.ENTRY_SIZE, name, iNode);
+			disk.write(lastBlock[b], vdb);
+			inLast[b]++;
+		}
+		else{
+			// the bucket gets a new last block, linked from the old one
+			// or, if it is the first, from the bucket table
+			int bn = disk.getFreeBlockNumber();
+			copyEntry(vdb.getArray(), 0, name, iNode);
+			disk.write(bn, vdb);
+			int linkBlock = lastBlock[b] != 0 ? lastBlock[b] : table;
+			int linkIndex = lastBlock[b] != 0 ? blockSize - DiskUtils.INTSIZE : b * DiskUtils.INTSIZE;
+			disk.read(linkBlock, vdb);
+			DiskUtils.copyIntToBlock(vdb, linkIndex, bn);
+			disk.write(linkBlock, vdb);
+			lastBlock[b] = bn;
+			inLast[b] = 1;
+		}
+		addToSize(FileManager.ENTRY_SIZE);
+	}
+
+	protected void eraseEntry(String name){
+		int b = bucketOf(name);
+		VirtualDiskBlock vdb = new VirtualDiskBlock(blockSize);
+		disk.read(table, vdb);
+		int bn = DiskUtils.getIntFromBlock(vdb, b * DiskUtils.INTSIZE);
+		int previous = 0;				//block before the last one of the bucket, 0 if none
+		int hole = 0;					//block holding the entry
+		int holeEntry = 0;				//position of the entry in that block
+		while(bn != lastBlock[b]){
+			disk.read(bn, vdb);
+			if(hole == 0)
+				for(int e = 0; e < perBlock && hole == 0; e++)
+					if(isEntry(vdb.getArray(), e, name)){
+						hole = bn;
+						holeEntry = e;
+					}
+			previous = bn;
+			bn = DiskUtils.getIntFromBlock(vdb, blockSize - DiskUtils.INTSIZE);
+		}
+
+		// the last entry of the bucket takes the place of the erased one
+		VirtualDiskBlock last = new VirtualDiskBlock(blockSize);
+		disk.read(lastBlock[b], last);
+		if(hole == 0)
+			for(int e = 0; e < inLast[b] && hole == 0; e++)
+				if(isEntry(last.getArray(), e, name)){
+					hole = lastBlock[b];
+					holeEntry = e;
+				}
+		int lastOffset = (inLast[b] - 1) * FileManager.ENTRY_SIZE;
+		if(hole == lastBlock[b])
+			System.arraycopy(last.getArray(), lastOffset, last.getArray(), 
+					holeEntry * FileManager.ENTRY_SIZE, FileManager.ENTRY_SIZE);
+		else{
+			disk.read(hole, vdb);
+			System.arraycopy(last.getArray(), lastOffset, vdb.getArray(), 
+					holeEntry * FileManager.ENTRY_SIZE, FileManager.ENTRY_SIZE);
+			disk.write(hole, vdb);
+		}
+		copyEntry(last.getArray(), lastOffset, "", 0);
+		inLast[b]--;
+
+		if(inLast[b] > 0)
+			disk.write(lastBlock[b], last);
+		else{
+			// the blocks before the last one are full
+			int linkBlock = previous != 0 ? previous : table;
+			int linkIndex = previous != 0 ? blockSize - DiskUtils.INTSIZE : b * DiskUtils.INTSIZE;
+			disk.read(linkBlock, vdb);
+			DiskUtils.copyIntToBlock(vdb, linkIndex, 0);
+			disk.write(linkBlock, vdb);
+			disk.registerFreeBlock(lastBlock[b]);
+			lastBlock[b] = previous;
+			inLast[b] = previous != 0 ? perBlock : 0;
+		}
+		addToSize(-FileManager.ENTRY_SIZE);
+	}
+
+	public void release(){
+		VirtualDiskBlock tableBlock = new VirtualDiskBlock(blockSize);
+		VirtualDiskBlock vdb = new VirtualDiskBlock(blockSize);
+		disk.read(table, tableBlock);
+		for(int b = 0; b < buckets; b++)
+			for(int bn = DiskUtils.getIntFromBlock(tableBlock, b * DiskUtils.INTSIZE); bn != 0; ){
+				disk.read(bn, vdb);
+				disk.registerFreeBlock(bn);
+				bn = DiskUtils.getIntFromBlock(vdb, blockSize - DiskUtils.INTSIZE);
+			}
+		disk.registerFreeBlock(table);
+	}
+
+	/**
+	 * Returns true if entry e of block b is the one with the given name.
+	 */
+	private static boolean isEntry(byte[] b, int e, String name){
+		int offset = e * FileManager.ENTRY_SIZE;
+		return DiskUtils.getIntFromBytesArray(b, offset + FileManager.NAME_LENGTH) != 0 && 
+				getEntryName(b, offset).equals(name);
+	}
+
+	private void addToSize(int bytes){
+		INode node = disk.readINode(iNodeIndex);
+		node.setSize(node.getSize() + bytes);
+		disk.writeINode(iNodeIndex, node);
+	}
+}
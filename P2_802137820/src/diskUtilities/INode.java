@@ -3,8 +3,12 @@ package diskUtilities;
 
 public class INode {
 	private byte[] iNode;			//the i-node array
-	private static final int
+	static final int
 	INODE_SIZE = 9;					//number of bytes per i-node	
+	public static final byte 
+	FILE = 0;						//type of the i-nodes of files
+	public static final byte 
+	DIRECTORY = 1;					//type of the i-nodes of directories
 	
 	//constructor made specially for the creation of i-nodes
 	public INode(int nextINode){
@@ -12,6 +16,11 @@ public class INode {
 		DiskUtils.copyIntToBytesArray(iNode, 0, nextINode);
 	}	
 
+	//constructor for i-nodes read from the disk
+	INode(byte[] iNode){
+		this.iNode = iNode;
+	}
+
 	public byte getType() {
 		return iNode[8];
 	}
@@ -35,4 +44,9 @@ public class INode {
 	public void setFirstBlock(int firstBlock) {
 		DiskUtils.copyIntToBytesArray(iNode, 0, firstBlock);
 	}
+
+	//the bytes of the i-node as they are stored in the disk
+	byte[] getArray() {
+		return iNode;
+	}
 }
@@ -0,0 +1,74 @@
+package diskUtilities;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import diskExceptions.FullDiskException;
+
+/**
+ * Directory whose entries are the content of its i-node, as in a file:
+ * a sequence of FileManager.ENTRY_SIZE-byte entries, each new one added
+ * at the end. Finding an entry on the disk means reading every entry
+ * before it. This is the format of the disks created before hashed
+ * directories.
+ *
+ * A removed entry is left in place with i-node 0, and its room is 
+ * taken by the next entry added.
+ * @author josej
+ *
+ */
+public class LinearDirectory extends Directory {
+	private FileManager files;						//reads and extends the content of the directory
+	private HashMap<String, Integer> offsets;		//position of the entry of each name in the content
+	private ArrayDeque<Integer> unused;				//positions of removed entries
+
+	/**
+	 * @param files the manager of the files of the disk holding the directory
+	 * @param iNodeIndex the i-node of the directory
+	 */
+	public LinearDirectory(FileManager files, int iNodeIndex){
+		super(files.getDiskUnit(), iNodeIndex);
+		this.files = files;
+	}
+
+	protected void readEntries(Map<String, Integer> entries){
+		offsets = new HashMap<String, Integer>();
+		unused = new ArrayDeque<Integer>();
+		byte[] content = files.readContent(disk.readINode(iNodeIndex));
+		for(int e = 0; e + FileManager.ENTRY_SIZE <= content.length; e += FileManager.ENTRY_SIZE){
+			int iNode = DiskUtils.getIntFromBytesArray(content, e + FileManager.NAME_LENGTH);
+			if(iNode == 0)
+				unused.push(e);
+			else{
+				String name = getEntryName(content, e);
+				entries.put(name, iNode);
+				offsets.put(name, e);
+			}
+		}
+	}
+
+	protected void writeEntry(String name, int iNode) throws FullDiskException{
+		byte[] entry = new byte[FileManager.ENTRY_SIZE];
+		copyEntry(entry, 0, name, iNode);
+		if(unused.isEmpty()){
+			offsets.put(name, disk.readINode(iNodeIndex).getSize());
+			files.append(iNodeIndex, entry);
+		}
+		else{
+			int offset = unused.pop();
+			files.overwrite(iNodeIndex, offset, entry);
+			offsets.put(name, offset);
+		}
+	}
+
+	protected void eraseEntry(String name){
+		int offset = offsets.remove(name);
+		files.overwrite(iNodeIndex, offset, new byte[FileManager.ENTRY_SIZE]);
+		unused.push(offset);
+	}
+
+	public void release(){
+		files.releaseBlocks(disk.readINode(iNodeIndex));
+	}
+}
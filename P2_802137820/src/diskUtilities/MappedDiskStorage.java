@@ -0,0 +1,249 @@
+package diskUtilities;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Disk storage that maps the disk file into memory, so block reads and
+ * writes are plain memory copies instead of system calls. Images larger
+ * than one window are mapped as several consecutive windows; since the
+ * window size is a power of 2 no block ever crosses two windows. Every
+ * transfer goes through a view of its own, so threads can transfer at
+ * once.
+ *
+ * The windows are unmapped when the storage is closed, rather than
+ * when they are garbage collected, since a file that is still mapped
+ * can't be deleted or truncated on Windows. Java has no public way to
+ * unmap a buffer, so this calls Unsafe.invokeCleaner() from Java 9 on
+ * and the cleaner of the buffer on Java 8; disks should only be mapped
+ * when canUnmap() says one of them is there.
+ * @author josej
+ *
+ */
+public class MappedDiskStorage implements DiskStorage {
+	private static final int 
+	WINDOW_SHIFT = 30;									//each window maps 1GB of the file
+	private static final long 
+	WINDOW_SIZE = 1L << WINDOW_SHIFT;
+
+	private static Object unsafe;						//the Unsafe, from Java 9 on
+	private static Method invokeCleaner;				//Unsafe.invokeCleaner(ByteBuffer), from Java 9 on
+	private static Method cleaner;						//DirectBuffer.cleaner(), on Java 8
+	private static Method clean;						//Cleaner.clean(), on Java 8
+
+	static {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			unsafe = theUnsafe.get(null);
+		} catch (Exception e) {
+			invokeCleaner = null;
+			try {
+				cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+				clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+			} catch (Exception e8) {
+				cleaner = null;
+			}
+		}
+	}
+
+	private RandomAccessFile file;						//the file representing the disk
+	private FileChannel channel;						//channel used to map the file
+	private MappedByteBuffer[] windows;					//consecutive mapped regions of the file
+	private long length;								//length of the file when it was mapped
+
+	/**
+	 * Maps the whole file in read-write mode.
+	 * @param file the already opened file that represents the disk
+	 * @throws IOException whenever the file can't be mapped
+	 */
+	public MappedDiskStorage(RandomAccessFile file) throws IOException {
+		this.file = file;
+		channel = file.getChannel();
+		length = channel.size();
+
+		int nWindows = (int) ((length + WINDOW_SIZE - 1) >> WINDOW_SHIFT);
+		windows = new MappedByteBuffer[nWindows];
+		for(int i = 0; i < nWindows; i++){
+			long start = (long) i << WINDOW_SHIFT;
+			windows[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, 
+					Math.min(WINDOW_SIZE, length - start));
+		}
+	}
+
+	public void read(long position, byte[] dst, int offset, int length) throws IOException {
+		checkBounds(position, length);
+		while(length > 0){
+			ByteBuffer view = windowAt(position);
+			int n = Math.min(length, view.remaining());
+			view.get(dst, offset, n);
+			position += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	public void write(long position, byte[] src, int offset, int length) throws IOException {
+		checkBounds(position, length);
+		while(length > 0){
+			ByteBuffer view = windowAt(position);
+			int n = Math.min(length, view.remaining());
+			view.put(src, offset, n);
+			position += n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	public void read(long position, ByteBuffer dst) throws IOException {
+		checkBounds(position, dst.remaining());
+		while(dst.hasRemaining()){
+			ByteBuffer view = windowAt(position);
+			if(view.remaining() > dst.remaining())
+				view.limit(view.position() + dst.remaining());
+			position += view.remaining();
+			dst.put(view);
+		}
+	}
+
+	public void write(long position, ByteBuffer src) throws IOException {
+		checkBounds(position, src.remaining());
+		while(src.hasRemaining()){
+			ByteBuffer view = windowAt(position);
+			int n = Math.min(src.remaining(), view.remaining());
+			ByteBuffer part = src.duplicate();
+			part.limit(part.position() + n);
+			view.put(part);
+			src.position(src.position() + n);
+			position += n;
+		}
+	}
+
+	/**
+	 * The bytes are read from src straight into the mapped windows.
+	 */
+	public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+		checkBounds(position, count);
+		long done = 0;
+		while(done < count){
+			ByteBuffer view = windowAt(position + done);
+			if(view.remaining() > count - done)
+				view.limit(view.position() + (int) (count - done));
+			int n = src.read(view);
+			if(n < 0)
+				break;
+			done += n;
+		}
+		return done;
+	}
+
+	public int readInt(long position) throws IOException {
+		checkBounds(position, 4);
+		int w = (int) (position >>> WINDOW_SHIFT);
+		int index = (int) (position & (WINDOW_SIZE - 1));
+		if(index + 4 <= windows[w].limit())
+			return windows[w].getInt(index);
+		byte[] b = new byte[4];
+		read(position, b, 0, 4);
+		return DiskUtils.getIntFromBytesArray(b, 0);
+	}
+
+	public void writeInt(long position, int value) throws IOException {
+		checkBounds(position, 4);
+		int w = (int) (position >>> WINDOW_SHIFT);
+		int index = (int) (position & (WINDOW_SIZE - 1));
+		if(index + 4 <= windows[w].limit())
+			windows[w].putInt(index, value);
+		else{
+			byte[] b = new byte[4];
+			DiskUtils.copyIntToBytesArray(b, 0, value);
+			write(position, b, 0, 4);
+		}
+	}
+
+	/**
+	 * A mapped file can't be truncated: touching the mapped bytes past
+	 * its new end would crash the process.
+	 */
+	public boolean punchHole(long position) {
+		return false;
+	}
+
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Forces the mapped windows to the file, unmaps them and closes the
+	 * file, which can then be deleted or truncated. The storage must not
+	 * be used by any thread once it is closed.
+	 */
+	public void close() throws IOException {
+		MappedByteBuffer[] mapped = windows;
+		windows = new MappedByteBuffer[0];
+		for(MappedByteBuffer window: mapped)
+			window.force();
+		for(MappedByteBuffer window: mapped)
+			unmap(window);
+		channel.close();
+		file.close();
+	}
+
+	/**
+	 * Tells whether the windows of a disk can be unmapped when it is
+	 * closed in this Java runtime.
+	 * @return true if they can, false if they would stay mapped until
+	 * they are garbage collected.
+	 */
+	public static boolean canUnmap(){
+		return invokeCleaner != null || cleaner != null;
+	}
+
+	/**
+	 * Releases the mapping of a window at once.
+	 * @return false if it stays mapped until it is garbage collected
+	 */
+	private static boolean unmap(MappedByteBuffer window){
+		try {
+			if(invokeCleaner != null)
+				invokeCleaner.invoke(unsafe, window);
+			else if(cleaner != null)
+				clean.invoke(cleaner.invoke(window));
+			else
+				return false;
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	public String getType() {
+		return "memory-mapped (" + windows.length + " window" 
+				+ (windows.length == 1 ? "" : "s") + ")";
+	}
+
+	/**
+	 * Returns an independent view of the window that holds position,
+	 * positioned at that byte.
+	 * @param position byte offset in the disk file
+	 * @return the view
+	 */
+	private ByteBuffer windowAt(long position){
+		ByteBuffer view = windows[(int) (position >>> WINDOW_SHIFT)].duplicate();
+		view.position((int) (position & (WINDOW_SIZE - 1)));
+		return view;
+	}
+
+	private void checkBounds(long position, long length) throws IOException {
+		if(position < 0 || position + length > this.length)
+			throw new IOException("Invalid disk position: " + position);
+	}
+}
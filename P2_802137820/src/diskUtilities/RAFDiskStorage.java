@@ -0,0 +1,99 @@
+package diskUtilities;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Disk storage that goes through the channel of a RandomAccessFile,
+ * transferring whole byte ranges at given positions. The file pointer
+ * is never moved, so threads can transfer at once without seeking for
+ * one another. Used when the disk file can't be mapped.
+ * @author josej
+ *
+ */
+public class RAFDiskStorage implements DiskStorage {
+	private RandomAccessFile file;				//the file representing the disk
+	private FileChannel channel;				//used for every transfer
+
+	/**
+	 * @param file the already opened file that represents the disk
+	 */
+	public RAFDiskStorage(RandomAccessFile file){
+		this.file = file;
+		channel = file.getChannel();
+	}
+
+	public void read(long position, byte[] dst, int offset, int length) throws IOException {
+		read(position, ByteBuffer.wrap(dst, offset, length));
+	}
+
+	public void write(long position, byte[] src, int offset, int length) throws IOException {
+		write(position, ByteBuffer.wrap(src, offset, length));
+	}
+
+	public void read(long position, ByteBuffer dst) throws IOException {
+		while(dst.hasRemaining()){
+			int n = channel.read(dst, position);
+			if(n < 0)
+				throw new EOFException("Invalid disk position: " + position);
+			position += n;
+		}
+	}
+
+	public void write(long position, ByteBuffer src) throws IOException {
+		while(src.hasRemaining())
+			position += channel.write(src, position);
+	}
+
+	/**
+	 * The bytes go through FileChannel.transferFrom, which lets the
+	 * operating system copy them from file to file when src is a file.
+	 */
+	public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+		long done = 0;
+		while(done < count){
+			long n = channel.transferFrom(src, position + done, count - done);
+			if(n <= 0)
+				break;
+			done += n;
+		}
+		return done;
+	}
+
+	public int readInt(long position) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(DiskUtils.INTSIZE);
+		read(position, b);
+		return b.getInt(0);
+	}
+
+	public void writeInt(long position, int value) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(DiskUtils.INTSIZE);
+		b.putInt(0, value);
+		write(position, b);
+	}
+
+	public boolean punchHole(long position) throws IOException {
+		long length = channel.size();
+		if(position < length){
+			channel.truncate(position);
+			file.setLength(length);
+		}
+		return true;
+	}
+
+	public long length() throws IOException {
+		return channel.size();
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+
+	public String getType() {
+		return "RandomAccessFile";
+	}
+}
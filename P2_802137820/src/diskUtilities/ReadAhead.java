@@ -0,0 +1,74 @@
+package diskUtilities;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the blocks of one open file, fetching ahead the blocks of the
+ * disk that follow the one asked for. While the file is read in order
+ * (block 0, 1, 2, ...) each fetch brings twice as many blocks as the
+ * previous one, up to a cap, with a single bulk read; any other access
+ * brings the window back to its initial size. This way reading a large
+ * file takes a number of transfers that grows with the logarithm of
+ * its length rather than one transfer per block.
+ *
+ * The blocks fetched are not tracked after they are read, so a reader
+ * should be used while the file is not being changed.
+ * @author josej
+ *
+ */
+public class ReadAhead {
+	/** Number of blocks fetched after an access that is not sequential. **/
+	public static final int INITIAL_WINDOW = 4;
+	/** Largest number of bytes fetched at once. **/
+	public static final int MAX_WINDOW_SIZE = 1 << 17;
+
+	private DiskUnit disk;							//disk holding the file
+	private int blockSize;							//size of each block of the disk
+	private int maxWindow;							//largest number of blocks fetched at once
+	private ByteBuffer buffer;						//blocks fetched by the last read
+	private int first;								//disk block at the start of buffer
+	private int count;								//number of blocks in buffer
+	private int window;								//number of blocks fetched by the next read
+	private int lastFileBlock;						//block of the file asked for last
+
+	/**
+	 * @param disk the disk holding the file
+	 */
+	public ReadAhead(DiskUnit disk){
+		this.disk = disk;
+		blockSize = disk.getBlockSize();
+		maxWindow = Math.max(1, MAX_WINDOW_SIZE / blockSize);
+		buffer = ByteBuffer.allocate(maxWindow * blockSize);
+		window = Math.min(INITIAL_WINDOW, maxWindow);
+		lastFileBlock = -2;
+	}
+
+	/**
+	 * Copies a block of the file into dst. If the block was not fetched
+	 * already, it is read together with the blocks that follow it on
+	 * the disk.
+	 * @param fileBlock the number of the block in the file
+	 * @param bn the number of the block in the disk
+	 * @param limit the number of blocks of the disk, starting with bn,
+	 * worth fetching (the rest of the run or of the file, for instance)
+	 * @param dst the array receiving the block
+	 * @param dstOff the position of dst where the block is placed
+	 */
+	public void read(int fileBlock, int bn, int limit, byte[] dst, int dstOff){
+		boolean sequential = fileBlock == lastFileBlock + 1;
+		lastFileBlock = fileBlock;
+		if(bn < first || bn >= first + count){
+			window = sequential && count > 0 ? Math.min(2 * window, maxWindow) :
+				Math.min(INITIAL_WINDOW, maxWindow);
+			int n = Math.max(1, Math.min(window, Math.min(limit, disk.getCapacity() - bn)));
+			buffer.clear();
+			disk.readBlocks(bn, n, buffer);
+			first = bn;
+			count = n;
+			disk.countReadAhead(false, window);
+		}
+		else
+			disk.countReadAhead(true, window);
+		System.arraycopy(buffer.array(), (bn - first) * blockSize, dst, dstOff, blockSize);
+	}
+}
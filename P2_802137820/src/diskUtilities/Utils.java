@@ -17,13 +17,7 @@ public class Utils {
 	}
 	
 	public static void copyNextBNToBlock(VirtualDiskBlock vdb, int value) { 
-		int lastPos = vdb.getCapacity()-1;
-
-		for (int index = 0; index < 4; index++) { 
-			vdb.setElement(lastPos - index, (byte) (value & 0x000000ff)); 	
-			value = value >> 8; 
-		}
-
+		DiskUtils.copyIntToBytesArray(vdb.getArray(), vdb.getCapacity() - 4, value);
 	}
 
 }
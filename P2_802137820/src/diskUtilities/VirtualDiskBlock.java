@@ -1,5 +1,7 @@
 package diskUtilities;
 
+import java.nio.ByteBuffer;
+
 import diskExceptions.InvalidBlockNumberException;
 
 public class VirtualDiskBlock {
@@ -51,5 +53,73 @@ public class VirtualDiskBlock {
 	public byte getElement(int index){
 		return data[index];		
 	}
+
+	/**
+	 * Copies length bytes from src, starting at srcOffset, into
+	 * the current block instance starting at position index.
+	 * @param src the array to copy from
+	 * @param srcOffset the first position of src to copy
+	 * @param index the first position of the block to overwrite
+	 * @param length the number of bytes to copy
+	 */
+	public void copyFrom(byte[] src, int srcOffset, int index, int length){
+		System.arraycopy(src, srcOffset, data, index, length);
+	}
+
+	/**
+	 * Copies length bytes of the current block instance, starting at
+	 * position index, into dst starting at dstOffset.
+	 * @param index the first position of the block to copy
+	 * @param dst the array to copy into
+	 * @param dstOffset the first position of dst to overwrite
+	 * @param length the number of bytes to copy
+	 */
+	public void copyTo(int index, byte[] dst, int dstOffset, int length){
+		System.arraycopy(data, index, dst, dstOffset, length);
+	}
+
+	/**
+	 * Fills the current block instance with the next bytes remaining
+	 * in src, as many as the block can hold or as src has left. If src
+	 * runs out first, the rest of the block is left unchanged.
+	 * @param src the buffer to copy from; its position is advanced.
+	 * @return the number of bytes copied
+	 */
+	public int copyFrom(ByteBuffer src){
+		int n = Math.min(src.remaining(), data.length);
+		src.get(data, 0, n);
+		return n;
+	}
+
+	/**
+	 * Copies the content of the current block instance into dst, as
+	 * many bytes as dst has room for.
+	 * @param dst the buffer to copy into; its position is advanced.
+	 * @return the number of bytes copied
+	 */
+	public int copyTo(ByteBuffer dst){
+		int n = Math.min(dst.remaining(), data.length);
+		dst.put(data, 0, n);
+		return n;
+	}
+
+	/**
+	 * Returns a buffer view of the current block instance. Changes
+	 * through the view are changes to the block, and vice versa.
+	 * @return the view, positioned at 0 and limited to the capacity.
+	 */
+	public ByteBuffer asByteBuffer(){
+		return ByteBuffer.wrap(data);
+	}
+
+	/**
+	 * Gives the classes of this package direct access to the
+	 * content of the block, so that a whole block can be moved
+	 * to or from the disk in a single transfer.
+	 * @return the array holding the content of the block
+	 */
+	byte[] getArray(){
+		return data;
+	}
 	
 }
@@ -22,6 +22,29 @@ public class OperandValidatorUtils {
 
 	}
 
+	/**
+	 * A path names a file through the directories that lead to it, 
+	 * separated by '/', optionally preceded by the name of the mounted
+	 * disk that holds it: "dir/file" or "disk:dir/file". It starts at 
+	 * the root directory if it begins with '/', and at the current 
+	 * directory otherwise; "." and ".." stand for a directory and the
+	 * one holding it. "/" alone is the root directory.
+	 */
+	public static boolean isValidPath(String operand) { 
+		int colon = operand.indexOf(':'); 
+		if (colon != -1 && !isValidName(operand.substring(0, colon))) 
+			return false; 
+		String path = operand.substring(colon + 1); 
+		if (path.startsWith("/")) 
+			path = path.substring(1); 
+		if (path.length() == 0) 
+			return operand.endsWith("/"); 
+		for (String name : path.split("/", -1)) 
+			if (!(isValidName(name) || name.equals(".") || name.equals(".."))) 
+				return false; 
+		return true; 
+	}
+
 	public static boolean isValidInt(String operand) { 
 		try { 
 			Integer.parseInt(operand); 
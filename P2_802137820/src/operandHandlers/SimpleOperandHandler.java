@@ -25,6 +25,8 @@ public class SimpleOperandHandler {
 		// more need to be added...
 		if (tType.equals("name")) 
 			return isValidName(token); 
+		else if (tType.equals("path"))
+			return OperandValidatorUtils.isValidPath(token); 
 		else if (tType.equals("int"))
 			return isValidInt(token); 
 		else 
@@ -1,6 +1,7 @@
 package systemGeneralClasses;
 
 
+import java.io.PrintStream;
 import java.util.ArrayList;
 
 import stack.IntStack;
@@ -37,6 +38,9 @@ public abstract class CommandProcessor {
 	// Every command processor has at least one general state....
 	protected static final int GENERALSTATE = 0; 
 	
+	protected PrintStream out = System.out; 
+	// where the output that is shown directly goes
+	
 	/**
 	 * This method does some preliminary processing of the attempted 
 	 * command being read from user.Determines if a CommandLine object 
@@ -53,7 +57,7 @@ public abstract class CommandProcessor {
 		
 		// see if there is a matching system command for the command
 		// referred to in the input line
-		SystemCommand mSCommand = searchCommand(c.getToken(1)); 
+		SystemCommand mSCommand = searchCommand(c); 
 		if (mSCommand == null) { 
 			errMsg.setMessage("Command " + c.getToken(1) + " does not exist.");
 			c.setSc(null); 
@@ -64,19 +68,37 @@ public abstract class CommandProcessor {
 	} 
 	
 	/**
-	 * 
-	 * @param cl
-	 * @return
+	 * Searches the commands of the current state for the one named 
+	 * in the command line. Several commands may share a name if they
+	 * take a different number of operands; the one whose number of
+	 * operands matches the command line is preferred. 
+	 * @param c the command line
+	 * @return the matching command, null if no command has that name.
 	 */
-	private SystemCommand searchCommand(String cname) {  
-		for (int i=0; i<commandList[currentState.top()].size(); i++)
-			if (commandList[currentState.top()].get(i).getName().equals(cname))
-				return commandList[currentState.top()].get(i); 
-		
-		return null; 
+	private SystemCommand searchCommand(CommandLine c) {  
+		String cname = c.getToken(1); 
+		SystemCommand firstWithName = null; 
+		for (int i=0; i<commandList[currentState.top()].size(); i++) { 
+			SystemCommand sc = commandList[currentState.top()].get(i); 
+			if (sc.getName().equals(cname)) { 
+				if (sc.getNumberOfOperands() == c.getNumberOfTokens() - 1)
+					return sc; 
+				if (firstWithName == null)
+					firstWithName = sc; 
+			}
+		}
+		return firstWithName; 
 	}
 
 	
+	/**
+	 * Sets where the output that commands show directly goes.
+	 * @param out the stream for that output
+	 */
+	public void setOutput(PrintStream out) { 
+		this.out = out; 
+	}
+	
 	protected void createCommandList(int nStates) { 
 		commandList = (ArrayList<SystemCommand>[]) new ArrayList[nStates]; 
 		for (int p=0; p<commandList.length; p++)
@@ -129,10 +151,10 @@ public abstract class CommandProcessor {
 	protected class HelpProcessor implements CommandActionHandler { 
 		public HelpProcessor() {}
 		public ArrayList<String> execute(Command c) { 
-			System.out.println("Current state is " + currentState.top()); 
-			System.out.println("Available commands are: ");
+			out.println("Current state is " + currentState.top()); 
+			out.println("Available commands are: ");
 			for (int i=0; i<commandList[currentState.top()].size(); i++)
-				System.out.println("\t"+ commandList[currentState.top()].get(i)); 
+				out.println("\t"+ commandList[currentState.top()].get(i)); 
 				
 			return null; 
 		} 
@@ -0,0 +1,24 @@
+package systemGeneralClasses;
+
+import java.util.ArrayList;
+
+/**
+ * Source of the lines of output of a command that were all produced
+ * beforehand, as the list returned by its CommandActionHandler.
+ * @author josej
+ *
+ */
+public class ListResultsSource implements ResultsSource { 
+	private ArrayList<String> resultsList; 
+
+	/**
+	 * @param rList the lines of output
+	 */
+	public ListResultsSource(ArrayList<String> rList) { 
+		resultsList = rList; 
+	}
+
+	public String getLine(int index) { 
+		return index >= 0 && index < resultsList.size() ? resultsList.get(index) : null; 
+	}
+}
@@ -0,0 +1,17 @@
+package systemGeneralClasses;
+
+/**
+ * Specifies the type of object that gives the lines of output of 
+ * a command as they are shown, so that the lines that are never 
+ * shown need not be produced, nor all of them kept at once.
+ * @author josej
+ *
+ */
+public interface ResultsSource { 
+	/**
+	 * Returns a line of the output. 
+	 * @param index the number of the line, starting at 0
+	 * @return the line, or null if the output has no such line.
+	 */
+	String getLine(int index); 
+}
@@ -1,6 +1,16 @@
 package systemGeneralClasses;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
 
 import theSystem.IOCommandsProcessor;
 import theSystem.SystemCommandsProcessor;
@@ -15,20 +25,44 @@ import theSystem.SystemCommandsProcessor;
 public class SystemController {
 	private static final int PROCMODE = 0; 
 	private static final int OUTPUTMODE = 1; 
+	private static final int OUTPUT_BUFFER = 1 << 16;   // bytes of output buffered by a script
 	private SystemCommandsProcessor sys; 
 	private IOCommandsProcessor io; 
 	private CommandProcessor actualProcessor; 
 	private ArrayList<String> outputList; 
 	private int currentMode;
+	private PrintStream out;    // where all output goes
 	
 	public SystemController() { 
-	     sys = new SystemCommandsProcessor(); 
-	     io = new IOCommandsProcessor(); 
+	     this(new SystemCommandsProcessor(), System.in, System.out); 
+	} 
+	
+	/**
+	 * Creates the controller of one session of the system, which reads
+	 * the commands of its user from in and shows their output in out.
+	 * @param sys the processor of the commands of the session
+	 * @param in where the commands come from
+	 * @param out where the output goes
+	 */
+	public SystemController(SystemCommandsProcessor sys, InputStream in, PrintStream out) { 
+	     this.sys = sys; 
+	     io = new IOCommandsProcessor(in); 
 	     currentMode = PROCMODE; 
+	     setOutput(out); 
 	} 
 	
+	private void setOutput(PrintStream out) { 
+		this.out = out; 
+		sys.setOutput(out); 
+		io.setOutput(out); 
+	}
+	
 	/**
-	 * starts execution of system's controller object.
+	 * starts execution of system's controller object. If the input
+	 * ends, it is taken as if exit was given until the system shuts 
+	 * down. Each command is executed while holding the lock of the
+	 * disks of the system (see SystemCommandsProcessor.getLock()); 
+	 * paging through output, while holding it for reading.
 	 */
 	public void start() { 
 		CommandLine cLine; 
@@ -36,14 +70,150 @@ public class SystemController {
 		{
 			// read next command line
 			cLine = io.readCommandLine();  
+			if (cLine == null) 
+				cLine = new CommandLine("exit"); 
 
 			// process the attempted command -- the content of cLine...
-			processCommand(cLine); 
+			Lock lock = currentMode == OUTPUTMODE ? sys.getReadLock() : sys.getLock(cLine); 
+			lock.lock(); 
+			try { 
+				processCommand(cLine); 
+			} finally { 
+				lock.unlock(); 
+			}
 			
 		}    // end execution cycle --while
+		out.flush(); 
 		
 	}    // end start
 
+	/**
+	 * Executes the commands in a script file, one per line, without
+	 * prompts or paging: the whole output of each command is written,
+	 * through a buffer that is flushed when the script ends. Blank lines
+	 * and lines that begin with '#' are skipped. A command fails if it
+	 * is not valid, its output begins with an error message or it throws
+	 * an exception. When the script ends, or a command fails and 
+	 * stopOnError is true, the system is shut down if the script didn't,
+	 * even if the script can't be read, so that the disks are left whole; 
+	 * then the number of commands and the time taken by each kind of 
+	 * command are shown.
+	 * @param script the file with the commands
+	 * @param stopOnError true to stop at the first command that fails,
+	 * false to go on with the rest of the script
+	 * @return the number of commands that failed
+	 * @throws IOException whenever the script can't be read.
+	 */
+	public int runScript(File script, boolean stopOnError) throws IOException { 
+		BufferedReader in = new BufferedReader(new FileReader(script)); 
+		PrintStream console = out; 
+		setOutput(new PrintStream(new BufferedOutputStream(console, OUTPUT_BUFFER), false)); 
+		// for each command name: times executed, total and longest nanoseconds
+		LinkedHashMap<String, long[]> timings = new LinkedHashMap<String, long[]>(); 
+		int commands = 0; 
+		int errors = 0; 
+		long start = System.nanoTime(); 
+		try { 
+			try { 
+				String line; 
+				int lineNumber = 0; 
+				while (!sys.inShutdownMode() && (line = in.readLine()) != null) { 
+					lineNumber++; 
+					CommandLine cLine = new CommandLine(line); 
+					if (cLine.getNumberOfTokens() == 0 || cLine.getToken(1).startsWith("#"))
+						continue; 
+
+					long begin = System.nanoTime(); 
+					boolean ok = runScriptCommand(cLine); 
+					long time = System.nanoTime() - begin; 
+					long[] t = timings.get(cLine.getToken(1)); 
+					if (t == null) 
+						timings.put(cLine.getToken(1), t = new long[3]); 
+					t[0]++; 
+					t[1] += time; 
+					t[2] = Math.max(t[2], time); 
+					commands++; 
+
+					if (!ok) { 
+						errors++; 
+						if (stopOnError) { 
+							out.println("Script stopped at line " + lineNumber + ": " + line.trim()); 
+							break; 
+						}
+					}
+				}
+			} finally { 
+				// the disks are unmounted, and so written, whatever happened
+				if (!sys.inShutdownMode()) 
+					runScriptCommand(new CommandLine("exit")); 
+			}
+
+			out.println(String.format("%d commands, %d failed, in %.3f s.", 
+					commands, errors, (System.nanoTime() - start) / 1e9)); 
+			out.println(String.format("%-12s %8s %12s %10s %10s", 
+					"command", "count", "total ms", "avg ms", "max ms")); 
+			for (Map.Entry<String, long[]> e : timings.entrySet()) { 
+				long[] t = e.getValue(); 
+				out.println(String.format("%-12s %8d %12.3f %10.3f %10.3f", e.getKey(), 
+						t[0], t[1] / 1e6, t[1] / 1e6 / t[0], t[2] / 1e6)); 
+			}
+		} finally { 
+			in.close(); 
+			out.flush(); 
+			setOutput(console); 
+		}
+		return errors; 
+	}
+
+	/**
+	 * Executes one command of a script while holding the lock of the
+	 * disks it uses. An exception thrown by the command is shown as an 
+	 * error instead of ending the script.
+	 * @param cLine the command
+	 * @return true if the command succeeded, false otherwise.
+	 */
+	private boolean runScriptCommand(CommandLine cLine) { 
+		Lock lock = sys.getLock(cLine); 
+		lock.lock(); 
+		try { 
+			return processScriptCommand(cLine); 
+		} catch (RuntimeException e) { 
+			out.println("Error: The command failed: " + e); 
+			return false; 
+		} finally { 
+			lock.unlock(); 
+		}
+	}
+
+	/**
+	 * Validates and executes one command of a script, writing all of
+	 * its output.
+	 * @param cLine the command
+	 * @return true if the command was executed and its output doesn't
+	 * begin with an error message, false otherwise.
+	 */
+	private boolean processScriptCommand(CommandLine cLine) { 
+		ErrMsg errMsg = new ErrMsg(); 
+		sys.preProcessCommand(cLine, errMsg); 
+		if (cLine.getSc() == null) { 
+			out.println(errMsg.isEmpty() ? 
+					"Invalid command for the current system mode. " : errMsg.getMessage()); 
+			return false; 
+		}
+		outputList = sys.executeCommand(cLine.getSc(), makeCommand(cLine)); 
+		ResultsSource source = sys.takeResultsSource(); 
+		if (source == null && outputList != null) 
+			source = new ListResultsSource(outputList); 
+		boolean ok = true; 
+		String text; 
+		for (int line = 0; source != null && (text = source.getLine(line)) != null; line++) { 
+			if (line == 0 && (text.startsWith("Error") || text.equals("No disk mounted."))) 
+				ok = false; 
+			out.println(text); 
+		}
+		return ok; 
+	}
+
 	/**
 	 * Initi
 	 * @param cLine
@@ -69,10 +239,14 @@ public class SystemController {
 			// initiate execution of command
 			SystemCommand matchingSC = cLine.getSc(); 
 			outputList = actualProcessor.executeCommand( matchingSC, cmd ); 
-			// show results...
-			if (outputList != null && !outputList.isEmpty()) { 
+			// show results... either the list, or the lines the command 
+			// left to be produced as they are shown
+			ResultsSource source = actualProcessor == sys ? sys.takeResultsSource() : null; 
+			if (source == null && outputList != null && !outputList.isEmpty()) 
+				source = new ListResultsSource(outputList); 
+			if (source != null) { 
 				currentMode = OUTPUTMODE; 
-				io.setResultsList(outputList);
+				io.setResultsSource(source);
 				io.processOutput(); 
 			}
 			if (!io.hasMoreOutputToProcess())
@@ -82,10 +256,10 @@ public class SystemController {
 			// the output here is direct since it is due to invalid commands
 			outputList = null;
 			if (!errMsg.isEmpty()) { 
-				System.out.println(errMsg.getMessage());
+				out.println(errMsg.getMessage());
 			}
 			else 
-				System.out.println("Invalid command for the current system mode. "); 
+				out.println("Invalid command for the current system mode. "); 
 		} 
 		
 	}
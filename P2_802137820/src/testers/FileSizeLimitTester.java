@@ -0,0 +1,64 @@
+package testers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.InvalidParameterException;
+
+import diskUtilities.DiskChecker;
+import diskUtilities.DiskUnit;
+import diskUtilities.FileManager;
+
+public class FileSizeLimitTester {
+	// a sparse disk of 4 GB, larger than the size an i-node can hold
+	private static final String DISK = "sizeLimitTester";
+	private static final int CAPACITY = 1 << 12;
+	private static final int BLOCK_SIZE = 1 << 20;
+
+	public static void main(String[] args) throws IOException {
+		new File("src\\DiskUnits\\" + DISK).delete();
+		DiskUnit.createDiskUnit(DISK, CAPACITY, BLOCK_SIZE, DiskUnit.FREE_BLOCK_BITMAP, 
+				DiskUnit.INODE_EXTENTS, DiskUnit.DIRECTORY_HASHED, true);
+		DiskUnit disk = DiskUnit.mount(DISK, false, 0);
+		FileManager files = new FileManager(disk);
+		test(files, "small", 100, true);
+		files.delete("small");
+		disk.shutdown();
+		int usedBlocks = DiskUnit.check(DISK).getUsedBlocks();
+
+		disk = DiskUnit.mount(DISK, false, 0);
+		files = new FileManager(disk);
+		test(files, "over", (long) Integer.MAX_VALUE + 1, false);
+		test(files, "wraps", (1L << 32) + 100, false);
+		disk.shutdown();
+
+		// nothing taken for the files that were refused
+		DiskChecker checker = DiskUnit.check(DISK);
+		System.out.print("Used blocks: " + checker.getUsedBlocks() + "  \tExpected: " + usedBlocks + 
+				"  \tProblems: " + checker.getProblemCount());
+		System.out.println(checker.getUsedBlocks() == usedBlocks && checker.getProblemCount() == 0 ? 
+				"  \tSUCCESS!" : "  \tTest FAILED");
+		new File("src\\DiskUnits\\" + DISK).delete();
+	}
+
+	private static void test(FileManager files, String name, long length, boolean fits) throws IOException {
+		// a sparse external file of the given length
+		File external = File.createTempFile(name, null);
+		RandomAccessFile f = new RandomAccessFile(external, "rw");
+		f.setLength(length);
+		f.close();
+
+		boolean loaded;
+		try {
+			files.loadFile(external, name);
+			loaded = true;
+		} catch (InvalidParameterException e) {
+			loaded = false;
+		}
+		external.delete();
+
+		boolean ok = loaded == fits && (files.findFile(name) != -1) == fits;
+		System.out.print("Length: " + length + "  \tLoaded: " + loaded + "  \tExpected: " + fits);
+		System.out.println(ok ? "  \tSUCCESS!" : "  \tTest FAILED");
+	}
+}
@@ -0,0 +1,105 @@
+package theSystem;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import systemGeneralClasses.SystemController;
+
+/**
+ * Serves the system to clients that connect to a port of the loopback
+ * address. Each connection is a session with its own thread, current
+ * disk, current directories and paging of output, and its user types
+ * commands as in the console. The disks are shared by all the sessions
+ * through one MountTable; commands of different sessions that only
+ * read the disks are executed at the same time, and any other command
+ * is executed alone.
+ *
+ * A session ends when its user gives exit or closes the connection,
+ * unmounting the disks it mounted unless other sessions still use
+ * them. The disks that remain mounted are shut down when the server
+ * is stopped.
+ * @author josej
+ *
+ */
+public class CommandServer {
+	/** Port the server listens to when none is given. **/
+	public static final int DEFAULT_PORT = 4545;
+	private static final int OUTPUT_BUFFER = 1 << 13;	//bytes of output buffered per session
+
+	private ServerSocket server;						//accepts the connections
+	private MountTable mounts;							//the disks shared by the sessions
+	private ExecutorService sessions;					//one thread per session
+
+	/**
+	 * @param port the port of the loopback address to listen to
+	 * @throws IOException whenever the port can't be listened to.
+	 */
+	public CommandServer(int port) throws IOException {
+		server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		mounts = new MountTable();
+		sessions = Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * Accepts connections and starts a session for each one, until
+	 * the process is stopped.
+	 */
+	public void serve() {
+		Runtime.getRuntime().addShutdownHook(new Thread(){
+			public void run(){
+				// the lock is kept, so no command runs on the disks afterwards
+				mounts.getLock().writeLock().lock();
+				mounts.unmountAll();
+			}
+		});
+		System.out.println("Listening on " + server.getLocalSocketAddress() + ".");
+		while(!server.isClosed()){
+			try {
+				final Socket client = server.accept();
+				sessions.execute(new Runnable(){
+					public void run(){
+						runSession(client);
+					}
+				});
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Executes the commands of one client until it gives exit or
+	 * closes the connection.
+	 */
+	private void runSession(Socket client) {
+		SystemCommandsProcessor sys = new SystemCommandsProcessor(mounts);
+		try {
+			PrintStream out = new PrintStream(new BufferedOutputStream(
+					client.getOutputStream(), OUTPUT_BUFFER), false);
+			new SystemController(sys, client.getInputStream(), out).start();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		} finally {
+			// a session that ended abruptly leaves its disks to the others
+			mounts.getLock().writeLock().lock();
+			try {
+				sys.unmountAll();
+			} finally {
+				mounts.getLock().writeLock().unlock();
+			}
+			try {
+				client.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
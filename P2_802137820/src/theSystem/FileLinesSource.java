@@ -0,0 +1,115 @@
+package theSystem;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+
+import diskUtilities.ContentReader;
+import systemGeneralClasses.ResultsSource;
+
+/**
+ * Source of the lines of an internal file, read from its blocks as
+ * they are shown. Lines end with '\n'; a line longer than MAX_LINE
+ * bytes is shown as several lines. Only one page of PAGE_LINES lines
+ * is kept at a time. The position in the file where each page begins
+ * is remembered once the page has been reached, and marked in the
+ * reader, so going back to an earlier page reads just that page again.
+ *
+ * The file may be changed by another session between pages, since
+ * each page is read under its own hold of the lock of the disks. A
+ * page is only read while the file has the blocks it had when it was
+ * opened; otherwise the lines end with CHANGED instead.
+ * @author josej
+ *
+ */
+public class FileLinesSource implements ResultsSource {
+	/** Number of lines read from the file at a time. **/
+	public static final int PAGE_LINES = 64;
+	/** Most bytes of the file shown as one line. **/
+	public static final int MAX_LINE = 4096;
+	/** Line shown in place of those of a file changed while shown. **/
+	public static final String CHANGED = "Error: The file has been changed or removed.";
+
+	private ContentReader reader;				//the content of the file
+	private ArrayList<Integer> pageStarts;		//position in the file of each page reached
+	private ArrayList<String> page;				//the lines of the page read last
+	private int pageNumber;						//number of that page, -1 if none
+	private byte[] chunk;						//bytes of the file read at a time
+	private int chunkStart;						//position in the file of chunk[0]
+	private int chunkLength;					//number of valid bytes in chunk
+	private int changedAt;						//line showing CHANGED, -1 if the file hasn't changed
+
+	/**
+	 * @param reader the content of the file, to be read from its start
+	 */
+	public FileLinesSource(ContentReader reader) {
+		this.reader = reader;
+		pageStarts = new ArrayList<Integer>();
+		pageStarts.add(0);
+		page = new ArrayList<String>();
+		pageNumber = -1;
+		chunk = new byte[MAX_LINE];
+		changedAt = -1;
+	}
+
+	public String getLine(int index) {
+		if (index < 0)
+			return null;
+		if (changedAt != -1 && index >= changedAt)
+			return index == changedAt ? CHANGED : null;
+		int wanted = index / PAGE_LINES;
+		if (wanted != pageNumber) {
+			if (!reader.isCurrent()) {
+				// the lines shown so far stay, the rest can't be trusted
+				changedAt = changedAt == -1 ? index : Math.min(changedAt, index);
+				return CHANGED;
+			}
+			// pages are found in order, each one from the end of the previous one
+			int p = Math.min(wanted, pageStarts.size() - 1);
+			readPage(p);
+			while (p < wanted && page.size() == PAGE_LINES)
+				readPage(++p);
+			if (p < wanted)
+				return null;
+		}
+		int line = index % PAGE_LINES;
+		return line < page.size() ? page.get(line) : null;
+	}
+
+	/**
+	 * Reads the lines of page p, whose start is known, and remembers
+	 * where page p + 1 starts.
+	 */
+	private void readPage(int p) {
+		page.clear();
+		pageNumber = p;
+		int position = pageStarts.get(p);
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		while (page.size() < PAGE_LINES && position < reader.getSize()) {
+			line.reset();
+			boolean ended = false;
+			while (!ended && position < reader.getSize() && line.size() < MAX_LINE) {
+				byte b = byteAt(position++);
+				if (b == '\n')
+					ended = true;
+				else
+					line.write(b);
+			}
+			// a long line that ends right where it is cut doesn't leave an empty one
+			if (!ended && position < reader.getSize() && byteAt(position) == '\n')
+				position++;
+			page.add(line.toString());
+		}
+		if (p + 1 == pageStarts.size() && page.size() == PAGE_LINES) {
+			pageStarts.add(position);
+			reader.mark(position);
+		}
+	}
+
+	private byte byteAt(int position) {
+		if (position < chunkStart || position >= chunkStart + chunkLength) {
+			chunkStart = position;
+			chunkLength = reader.read(position, chunk, 0, chunk.length);
+		}
+		return chunk[position - chunkStart];
+	}
+}
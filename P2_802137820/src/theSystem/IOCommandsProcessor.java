@@ -1,5 +1,6 @@
 package theSystem;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Scanner;
 
@@ -9,6 +10,8 @@ import systemGeneralClasses.CommandActionHandler;
 import systemGeneralClasses.CommandLine;
 import systemGeneralClasses.CommandProcessor;
 import systemGeneralClasses.FixedLengthCommand;
+import systemGeneralClasses.ListResultsSource;
+import systemGeneralClasses.ResultsSource;
 import systemGeneralClasses.SystemCommand;
 
 /**
@@ -17,7 +20,8 @@ import systemGeneralClasses.SystemCommand;
  *
  */
 public class IOCommandsProcessor extends CommandProcessor {
-	private ArrayList<String> resultsList;
+	private ResultsSource resultsSource;
+	// the lines of output, which may be produced as they are shown
 	private int outputBlockLength; // the size of current output block settings
 	private int currentIndex; 
 	// the current index from where to resume next time the "showNextBlock"
@@ -27,9 +31,17 @@ public class IOCommandsProcessor extends CommandProcessor {
 	// this field is false whenever there is no output in progress
 	
     // all input needed shall be done through this scanner
-	private Scanner in = new Scanner(System.in); 
+	private Scanner in; 
 	
 	public IOCommandsProcessor() { 		
+		this(System.in); 
+	}
+	
+	/**
+	 * @param input where the user's commands are read from
+	 */
+	public IOCommandsProcessor(InputStream input) { 		
+		in = new Scanner(input); 
 		currentState = new IntStack(); 
 		
 		// the system starts in sate GENERALSTATE - upper class static field
@@ -54,12 +66,16 @@ public class IOCommandsProcessor extends CommandProcessor {
 	/**
 	 * Prompts and reads the next user's command. If needed, the reading is repeated
 	 * until the input has some content. 
-	 * @return The whole line of input as an object of type CommandLine. 
+	 * @return The whole line of input as an object of type CommandLine,
+	 * or null if the input has ended. 
 	 */
 	public CommandLine readCommandLine() { 
 		CommandLine cLine; 
 		do { 
-			System.out.print("COMMAND: "); 
+			out.print("COMMAND: "); 
+			out.flush(); 
+			if (!in.hasNextLine())
+				return null; 
 			cLine = new CommandLine( in.nextLine() ); 
 		} while (cLine.getNumberOfTokens() == 0);
 		return cLine; 
@@ -72,7 +88,17 @@ public class IOCommandsProcessor extends CommandProcessor {
 	 * @param rList the list
 	 */
 	public void setResultsList(ArrayList<String> rList) { 
-		resultsList = rList; 
+		setResultsSource(new ListResultsSource(rList)); 
+	}
+	
+	/**
+	 * Initializes the source of the lines whose output is controlled
+	 * by this OutputProcessor object. Lines are asked for as they are
+	 * shown. 
+	 * @param source the source
+	 */
+	public void setResultsSource(ResultsSource source) { 
+		resultsSource = source; 
 		currentIndex = 0; 
 	}
 	
@@ -95,24 +121,24 @@ public class IOCommandsProcessor extends CommandProcessor {
 	 */
 	private void showNextBlock() { 
 		boolean moreLinesToShow = true; 
-		int lastLineToShow = 
-			Math.min(resultsList.size()-1, currentIndex+outputBlockLength-1); 
 		int firstLineToShow = currentIndex;
-		currentIndex = lastLineToShow+1; 
 		for (int line = firstLineToShow, count = 1; 
 			count <= outputBlockLength && moreLinesToShow; 
 			line++, count++)
 		{ 
 			try { 
-				if (line <= lastLineToShow)
-					System.out.println(resultsList.get(line)); 
+				String text = resultsSource.getLine(line); 
+				if (text != null) { 
+					out.println(text); 
+					currentIndex = line+1; 
+				}
 				else { 
-					System.out.println("--END HAS ALREADY BEEN REACHED--"); 
+					out.println("--END HAS ALREADY BEEN REACHED--"); 
 					moreLinesToShow = false; 
 				}
 			}
 			catch (Exception e) { 
-				System.out.println(e); 
+				out.println(e); 
 			}
 		}				
 	}
@@ -132,14 +158,14 @@ public class IOCommandsProcessor extends CommandProcessor {
 		{ 
 			try { 
 				if (line <= lastLineToShow)
-					System.out.println(resultsList.get(line)); 
+					out.println(resultsSource.getLine(line)); 
 				else { 
-					System.out.println("--TOP HAS ALREADY BEEN REACHED--"); 
+					out.println("--TOP HAS ALREADY BEEN REACHED--"); 
 					moreLinesToShow = false; 
 				}
 			}
 			catch (Exception e) { 
-				System.out.println(e); 
+				out.println(e); 
 			}
 		}				
 
@@ -151,7 +177,7 @@ public class IOCommandsProcessor extends CommandProcessor {
 	}
 	
 	private boolean hasMoreResultsNext() { 
-		return currentIndex < resultsList.size(); 
+		return resultsSource.getLine(currentIndex) != null; 
 	}
 	*/
 	
@@ -197,7 +223,7 @@ public class IOCommandsProcessor extends CommandProcessor {
 	}
 
 	public void processOutput() {
-		if (this.outputBlockLength < resultsList.size()) { 
+		if (resultsSource.getLine(this.outputBlockLength) != null) { 
 			hasOutputToProcess = true; 
 			this.showNextBlock(); 
 		} 
@@ -206,8 +232,8 @@ public class IOCommandsProcessor extends CommandProcessor {
 	}
 
 	private void showAllOutput() {	
-		for (int line = 0; line < resultsList.size(); line++)
-			System.out.println(resultsList.get(line)); 
+		for (int line = 0; resultsSource.getLine(line) != null; line++)
+			out.println(resultsSource.getLine(line)); 
 	}
 
 	public boolean hasMoreOutputToProcess() {
@@ -0,0 +1,152 @@
+package theSystem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the throughput of a CommandServer: opens a number of
+ * sessions at once, and each one sends the commands of a file, one
+ * at a time, waiting for the output of each before sending the next,
+ * and then exit. The number of commands executed per second and the
+ * time the sessions waited for them are shown at the end.
+ *
+ * The commands are sent as they are, so a command whose output is
+ * long enough to be paged must be followed by exit in the file.
+ * Usage: LoadClient sessions file [port]
+ * @author josej
+ *
+ */
+public class LoadClient {
+	private static final byte[] PROMPT = "COMMAND: ".getBytes();
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 2){
+			System.out.println("Usage: LoadClient sessions file [port]");
+			return;
+		}
+		int sessions = Integer.parseInt(args[0]);
+		final int port = args.length >= 3 ? Integer.parseInt(args[2]) : CommandServer.DEFAULT_PORT;
+		final ArrayList<String> commands = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new FileReader(args[1]));
+		for(String line = in.readLine(); line != null; line = in.readLine())
+			if(!line.trim().isEmpty())
+				commands.add(line);
+		in.close();
+
+		final long[][] times = new long[sessions][];		//time of each command of each session
+		final int[] errors = new int[sessions];				//commands whose output was an error
+		final CountDownLatch ready = new CountDownLatch(sessions);
+		final CountDownLatch go = new CountDownLatch(1);
+		Thread[] threads = new Thread[sessions];
+		for(int s = 0; s < sessions; s++){
+			final int session = s;
+			threads[s] = new Thread(){
+				public void run(){
+					try {
+						times[session] = runSession(port, commands, ready, go, errors, session);
+					} catch (Exception e) {
+						e.printStackTrace();
+						times[session] = new long[0];
+					}
+				}
+			};
+			threads[s].start();
+		}
+		ready.await();
+		long start = System.nanoTime();
+		go.countDown();
+		for(Thread t : threads)
+			t.join();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		int executed = 0;
+		int failed = 0;
+		for(int s = 0; s < sessions; s++){
+			executed += times[s].length;
+			failed += errors[s];
+		}
+		long[] all = new long[executed];
+		for(int s = 0, i = 0; s < sessions; i += times[s].length, s++)
+			System.arraycopy(times[s], 0, all, i, times[s].length);
+		Arrays.sort(all);
+		long total = 0;
+		for(long t : all)
+			total += t;
+		System.out.println(String.format("%d sessions, %d commands (%d errors) in %.3f s: %.1f commands/s.",
+				sessions, executed, failed, seconds, executed / seconds));
+		if(executed > 0)
+			System.out.println(String.format("Latency: mean %.3f ms, 99%% %.3f ms, max %.3f ms.",
+					total / 1e6 / executed, all[(int) (executed * 0.99)] / 1e6, all[executed - 1] / 1e6));
+	}
+
+	/**
+	 * Connects a session, waits until every session is connected, and
+	 * sends the commands.
+	 * @return the nanoseconds each command took
+	 */
+	private static long[] runSession(int port, ArrayList<String> commands, CountDownLatch ready,
+			CountDownLatch go, int[] errors, int session) throws IOException, InterruptedException {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			StringBuilder output = new StringBuilder();
+			readOutput(in, output);
+			ready.countDown();
+			go.await();
+
+			long[] times = new long[commands.size()];
+			for(int c = 0; c < commands.size(); c++){
+				long start = System.nanoTime();
+				out.write((commands.get(c) + "\n").getBytes());
+				out.flush();
+				if(!readOutput(in, output))
+					return Arrays.copyOf(times, c);
+				times[c] = System.nanoTime() - start;
+				if(output.indexOf("Error") == 0)
+					errors[session]++;
+			}
+			out.write("exit\n".getBytes());
+			out.flush();
+			while(readOutput(in, output))
+				;
+			return times;
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Reads the output of a command up to the next prompt.
+	 * @param output receives the output, without the prompt
+	 * @return true if the prompt was read, false if the session ended.
+	 */
+	private static boolean readOutput(InputStream in, StringBuilder output) throws IOException {
+		output.setLength(0);
+		int matched = 0;
+		for(int b = in.read(); b != -1; b = in.read()){
+			if(b == PROMPT[matched]){
+				if(++matched == PROMPT.length)
+					return true;
+			}
+			else{
+				output.append(new String(PROMPT, 0, matched));
+				matched = 0;
+				if(b == PROMPT[0])
+					matched = 1;
+				else
+					output.append((char) b);
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,114 @@
+package theSystem;
+
+import java.util.HashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import diskExceptions.NonExistingDiskException;
+import diskUtilities.DiskManager;
+import diskUtilities.DiskUnit;
+import diskUtilities.FileManager;
+
+/**
+ * The disks that exist and the ones that are mounted, shared by every
+ * session of the system (see SystemCommandsProcessor). A disk is
+ * mounted once, by the first session that mounts it, and the other
+ * sessions that mount it use the same FileManager; it is shut down
+ * when the last of them unmounts it.
+ *
+ * Sessions execute their commands while holding the lock of the table:
+ * commands that only read the disks share its read lock, so they run
+ * at the same time, while the others take its write lock and run alone
+ * (see SystemCommandsProcessor.getLock()).
+ * @author josej
+ *
+ */
+public class MountTable {
+	private DiskManager diskManager;					//names of the disks that exist
+	private HashMap<String, FileManager> disks;			//the mounted disks by name
+	private HashMap<String, Integer> sessions;			//number of sessions using each mounted disk
+	private ReadWriteLock lock;							//held by the sessions while executing commands
+
+	public MountTable(){
+		diskManager = new DiskManager();
+		disks = new HashMap<String, FileManager>();
+		sessions = new HashMap<String, Integer>();
+		lock = new ReentrantReadWriteLock();
+	}
+
+	/**
+	 * Returns the manager of the names of the disks that exist.
+	 * @return the disk manager
+	 */
+	public DiskManager getDiskManager(){
+		return diskManager;
+	}
+
+	/**
+	 * Returns the lock to hold while executing a command on the disks
+	 * of this table: its read lock for a command that only reads them,
+	 * its write lock otherwise.
+	 * @return the lock
+	 */
+	public ReadWriteLock getLock(){
+		return lock;
+	}
+
+	/**
+	 * Tells whether a disk is mounted by any session.
+	 * @param name the name of the disk
+	 * @return true if it is mounted, false otherwise.
+	 */
+	public boolean isMounted(String name){
+		return disks.containsKey(name);
+	}
+
+	/**
+	 * Mounts a disk for one more session. If another session has it
+	 * mounted already, the disk is shared as it is, and the cache
+	 * parameters are ignored.
+	 * @param name the name of the disk
+	 * @param cacheBlocks the number of blocks to cache, 0 for none
+	 * @param writeBack true to write changed blocks only when the disk
+	 * is synced or unmounted, false to write them right away
+	 * @return the manager of the files of the disk
+	 * @throws NonExistingDiskException whenever the disk doesn't exist.
+	 */
+	public FileManager mount(String name, int cacheBlocks, boolean writeBack)
+			throws NonExistingDiskException{
+		FileManager fileManager = disks.get(name);
+		if(fileManager == null){
+			fileManager = new FileManager(DiskUnit.mount(name, true, cacheBlocks, writeBack));
+			disks.put(name, fileManager);
+			sessions.put(name, 0);
+			diskManager.diskMounted(name);
+		}
+		sessions.put(name, sessions.get(name) + 1);
+		return fileManager;
+	}
+
+	/**
+	 * Unmounts a disk for one session. The disk is shut down if no
+	 * other session has it mounted.
+	 * @param name the name of the disk, which must be mounted
+	 */
+	public void unmount(String name){
+		int users = sessions.get(name) - 1;
+		if(users > 0)
+			sessions.put(name, users);
+		else{
+			sessions.remove(name);
+			disks.remove(name).getDiskUnit().shutdown();
+		}
+	}
+
+	/**
+	 * Shuts down every mounted disk, whichever sessions use it.
+	 */
+	public void unmountAll(){
+		for(FileManager fileManager : disks.values())
+			fileManager.getDiskUnit().shutdown();
+		disks.clear();
+		sessions.clear();
+	}
+}
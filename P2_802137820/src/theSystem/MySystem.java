@@ -3,6 +3,7 @@
  */
 package theSystem;
 
+import java.io.File;
 import java.io.IOException;
 
 import systemGeneralClasses.SystemController;
@@ -14,13 +15,29 @@ import systemGeneralClasses.SystemController;
 public class MySystem {
 
 	/**
-	 * @param args main program
+	 * @param args main program; "--script file" executes the commands in
+	 * the file instead of reading them from the user, stopping at the 
+	 * first one that fails unless "--continue" follows; "--server [port]"
+	 * serves sessions of the system to local clients (see CommandServer).
 	 */
 	public static void main(String[] args) throws IOException  {
+		if (args.length >= 1 && args[0].equals("--server")) { 
+			int port = args.length >= 2 ? Integer.parseInt(args[1]) : CommandServer.DEFAULT_PORT; 
+			new CommandServer(port).serve(); 
+			return; 
+		}
 		SystemController system = new SystemController(); 
-		system.start(); 
+		int errors = 0; 
+		if (args.length >= 2 && args[0].equals("--script")) { 
+			boolean stopOnError = !(args.length >= 3 && args[2].equals("--continue")); 
+			errors = system.runScript(new File(args[1]), stopOnError); 
+		}
+		else 
+			system.start(); 
 		// the system is shutting down...
 		System.out.println("+++++ SYSTEM SHUTDOWN +++++"); 
+		if (errors > 0) 
+			System.exit(1); 
 	}
 
 }
@@ -1,16 +1,37 @@
 package theSystem;
 
 import java.io.File;
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import diskExceptions.FullDiskException;
 import diskExceptions.NonExistingDiskException;
+import diskUtilities.BlockCache;
+import diskUtilities.DentryCache;
+import diskUtilities.Directory;
+import diskUtilities.DiskChecker;
+import diskUtilities.DiskInfo;
 import diskUtilities.DiskManager;
 import diskUtilities.DiskUnit;
-import diskUtilities.VirtualDiskBlock;
+import diskUtilities.FileManager;
+import diskUtilities.FormatProgress;
+import diskUtilities.INode;
+import diskUtilities.Utils;
 import systemGeneralClasses.Command;
 import systemGeneralClasses.CommandActionHandler;
+import systemGeneralClasses.CommandLine;
 import systemGeneralClasses.CommandProcessor;
 import systemGeneralClasses.FixedLengthCommand;
+import systemGeneralClasses.ResultsSource;
 import systemGeneralClasses.SystemCommand;
 import stack.IntStack;
 
@@ -29,6 +50,10 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	// command is entered. The results depend on the particular command. 
 	private ArrayList<String> resultsList; 
 
+	// The lines of output of the last command when they are produced
+	// as they are shown rather than placed in resultsList; null otherwise.
+	private ResultsSource resultsSource; 
+
 	SystemCommand attemptedSC; 
 	// The system command that looks like the one the user is
 	// trying to execute. 
@@ -44,9 +69,20 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	// The following represents the object that will be capable of
 	// managing the different lists that are created by the system
 	// to be implemented as a lab exercise. 
-	private DiskManager diskManager = new DiskManager();
-	private DiskUnit mountedDisk = null;
+	// the disks that exist and the ones mounted, shared with the other
+	// sessions of the system, if any
+	private MountTable mounts;
+	private DiskManager diskManager;
+	// the disks mounted by this session by name; files are found in the
+	// current disk unless their name is given as "disk:file"
+	private HashMap<String, FileManager> mountedDisks = new HashMap<String, FileManager>();
 	private String mountedDiskName = "null";
+	// the commands that only read the disks, which the sessions sharing
+	// them may execute at the same time
+	private static final HashSet<String> READ_ONLY = new HashSet<String>(Arrays.asList(
+			"ls", "cat", "cd", "pwd", "showdisks", "dparams", "cachestats", "help"));
+	// the current directory of each mounted disk, as a path from its root
+	private HashMap<String, String> workingDirectories = new HashMap<String, String>();
 
 
 	/**
@@ -54,6 +90,18 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	 *  states the system can be in. 
 	 */
 	public SystemCommandsProcessor() {
+		this(new MountTable()); 
+	}
+
+	/**
+	 *  Initializes a session of the system that shares its disks with
+	 *  the other sessions that use the same table of mounted disks.
+	 *  @param mounts the table of disks of the system
+	 */
+	public SystemCommandsProcessor(MountTable mounts) {
+
+		this.mounts = mounts; 
+		diskManager = mounts.getDiskManager(); 
 
 		// stack of states
 		currentState = new IntStack(); 
@@ -71,15 +119,34 @@ public class SystemCommandsProcessor extends CommandProcessor {
 		// commands for the state GENERALSTATE	
 
 		add(GENERALSTATE, SystemCommand.getFLSC("createdisk name int int", new CreateDiskProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("createdisk name int int name", new CreateDiskProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("createdisk name int int name name", new CreateDiskProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("deletedisk name", new DeleteDiskProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("format name", new FormatProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("format name name", new FormatProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("fsck name", new CheckDiskProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("mount name", new MountProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("mount name int", new MountProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("mount name int name", new MountProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("unmount ", new UnmountProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("unmount name", new UnmountProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("showdisks", new ShowDisksProcessor()));
-		add(GENERALSTATE, SystemCommand.getFLSC("loadfile name name", new LoadFileProcessor()));
-		add(GENERALSTATE, SystemCommand.getFLSC("cp name name", new CopyFileProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("loadfile name path", new LoadFileProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("cp path path", new CopyFileProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("ls", new ShowDirectoryProcessor()));
-		add(GENERALSTATE, SystemCommand.getFLSC("cat name", new ShowFileContentProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("ls path", new ShowDirectoryProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("cat path", new ShowFileContentProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("mkdir path", new MakeDirectoryProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("cd path", new ChangeDirectoryProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("pwd", new WorkingDirectoryProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("rm path", new RemoveProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("mv path path", new MoveProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("dparams", new DiskParametersProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("dparams name", new DiskParametersProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("cachestats", new CacheStatsProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("cachestats name", new CacheStatsProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("sync", new SyncProcessor()));
+		add(GENERALSTATE, SystemCommand.getFLSC("sync name", new SyncProcessor()));
 		add(GENERALSTATE, SystemCommand.getFLSC("exit", new ShutDownProcessor())); 
 		add(GENERALSTATE, SystemCommand.getFLSC("help", new HelpProcessor())); 
 
@@ -99,6 +166,119 @@ public class SystemCommandsProcessor extends CommandProcessor {
 		return resultsList; 
 	}
 
+	/**
+	 * Returns the source of the lines of output that the last command
+	 * left to be produced as they are shown, and forgets it.
+	 * @return the source, or null if the output of the last command
+	 * is its list of results.
+	 */
+	public ResultsSource takeResultsSource() { 
+		ResultsSource source = resultsSource; 
+		resultsSource = null; 
+		return source; 
+	}
+
+	/**
+	 * Returns the lock to hold while executing a command of this 
+	 * session, which is shared by the sessions that share its disks:
+	 * commands that only read the disks take it for reading, and the
+	 * rest for writing.
+	 * @param cLine the command
+	 * @return the lock
+	 */
+	public Lock getLock(CommandLine cLine) { 
+		return cLine.getNumberOfTokens() > 0 && READ_ONLY.contains(cLine.getToken(1)) ? 
+				mounts.getLock().readLock() : mounts.getLock().writeLock(); 
+	}
+
+	/**
+	 * Returns the lock to hold while showing output that is read
+	 * from the disks as it is shown.
+	 * @return the lock, taken for reading
+	 */
+	public Lock getReadLock() { 
+		return mounts.getLock().readLock(); 
+	}
+
+	/**
+	 * Unmounts every disk mounted by this session. The disks stay 
+	 * mounted for other sessions that mounted them as well.
+	 */
+	public void unmountAll() { 
+		while (!mountedDisks.isEmpty())
+			unmount(mountedDiskName);
+	}
+
+	/**
+	 * Returns the manager of the files of the mounted disk that holds 
+	 * the file with the given path: the disk named before the ':', or
+	 * the current disk if there is no disk name.
+	 * @param path either "file" or "disk:file"
+	 * @return the file manager, or null if that disk is not mounted.
+	 */
+	private FileManager getFileManager(String path) { 
+		int colon = path.indexOf(':'); 
+		return mountedDisks.get(colon == -1 ? mountedDiskName : path.substring(0, colon)); 
+	}
+
+	/**
+	 * Returns the name of the disk of the given path.
+	 * @param path either "file" or "disk:file"
+	 * @return the name of the disk, the current one if none is given
+	 */
+	private String getDiskName(String path) { 
+		int colon = path.indexOf(':'); 
+		return colon == -1 ? mountedDiskName : path.substring(0, colon); 
+	}
+
+	/**
+	 * Returns the path of a file from the root directory of its disk. 
+	 * A path that doesn't begin with '/' starts at the current directory
+	 * of the disk; "." and ".." are replaced by the directories they
+	 * stand for. The disk must be mounted.
+	 * @param path either "file" or "disk:file", file being a path
+	 * @return the path from the root, which begins with '/'
+	 */
+	private String getFileName(String path) { 
+		String file = path.substring(path.indexOf(':') + 1); 
+		if (!file.startsWith("/")) 
+			file = workingDirectories.get(getDiskName(path)) + "/" + file; 
+		ArrayList<String> names = new ArrayList<String>(); 
+		for (String name : file.split("/")) 
+			if (name.equals("..")) { 
+				if (!names.isEmpty()) 
+					names.remove(names.size() - 1); 
+			} 
+			else if (!name.isEmpty() && !name.equals(".")) 
+				names.add(name); 
+		StringBuilder absolute = new StringBuilder(); 
+		for (String name : names) 
+			absolute.append('/').append(name); 
+		return names.isEmpty() ? "/" : absolute.toString(); 
+	}
+
+	/**
+	 * Returns the message for a path whose disk is not mounted.
+	 */
+	private String notMounted(String path) { 
+		return mountedDisks.isEmpty() ? "No disk mounted." : 
+			"Error: The disk of " + path + " is not mounted."; 
+	}
+
+	/**
+	 * Shuts down the mounted disk with the given name. If it was the 
+	 * current disk, any other mounted disk becomes the current one.
+	 * @param name the name of the disk
+	 */
+	private void unmount(String name) { 
+		mountedDisks.remove(name); 
+		mounts.unmount(name); 
+		workingDirectories.remove(name); 
+		if (mountedDiskName.equals(name)) 
+			mountedDiskName = mountedDisks.isEmpty() ? "null" : 
+				mountedDisks.keySet().iterator().next(); 
+	}
+
 	// INNER CLASSES -- ONE FOR EACH VALID COMMAND --
 	/**
 	 *  The following are inner classes. Notice that there is one such class
@@ -116,6 +296,8 @@ public class SystemCommandsProcessor extends CommandProcessor {
 
 			resultsList = new ArrayList<String>(); 
 			resultsList.add("SYSTEM IS SHUTTING DOWN!!!!");
+			// the disks keep their free lists only after a shutdown
+			unmountAll();
 			stopExecution = true;
 			return resultsList; 
 		}
@@ -123,6 +305,11 @@ public class SystemCommandsProcessor extends CommandProcessor {
 
 	/**
 	 * Calls the method of class DiskUnit that creates the disk.
+	 * An optional fourth operand gives the i-node format: "chained"
+	 * (the default) or "extents", and an optional fifth one the format
+	 * of the directories: "hashed" (the default) or "linear". Disks 
+	 * whose blocks are large enough are created sparse, so that large
+	 * disks are created at once.
 	 * @author josej
 	 *
 	 */
@@ -134,18 +321,44 @@ public class SystemCommandsProcessor extends CommandProcessor {
 			String name = fc.getOperand(1);
 			int nBlocks = Integer.parseInt(fc.getOperand(2));
 			int bSize = Integer.parseInt(fc.getOperand(3));			
+			int iNodeFormat = DiskUnit.INODE_CHAINED;
+			int directoryFormat = DiskUnit.DIRECTORY_HASHED;
+			if(fc.getNumberOfOperands() >= 4){
+				if(fc.getOperand(4).equals("extents"))
+					iNodeFormat = DiskUnit.INODE_EXTENTS;
+				else if(!fc.getOperand(4).equals("chained")){
+					resultsList.add("Error: I-node format must be chained or extents.");
+					return resultsList;
+				}
+			}
+			if(fc.getNumberOfOperands() == 5){
+				if(fc.getOperand(5).equals("linear"))
+					directoryFormat = DiskUnit.DIRECTORY_LINEAR;
+				else if(!fc.getOperand(5).equals("hashed")){
+					resultsList.add("Error: Directory format must be hashed or linear.");
+					return resultsList;
+				}
+			}
 
-			if(diskManager.findDiskNameIndex(name) != -1){
+			if(diskManager.hasDisk(name)){
 				resultsList.add("Error: A disk already exists with that name.");
 			}
 			else{
 				if(nBlocks < 256)
 					resultsList.add("Error: Disk capacity can't be less than 256 bytes.");
-				if(bSize < 32)
+				else if(!Utils.powerOf2(nBlocks))
+					resultsList.add("Error: Disk capacity must be a power of 2.");
+				else if(bSize < 32)
 					resultsList.add("Error: Block size can't be less than 32 bytes.");
-				else
-					DiskUnit.createDiskUnit(name, nBlocks, bSize);				
-				diskManager.addDisk(name);
+				else if(!Utils.powerOf2(bSize))
+					resultsList.add("Error: Block size must be a power of 2.");
+				else if(iNodeFormat == DiskUnit.INODE_EXTENTS && bSize < 64)
+					resultsList.add("Error: Block size can't be less than 64 bytes for extents.");
+				else{
+					DiskUnit.createDiskUnit(name, nBlocks, bSize, DiskUnit.FREE_BLOCK_BITMAP, iNodeFormat, 
+							directoryFormat, bSize >= DiskUnit.MIN_SPARSE_BLOCK_SIZE);				
+					diskManager.addDisk(name, nBlocks, bSize);
+				}
 			}
 			return resultsList;
 		}
@@ -165,15 +378,63 @@ public class SystemCommandsProcessor extends CommandProcessor {
 
 			String name = fc.getOperand(1);
 
-			if(mountedDisk == null)
+			if(mountedDisks.isEmpty())
 				resultsList.add("No disk mounted.");
-			else if(diskManager.findDiskNameIndex(name) == -1)
+			else if(!diskManager.hasDisk(name))
 				resultsList.add("Error: Disk with that name doesn't exist.");
-			else if(mountedDiskName.equals(name))
+			else if(mounts.isMounted(name))
 				resultsList.add("Error: Disk is mounted. To delete unmount first.");
-			else{	
-				diskManager.deleteDisk(name);
+			else if(!diskManager.deleteDisk(name))
+				resultsList.add("Error: The file of the disk can't be deleted.");
+			else
 				resultsList.add("Deleted successfully.");
+			return resultsList;
+		}
+
+	}
+
+	/**
+	 * Erases every file of the disk with the given name, which must not
+	 * be mounted, leaving it as it was created. An optional second
+	 * operand says how its blocks are emptied: "zero" (the default), 
+	 * writing zeroes, or "punch", turning them into a hole of its file.
+	 * The progress is shown every tenth of the disk, and the throughput
+	 * at the end.
+	 * @author josej
+	 *
+	 */
+	private class FormatProcessor implements CommandActionHandler {
+		public ArrayList<String> execute(Command c) {
+			resultsList = new ArrayList<String>();
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+
+			String name = fc.getOperand(1);
+			boolean holes = fc.getNumberOfOperands() == 2 && fc.getOperand(2).equals("punch");
+			if(fc.getNumberOfOperands() == 2 && !holes && !fc.getOperand(2).equals("zero"))
+				resultsList.add("Error: Format mode must be zero or punch.");
+			else if(!diskManager.hasDisk(name))
+				resultsList.add("Error: Disk with that name doesn't exist.");
+			else if(mounts.isMounted(name))
+				resultsList.add("Error: Disk is mounted. To format unmount first.");
+			else{
+				final long start = System.nanoTime();
+				final AtomicInteger shown = new AtomicInteger();	//tenths of the disk shown
+				try {
+					long bytes = DiskUnit.format(name, holes, new FormatProgress(){
+						public void formatted(long bytes, long totalBytes) {
+							int tenths = (int) (bytes * 10 / totalBytes);
+							int last = shown.get();
+							if(tenths > last && tenths < 10 && shown.compareAndSet(last, tenths))
+								out.println(String.format("Formatted %d%% (%.1f MB/s).", tenths * 10, 
+										bytes / 1e6 / (Math.max(System.nanoTime() - start, 1) / 1e9)));
+						}
+					});
+					double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+					resultsList.add("Formatted " + bytes + " bytes in " + 
+							String.format("%.3f s (%.1f MB/s).", seconds, bytes / 1e6 / seconds));
+				} catch (NonExistingDiskException e) {
+					resultsList.add("Error: " + e.getMessage());
+				}
 			}
 			return resultsList;
 		}
@@ -181,7 +442,63 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	}
 
 	/**
-	 * Mounts the disk with the given name.
+	 * Checks the disk with the given name, which must not be mounted,
+	 * and shows the problems found and how fast the disk was read.
+	 * @author josej
+	 *
+	 */
+	private class CheckDiskProcessor implements CommandActionHandler {
+		public ArrayList<String> execute(Command c) {
+			resultsList = new ArrayList<String>();
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+
+			String name = fc.getOperand(1);
+			if(!diskManager.hasDisk(name))
+				resultsList.add("Error: Disk with that name doesn't exist.");
+			else if(mounts.isMounted(name))
+				resultsList.add("Error: Disk is mounted. To check unmount first.");
+			else{
+				long start = System.nanoTime();
+				try {
+					DiskChecker checker = DiskUnit.check(name);
+					double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+					if(checker == null){
+						resultsList.add("Error: Disk " + name + " couldn't be read.");
+						return resultsList;
+					}
+					resultsList.add("Checked disk " + name + ": " + checker.getCapacity() + " blocks, " + 
+							checker.getNumOfINodes() + " i-nodes.");
+					resultsList.add("In use: " + checker.getFiles() + " files, " + checker.getDirectories() + 
+							" directories, " + checker.getUsedBlocks() + " blocks.");
+					resultsList.add("Free: " + checker.getFreeINodes() + " i-nodes, " + 
+							checker.getFreeBlocks() + " blocks.");
+					resultsList.addAll(checker.getProblems());
+					int more = checker.getProblemCount() - checker.getProblems().size();
+					if(more > 0)
+						resultsList.add("... and " + more + " more.");
+					resultsList.add(checker.getProblemCount() == 0 ? "No problems found." : 
+						checker.getProblemCount() + " problems found.");
+					resultsList.add(String.format("Read %.1f MB in %.3f s (%.1f MB/s, %.0f blocks/s) with %d threads.", 
+							checker.getBytesRead() / 1e6, seconds, checker.getBytesRead() / 1e6 / seconds, 
+							checker.getCapacity() / seconds, checker.getParallelism()));
+				} catch (NonExistingDiskException e) {
+					resultsList.add("Error: " + e.getMessage());
+				}
+			}
+			return resultsList;
+		}
+
+	}
+
+	/**
+	 * Mounts the disk with the given name, which becomes the current
+	 * disk. Other disks that are mounted stay mounted. An optional
+	 * second operand gives the number of blocks the disk caches
+	 * (0 for no cache), and an optional third one says when the
+	 * blocks written go to the disk: "writethrough" (the default),
+	 * right away, or "writeback", when the disk is synced or unmounted
+	 * or too many blocks are waiting. A disk that another session has
+	 * mounted is shared as it is, and those operands are ignored.
 	 * @author josej
 	 *
 	 */
@@ -191,15 +508,31 @@ public class SystemCommandsProcessor extends CommandProcessor {
 			FixedLengthCommand fc = (FixedLengthCommand) c;
 
 			String name = fc.getOperand(1);
+			int cacheBlocks = fc.getNumberOfOperands() >= 2 ? 
+					Integer.parseInt(fc.getOperand(2)) : DiskUnit.DEFAULT_CACHE_BLOCKS;
+			boolean writeBack = false;
+			if(fc.getNumberOfOperands() == 3){
+				if(fc.getOperand(3).equals("writeback"))
+					writeBack = true;
+				else if(!fc.getOperand(3).equals("writethrough")){
+					resultsList.add("Error: Write mode must be writethrough or writeback.");
+					return resultsList;
+				}
+			}
 
-			if(diskManager.findDiskNameIndex(name) == -1)
+			if(!diskManager.hasDisk(name))
 				resultsList.add("Error: Disk with that name doesn't exist.");
-			else if(mountedDiskName.equals(name))
+			else if(mountedDisks.containsKey(name))
 				resultsList.add("Error: Disk already mounted.");
+			else if(cacheBlocks < 0)
+				resultsList.add("Error: Cache size can't be negative.");
+			else if(writeBack && cacheBlocks == 0)
+				resultsList.add("Error: Write-back needs a cache.");
 			else{
 				try {
-					mountedDisk = DiskUnit.mount(name);
+					mountedDisks.put(name, mounts.mount(name, cacheBlocks, writeBack));
 					mountedDiskName = name;
+					workingDirectories.put(name, "/");
 					resultsList.add("Mounted succesfully.");
 				} catch (NonExistingDiskException e) {
 					e.printStackTrace();
@@ -210,20 +543,24 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	}
 
 	/**
-	 * Unmounts the disk that is currently mounted.
-	 * Can't unmount if there is no disk mounted.
+	 * Unmounts the disk with the given name, or the current disk 
+	 * if no name is given. Can't unmount if there is no disk mounted.
 	 * @author josej
 	 *
 	 */
 	private class UnmountProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>();			
-			if(mountedDisk == null)
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+
+			String name = fc.getNumberOfOperands() == 1 ? fc.getOperand(1) : mountedDiskName;
+
+			if(mountedDisks.isEmpty())
 				resultsList.add("Error: No disk mounted.");
+			else if(!mountedDisks.containsKey(name))
+				resultsList.add("Error: Disk " + name + " is not mounted.");
 			else{
-				mountedDisk.shutdown();
-				mountedDisk = null;
-				mountedDiskName = "null";
+				unmount(name);
 				resultsList.add("Unmounted successfully");
 			}
 			return resultsList;
@@ -232,7 +569,8 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	}
 
 	/**
-	 * Shows the list of disks that are currently available.
+	 * Shows the list of disks that are currently available, with
+	 * their size and when they were created and last mounted.
 	 * @author josej
 	 *
 	 */
@@ -240,14 +578,24 @@ public class SystemCommandsProcessor extends CommandProcessor {
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>();
 
-			ArrayList<String> disks = diskManager.getDiskNames(); 
+			ArrayList<DiskInfo> disks = diskManager.getDisks(); 
 			if(disks.isEmpty())
 				resultsList.add("No disks to show.");
 			else{
 				resultsList.add("Existing disks are: ");
 
-				for(int i = 0; i < disks.size(); i++)			
-					resultsList.add(diskManager.getDiskNames().get(i));	
+				SimpleDateFormat date = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+				for(int i = 0; i < disks.size(); i++){
+					DiskInfo disk = disks.get(i);
+					String name = disk.getName();
+					if(name.equals(mountedDiskName))
+						name += " (mounted, current)";
+					else if(mounts.isMounted(name))
+						name += " (mounted)";
+					resultsList.add(name + ": " + disk.getCapacity() + " blocks of " + disk.getBlockSize() + 
+							" bytes, created " + date.format(new Date(disk.getCreated())) + ", last mounted " + 
+							(disk.getLastMount() == 0 ? "never" : date.format(new Date(disk.getLastMount()))) + ".");
+				}
 			}
 
 			return resultsList;
@@ -267,27 +615,32 @@ public class SystemCommandsProcessor extends CommandProcessor {
 			FixedLengthCommand fc = (FixedLengthCommand) c;
 
 			String fileName = fc.getOperand(1);
-			String newFileName = fc.getOperand(2);
+			FileManager fileManager = getFileManager(fc.getOperand(2));
 
-			if(mountedDisk == null){
-				resultsList.add("No disk mounted.");
+			if(fileManager == null){
+				resultsList.add(notMounted(fc.getOperand(2)));
 				return resultsList;
 			}			
-			int freeINode = mountedDisk.getFreeINode();
-			int bs = mountedDisk.getBlockSize();
-			VirtualDiskBlock vdb = new VirtualDiskBlock(bs);		
+			String newFileName = getFileName(fc.getOperand(2));
 
 			File ext_file = new File("src\\" + fileName);			
 
 			if(!ext_file.exists())
 				resultsList.add("Error: Such file does not exist in current directory.");
-			else if(mountedDisk == null){
-				resultsList.add("Error: No disk mounted.");
-			}
-			else if(freeINode == 0){
-				resultsList.add("Error: Disk is full.");
-			}
 			else{
+				try {
+					long start = System.nanoTime();
+					int blocks = fileManager.loadFile(ext_file, newFileName);
+					double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+					resultsList.add("Loaded " + ext_file.length() + " bytes into " + blocks + " blocks in " + 
+							String.format("%.3f s (%.0f bytes/s).", seconds, ext_file.length() / seconds));
+				} catch (FullDiskException e) {
+					resultsList.add("Error: Disk is full.");
+				} catch (InvalidParameterException e) {
+					resultsList.add("Error: " + e.getMessage());
+				} catch (IOException e) {
+					resultsList.add("Error: Unable to read " + fileName + ".");
+				}
 			}
 			return resultsList;
 		}
@@ -295,7 +648,9 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	}
 
 	/**
-	 * Copies on internal file to another internal file.
+	 * Copies on internal file to another internal file. Either
+	 * file may be on any mounted disk ("disk:file"). Within a disk the
+	 * copy shares the blocks of the original instead of copying them.
 	 * @author josej
 	 *
 	 */
@@ -304,6 +659,28 @@ public class SystemCommandsProcessor extends CommandProcessor {
 			resultsList = new ArrayList<String>();
 			FixedLengthCommand fc = (FixedLengthCommand) c;
 
+			FileManager source = getFileManager(fc.getOperand(1));
+			FileManager target = getFileManager(fc.getOperand(2));
+
+			if(source == null || target == null){
+				resultsList.add(notMounted(fc.getOperand(source == null ? 1 : 2)));
+				return resultsList;
+			}
+			String sourceName = getFileName(fc.getOperand(1));
+			String targetName = getFileName(fc.getOperand(2));
+
+			if(source.findFile(sourceName) == -1)
+				resultsList.add("Error: File " + sourceName + " does not exist.");
+			else{
+				try {
+					int blocks = target.copyFile(source, sourceName, targetName);
+					resultsList.add("Copied into " + blocks + " blocks.");
+				} catch (FullDiskException e) {
+					resultsList.add("Error: Disk is full.");
+				} catch (InvalidParameterException e) {
+					resultsList.add("Error: " + e.getMessage());
+				}
+			}
 
 			return resultsList;
 		}
@@ -312,14 +689,30 @@ public class SystemCommandsProcessor extends CommandProcessor {
 
 	/**
 	 * List the names and sizes of all the files 
-	 * and directories that are part of the current directory.
+	 * and directories that are part of the current directory,
+	 * or of the directory with the given path.
 	 * @author josej
 	 *
 	 */
 	private class ShowDirectoryProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>();
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+
+			String path = fc.getNumberOfOperands() == 1 ? fc.getOperand(1) : ".";
+			FileManager fileManager = getFileManager(path);
+			if(fileManager == null){
+				resultsList.add(notMounted(path));
+				return resultsList;
+			}
 
+			String dirName = getFileName(path);
+			int iNode = fileManager.findFile(dirName);
+			if(iNode == -1 || !fileManager.isDirectory(iNode)){
+				resultsList.add("Error: Directory " + dirName + " does not exist.");
+				return resultsList;
+			}
+			resultsSource = new ListingSource(fileManager, iNode);
 
 			return resultsList;
 		}
@@ -327,7 +720,53 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	}
 
 	/**
-	 * Displays the content of the given internal file.
+	 * The lines shown by ls: one per entry of a directory, sorted by name,
+	 * and then the number of entries. The i-node of an entry is read 
+	 * only when its line is shown. Since other sessions may change the
+	 * directory between pages, each line is only made while the directory
+	 * has the version it had when listed (see FileManager.getVersion());
+	 * otherwise the listing ends with CHANGED instead.
+	 * @author josej
+	 *
+	 */
+	private static class ListingSource implements ResultsSource {
+		private static final String CHANGED = "Error: The directory has been changed or removed.";
+		private FileManager fileManager;
+		private int iNodeIndex;				//i-node of the directory
+		private int version;				//version of the directory when listed
+		private Directory directory;
+		private ArrayList<String> names;
+		private int changedAt;				//line showing CHANGED, -1 if the directory hasn't changed
+
+		ListingSource(FileManager fileManager, int iNodeIndex) {
+			this.fileManager = fileManager;
+			this.iNodeIndex = iNodeIndex;
+			version = fileManager.getVersion(iNodeIndex);
+			directory = fileManager.getDirectory(iNodeIndex);
+			names = new ArrayList<String>(directory.getEntries().keySet());
+			Collections.sort(names);
+			changedAt = -1;
+		}
+
+		public String getLine(int index) {
+			if(index < 0 || index > names.size() || changedAt != -1 && index > changedAt)
+				return null;
+			if(index == changedAt || fileManager.getVersion(iNodeIndex) != version){
+				changedAt = changedAt == -1 ? index : Math.min(changedAt, index);
+				return CHANGED;
+			}
+			if(index == names.size())
+				return names.size() + " entries.";
+			INode node = fileManager.getDiskUnit().readINode(directory.find(names.get(index)));
+			return String.format("%-" + FileManager.NAME_LENGTH + "s %10d%s", names.get(index), 
+					node.getSize(), node.getType() == INode.DIRECTORY ? " <dir>" : "");
+		}
+	}
+
+	/**
+	 * Displays the content of the given internal file, which may be
+	 * on any mounted disk ("disk:file"). The lines are read from the
+	 * blocks of the file as they are shown (see FileLinesSource).
 	 * @author josej
 	 *
 	 */
@@ -336,6 +775,21 @@ public class SystemCommandsProcessor extends CommandProcessor {
 			resultsList = new ArrayList<String>();
 			FixedLengthCommand fc = (FixedLengthCommand) c;
 
+			FileManager fileManager = getFileManager(fc.getOperand(1));
+
+			if(fileManager == null){
+				resultsList.add(notMounted(fc.getOperand(1)));
+				return resultsList;
+			}
+			String fileName = getFileName(fc.getOperand(1));
+
+			int iNode = fileManager.findFile(fileName);
+			if(iNode == -1)
+				resultsList.add("Error: File " + fileName + " does not exist.");
+			else if(fileManager.isDirectory(iNode))
+				resultsList.add("Error: " + fileName + " is a directory.");
+			else
+				resultsSource = new FileLinesSource(fileManager.openContent(iNode));
 
 			return resultsList;
 		}
@@ -343,27 +797,269 @@ public class SystemCommandsProcessor extends CommandProcessor {
 	}	
 
 	/**
-	 * Displays important information of the disk.
+	 * Creates an empty directory with the given path.
+	 * @author josej
+	 *
+	 */
+	private class MakeDirectoryProcessor implements CommandActionHandler {
+		public ArrayList<String> execute(Command c) {
+			resultsList = new ArrayList<String>();
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+
+			FileManager fileManager = getFileManager(fc.getOperand(1));
+			if(fileManager == null)
+				resultsList.add(notMounted(fc.getOperand(1)));
+			else{
+				try {
+					fileManager.makeDirectory(getFileName(fc.getOperand(1)));
+				} catch (FullDiskException e) {
+					resultsList.add("Error: Disk is full.");
+				} catch (InvalidParameterException e) {
+					resultsList.add("Error: " + e.getMessage());
+				}
+			}
+			return resultsList;
+		}
+	}
+
+	/**
+	 * Makes the directory with the given path the current directory
+	 * of its disk. If the path names a disk, that disk also becomes 
+	 * the current disk.
+	 * @author josej
+	 *
+	 */
+	private class ChangeDirectoryProcessor implements CommandActionHandler {
+		public ArrayList<String> execute(Command c) {
+			resultsList = new ArrayList<String>();
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+
+			FileManager fileManager = getFileManager(fc.getOperand(1));
+			if(fileManager == null){
+				resultsList.add(notMounted(fc.getOperand(1)));
+				return resultsList;
+			}
+			String dirName = getFileName(fc.getOperand(1));
+			int iNode = fileManager.findFile(dirName);
+			if(iNode == -1 || !fileManager.isDirectory(iNode))
+				resultsList.add("Error: Directory " + dirName + " does not exist.");
+			else{
+				mountedDiskName = getDiskName(fc.getOperand(1));
+				workingDirectories.put(mountedDiskName, dirName);
+			}
+			return resultsList;
+		}
+	}
+
+	/**
+	 * Displays the current disk and its current directory.
+	 * @author josej
+	 *
+	 */
+	private class WorkingDirectoryProcessor implements CommandActionHandler {
+		public ArrayList<String> execute(Command c) {
+			resultsList = new ArrayList<String>();
+			if(mountedDisks.isEmpty())
+				resultsList.add("No disk mounted.");
+			else
+				resultsList.add(mountedDiskName + ":" + workingDirectories.get(mountedDiskName));
+			return resultsList;
+		}
+	}
+
+	/**
+	 * Removes the file, or empty directory, with the given path. 
+	 * The current directory of a disk can't be removed.
+	 * @author josej
+	 *
+	 */
+	private class RemoveProcessor implements CommandActionHandler {
+		public ArrayList<String> execute(Command c) {
+			resultsList = new ArrayList<String>();
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+
+			FileManager fileManager = getFileManager(fc.getOperand(1));
+			if(fileManager == null){
+				resultsList.add(notMounted(fc.getOperand(1)));
+				return resultsList;
+			}
+			String fileName = getFileName(fc.getOperand(1));
+			String current = workingDirectories.get(getDiskName(fc.getOperand(1)));
+			if(current.equals(fileName) || current.startsWith(fileName + "/"))
+				resultsList.add("Error: " + fileName + " holds the current directory.");
+			else{
+				try {
+					fileManager.delete(fileName);
+				} catch (InvalidParameterException e) {
+					resultsList.add("Error: " + e.getMessage());
+				}
+			}
+			return resultsList;
+		}
+	}
+
+	/**
+	 * Moves or renames a file or directory within its disk. If the
+	 * second path is a directory, the file goes into it.
+	 * @author josej
+	 *
+	 */
+	private class MoveProcessor implements CommandActionHandler {
+		public ArrayList<String> execute(Command c) {
+			resultsList = new ArrayList<String>();
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+
+			FileManager source = getFileManager(fc.getOperand(1));
+			FileManager target = getFileManager(fc.getOperand(2));
+			if(source == null || target == null){
+				resultsList.add(notMounted(fc.getOperand(source == null ? 1 : 2)));
+				return resultsList;
+			}
+			if(source != target){
+				resultsList.add("Error: Files can only be moved within their disk.");
+				return resultsList;
+			}
+			String fileName = getFileName(fc.getOperand(1));
+			String current = workingDirectories.get(getDiskName(fc.getOperand(1)));
+			if(current.equals(fileName) || current.startsWith(fileName + "/"))
+				resultsList.add("Error: " + fileName + " holds the current directory.");
+			else{
+				try {
+					source.rename(fileName, getFileName(fc.getOperand(2)));
+				} catch (FullDiskException e) {
+					resultsList.add("Error: Disk is full.");
+				} catch (InvalidParameterException e) {
+					resultsList.add("Error: " + e.getMessage());
+				}
+			}
+			return resultsList;
+		}
+	}
+
+	/**
+	 * Displays important information of the disk with the given
+	 * name, or of the current disk if no name is given.
 	 * @author josej
 	 *
 	 */
 	private class DiskParametersProcessor implements CommandActionHandler {
 		public ArrayList<String> execute(Command c) {
 			resultsList = new ArrayList<String>();
+			FixedLengthCommand fc = (FixedLengthCommand) c;
 
-			resultsList.add("Metadata on disk: " + mountedDisk);
+			String name = fc.getNumberOfOperands() == 1 ? fc.getOperand(1) : mountedDiskName;
+			if(!mountedDisks.containsKey(name)){
+				resultsList.add("Error: Disk " + name + " is not mounted.");
+				return resultsList;
+			}
+			DiskUnit mountedDisk = mountedDisks.get(name).getDiskUnit();
+
+			resultsList.add("Metadata on disk: " + name);
 			resultsList.add("Number of blocks: " + mountedDisk.getCapacity());
 			resultsList.add("Blocks size: " + mountedDisk.getBlockSize());
+			resultsList.add("Storage backend: " + mountedDisk.getStorageType());
+			resultsList.add("Free space format: " + mountedDisk.getFreeSpaceFormat());
 			resultsList.add("Free blocks root: " + mountedDisk.getFirstFreeBlock());
 			resultsList.add("Index at free block root: " + mountedDisk.getFirstFreeBlockIndex());
 			resultsList.add("First free i-node starts at byte: " + mountedDisk.getFirstFreeINodeIndex());
 			resultsList.add("Number of i-nodes: " + mountedDisk.getNumOfINodes());
+			resultsList.add("Free i-nodes: " + mountedDisk.getNumOfFreeINodes());
+			if(mountedDisk.isSparse())
+				resultsList.add("Never used: i-nodes from " + mountedDisk.getINodeHighWaterMark() + 
+						(mountedDisk.getBlockHighWaterMark() < mountedDisk.getCapacity() ? 
+								", blocks from " + mountedDisk.getBlockHighWaterMark() : ""));
+			resultsList.add("Mounted from checkpoint: " + (mountedDisk.isMountedFromCheckpoint() ? "yes" : "no"));
+			resultsList.add("I-node format: " + (mountedDisk.getINodeFormat() == DiskUnit.INODE_EXTENTS ? 
+					"extents" : "chained") + " (" + mountedDisk.getINodeSize() + " bytes)");
+			resultsList.add("Directory format: " + (mountedDisk.getDirectoryFormat() == 
+					DiskUnit.DIRECTORY_HASHED ? "hashed" : "linear"));
+			resultsList.add("Shared blocks: " + (mountedDisk.hasBlockReferences() ? 
+					mountedDisk.getSharedBlocks() : "- (blocks can't be shared)"));
+			long fetched = mountedDisk.getReadAheadHits() + mountedDisk.getReadAheadMisses();
+			resultsList.add("Read-ahead window: " + mountedDisk.getReadAheadWindow() + " blocks");
+			resultsList.add("Read-ahead hit rate: " + (fetched == 0 ? "-" : 
+				String.format("%.1f%%", 100.0 * mountedDisk.getReadAheadHits() / fetched)));
 			resultsList.add("");
 
 			return resultsList;
 		}
 	}
 
+	/**
+	 * Displays how well the block cache and the dentry cache of the
+	 * disk with the given name, or of the current disk, are doing.
+	 * @author josej
+	 *
+	 */
+	private class CacheStatsProcessor implements CommandActionHandler {
+		public ArrayList<String> execute(Command c) {
+			resultsList = new ArrayList<String>();
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+
+			String name = fc.getNumberOfOperands() == 1 ? fc.getOperand(1) : mountedDiskName;
+			if(!mountedDisks.containsKey(name)){
+				resultsList.add("Error: Disk " + name + " is not mounted.");
+				return resultsList;
+			}
+			BlockCache cache = mountedDisks.get(name).getDiskUnit().getCache();
+			if(cache == null)
+				resultsList.add("Disk " + name + " is mounted without a cache.");
+			else
+				addBlockCacheStats(name, cache);
+
+			DentryCache dentries = mountedDisks.get(name).getDentryCache();
+			long resolved = dentries.getHits() + dentries.getMisses();
+			resultsList.add("Dentries cached: " + dentries.size() + " of " + dentries.getCapacity());
+			resultsList.add("Dentry hits: " + dentries.getHits() + ", misses: " + dentries.getMisses());
+			resultsList.add("Dentry hit ratio: " + (resolved == 0 ? "-" : 
+				String.format("%.1f%%", 100.0 * dentries.getHits() / resolved)));
+
+			return resultsList;
+		}
+
+		private void addBlockCacheStats(String name, BlockCache cache) {
+			long lookups = cache.getHits() + cache.getMisses();
+			resultsList.add("Cache of disk: " + name);
+			resultsList.add("Blocks cached: " + cache.getUsedSlots() + " of " + cache.getSlots());
+			resultsList.add("Hits: " + cache.getHits());
+			resultsList.add("Misses: " + cache.getMisses());
+			resultsList.add("Evictions: " + cache.getEvictions());
+			resultsList.add("Hit ratio: " + (lookups == 0 ? "-" : 
+				String.format("%.1f%%", 100.0 * cache.getHits() / lookups)));
+			if(mountedDisks.get(name).getDiskUnit().isWriteBack()){
+				resultsList.add("Write mode: write-back");
+				resultsList.add("Dirty blocks: " + cache.getDirtyBlocks() + " (flushed at " + 
+						cache.getDirtyLimit() + ")");
+				resultsList.add("Flushes: " + cache.getFlushes() + ", " + cache.getFlushedBlocks() + 
+						" blocks in " + cache.getFlushedRuns() + " writes");
+			}
+			else
+				resultsList.add("Write mode: write-through");
+		}
+	}
+
+	/**
+	 * Writes to the disk with the given name, or to the current disk,
+	 * the blocks and free-space changes that are only in memory.
+	 * @author josej
+	 *
+	 */
+	private class SyncProcessor implements CommandActionHandler {
+		public ArrayList<String> execute(Command c) {
+			resultsList = new ArrayList<String>();
+			FixedLengthCommand fc = (FixedLengthCommand) c;
+
+			String name = fc.getNumberOfOperands() == 1 ? fc.getOperand(1) : mountedDiskName;
+			if(!mountedDisks.containsKey(name))
+				resultsList.add("Error: Disk " + name + " is not mounted.");
+			else{
+				mountedDisks.get(name).getDiskUnit().sync();
+				resultsList.add("Synced successfully.");
+			}
+			return resultsList;
+		}
+	}
+
 	/**
 	 * 
 	 * @return true if in shutdown mode, false otherwise.